@@ -0,0 +1,120 @@
+package objectbase;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Random;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.core.DataMarshaller;
+import org.jware.objectbase.disk.CompactDataMarshaller;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.FreeSpaceManager;
+import org.jware.objectbase.disk.IndexedDataDirector;
+import org.jware.objectbase.util.Utilities;
+import static org.jware.objectbase.util.Utilities.Utility;
+
+/**
+ * File: ChurnPerfTest.java Created On: 10/18/2026
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * Purpose: Run a store through round after round of updates that change the
+ * size of records, deletes and inserts, and report the throughput and the
+ * size of the data each round. With free space reused the data levels off,
+ * the last column is what it would have grown to if every insert and moved
+ * update were appended.
+ */
+public class ChurnPerfTest {
+
+    static final int RECORD_COUNT = 20000;
+    static final int ROUNDS = 10;
+    static final int OPS_PER_ROUND = 50000;
+
+    static Person person(final Random random, final int id) {
+        return new Person(id, Utilities.getRandomString(3 + random.nextInt(40)), "Jackson",
+                new PhoneNumber(Utilities.getRandom(111, 900), Utilities.getRandom(111, 888), Utilities.getRandom(1111, 9000)), null);
+    }
+
+    public static void main(String[] args) {
+        DataMarshaller<Person> marshaller = Person.registerWith(new CompactDataMarshaller<>());
+        final Random random = new Random(7);
+        try {
+            DataStoreDirector dm = DataStoreDirector.createDataStoreDirector("Temp.jwob", marshaller);
+            IndexedDataDirector<Integer, DataHeader> id = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+            dm.openChannel();
+            for (int i = 0; i < RECORD_COUNT; i++) {
+                id.insertData(i, person(random, i));
+            }
+            long appended = id.getEndOfData();
+            int nextKey = RECORD_COUNT;
+            int lowKey = 0;
+            Utilities.Clock clock = Utility.getTimer();
+            System.out.println("\nRound, ops/s, data bytes, file bytes, free bytes, holes, appended bytes");
+            for (int round = 1; round <= ROUNDS; round++) {
+                clock.startTime();
+                for (int op = 0; op < OPS_PER_ROUND; op++) {
+                    final int choice = random.nextInt(10);
+                    if (choice < 6) {
+                        final int key = lowKey + random.nextInt(nextKey - lowKey);
+                        final DataHeader before = id.getHeader(key);
+                        if (null != before) {
+                            final long start = before.dataStartPtr();
+                            id.updateData(key, person(random, key));
+                            final DataHeader after = id.getHeader(key);
+                            if (after.dataStartPtr() != start) {
+                                appended += after.dataSize();
+                            }
+                        }
+                    } else if (choice < 8) {
+                        if (null != id.getHeader(lowKey)) {
+                            id.deleteData(lowKey);
+                        }
+                        lowKey++;
+                    } else {
+                        id.insertData(nextKey, person(random, nextKey));
+                        appended += id.getHeader(nextKey).dataSize();
+                        nextKey++;
+                    }
+                }
+                final long time = Math.max(1, clock.step());
+                final FreeSpaceManager free = id.getFreeSpace();
+                System.out.println(round + ", " + (OPS_PER_ROUND * 1000L / time) + ", " + id.getEndOfData() + ", "
+                        + id.getSizeOfFile() + ", " + free.getFreeBytes() + ", " + free.getHoleCount() + ", " + appended);
+            }
+            id.deleteFile();
+            dm.closeChannel();
+            dm.deleteFile();
+        } catch (Exception e) {
+            System.out.println(e.toString());
+        }
+    }
+}
+
+/*
+ Round, ops/s, data bytes, file bytes, free bytes, holes, appended bytes
+ 1, 181818, 1152039, 1153063, 96155, 6335, 2083544
+ 2, 188679, 1178956, 1179980, 97435, 7970, 3115773
+ 3, 183823, 1178842, 1179980, 105099, 8705, 4139568
+ 4, 632911, 1178784, 1179980, 128132, 8765, 5153397
+ 5, 268817, 1178576, 1179980, 142822, 8658, 6171634
+ 6, 287356, 1178526, 1179980, 148344, 8632, 7191672
+ 7, 316455, 1178460, 1179980, 151632, 8510, 8208335
+ 8, 295857, 1177381, 1179980, 147719, 8568, 9232625
+ 9, 274725, 1177208, 1179980, 149995, 8584, 10263075
+ 10, 316455, 1177208, 1179980, 163098, 8437, 11286810
+*/
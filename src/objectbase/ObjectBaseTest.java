@@ -85,8 +85,9 @@ public final class ObjectBaseTest {
         Path obj = Paths.get("People.odb");
         Path idx = Paths.get("People.idx");
 
-        Files.delete(idx);
+        Files.deleteIfExists(idx);
         Files.delete(obj);
+        Files.deleteIfExists(Paths.get("People.jnl"));
 
         dm = DataStoreDirector.createDataStoreDirector("People.odb", marshaller);
         indexDirector = new IndexedDataDirector(dm, new DiskRecordHeaderFactory());
@@ -125,9 +126,7 @@ public final class ObjectBaseTest {
         try {
             Utilities.Clock clock = Utility.getTimer();
             clock.startTime();
-            int i = 0;
-            for (; i < howMany; i++) {
-                Person p = (Person) indexDirector.retrieveData((Integer) keyList.get(i));
+            for (Object p : indexDirector.retrieveAll(keyList.subList(0, howMany))) {
                 System.out.println(p.toString());
             }
         } catch (final DataDirectorException | NullPointerException cause) {
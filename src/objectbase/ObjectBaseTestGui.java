@@ -568,7 +568,9 @@ public class ObjectBaseTestGui extends javax.swing.JFrame {
                 for (Iterator it = list.iterator(); it.hasNext();) {
                     DataHeader rec = (DataHeader) it.next();
                     keyList.add(rec.key());
-                    Person p = (Person) indexDirector.retrieveData((Integer) rec.key());
+                }
+                for (Object record : indexDirector.retrieveAll(keyList)) {
+                    Person p = (Person) record;
                     model.addRow(new Object[]{p.firstName, p.lastName, p.phoneNumber.toString(), ""});
                     numOfRecTextB.setText(String.valueOf(numOfRecs));
                     //                   numOfRecTextB.setText(String.valueOf(indexDirector.getRecordCount()));
@@ -2,16 +2,30 @@ package objectbase;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import org.jware.objectbase.util.Utilities;
 import static org.jware.objectbase.util.Utilities.Utility;
 
@@ -36,18 +50,29 @@ import static org.jware.objectbase.util.Utilities.Utility;
  *
  * @author J. Paul Jackson <jwareservices@gmail.com>
  *
- * Purpose:
+ * Purpose: A file of serialized objects, each written as
+ * <pre>
+ *   size int | delete flag int | object bytes
+ * </pre>
+ * Objects are found by index, counting only those not deleted. The offset of
+ * each of them is kept in order in memory, built in one pass over the file
+ * when it is opened and kept up to date by addObject and deleteObject, so an
+ * object is read with a single seek. compact rewrites the file without the
+ * deleted records. scan streams every object, reading the file a large chunk
+ * at a time, for stores too big to hold in a list.
  */
 public class ObjectStore {
 
     private File file;
-    private FileInputStream fis;
-    private FileOutputStream fos;
     private FileChannel channel;
+    private boolean writable;
+    private long[] offsets = new long[16];
+    private int count;
     private final static int _DELETE = -1;
     private final static int BSIZE = 1024;
     private final static int BSIZE_FLAG = 4;
-    private long NEW_POSITION;
+    private final static int RECORD_HEADER = BSIZE_FLAG + BSIZE_FLAG;
+    private final static int SCAN_CHUNK = 1 << 20;
 
     public ObjectStore(String fileName) throws IOException {
         this.file = new File(fileName);
@@ -57,16 +82,75 @@ public class ObjectStore {
      * Creates a channel to read from a file
      */
     public void read() throws IOException {
-        FileInputStream fis = new FileInputStream(file);
-        this.channel = fis.getChannel();
+        open(false);
+        readOffsets();
     }
 
     /**
-     * Creates a channel to write to a file in appended mode
+     * Creates a channel to write to a file, objects are always added at the
+     * end.
      */
     public void write() throws IOException {
-        FileOutputStream fos = new FileOutputStream(file, true);
-        this.channel = fos.getChannel();
+        open(true);
+        readOffsets();
+    }
+
+    private void open(final boolean forWriting) throws IOException {
+        this.channel = forWriting ? new RandomAccessFile(file, "rw").getChannel()
+                : new FileInputStream(file).getChannel();
+        this.writable = forWriting;
+    }
+
+    /*
+     * One pass over the record headers noting where each object not deleted
+     * starts. A record cut short at the end of the file is left out, and cut
+     * off when writing so the next object added follows the last whole one.
+     */
+    private void readOffsets() throws IOException {
+        count = 0;
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        final long size = this.channel.size();
+        long position = 0;
+        while (position + RECORD_HEADER <= size) {
+            readFully(header, position);
+            final long next = position + RECORD_HEADER + header.getInt(0);
+            if (next > size) {
+                break;
+            }
+            if (header.getInt(BSIZE_FLAG) != _DELETE) {
+                addOffset(position);
+            }
+            position = next;
+        }
+        if (writable && position < size) {
+            this.channel.truncate(position);
+        }
+    }
+
+    private void addOffset(final long offset) {
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count << 1);
+        }
+        offsets[count++] = offset;
+    }
+
+    private long offsetOf(final int index) throws IOException {
+        if (index < 0 || index >= count) {
+            throw new IOException("Object " + index + " not present.");
+        }
+        return offsets[index];
+    }
+
+    private void readFully(final ByteBuffer buffer, long position) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            final int read = this.channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Record at " + position + " is past the end of " + file);
+            }
+            position += read;
+        }
+        buffer.flip();
     }
 
     /**
@@ -74,8 +158,7 @@ public class ObjectStore {
      */
     public Object getObject(int index) throws IOException,
             ClassNotFoundException {
-        seekToIndex(index);
-        return readObject();
+        return readObject(offsetOf(index));
     }
 
     public void close() throws IOException {
@@ -83,15 +166,14 @@ public class ObjectStore {
     }
 
     /**
-     * Delete the object at index from the store.
+     * Delete the object at index from the store, the objects after it move
+     * down one index.
      */
     public void deleteObject(int index) throws IOException {
-        seekToIndex(index);
-
-        NEW_POSITION = (long) (this.channel.position() + BSIZE_FLAG);
-        this.channel.position(NEW_POSITION);
-
-        writeDeleteFlag(_DELETE);
+        final long offset = offsetOf(index);
+        writeDeleteFlag(offset, _DELETE);
+        System.arraycopy(offsets, index + 1, offsets, index, count - index - 1);
+        count--;
     }
 
     /**
@@ -101,105 +183,104 @@ public class ObjectStore {
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         ObjectOutputStream oos = new ObjectOutputStream(bos);
         oos.writeObject(o);
+        oos.flush();
         byte[] buffer = bos.toByteArray();
 
-// move to the last position
-        this.channel.position(this.channel.size());
-
-        writeSizeInfo(buffer);
-
-        writeDeleteFlag(0);
-
-// Write the actual object as byteBuffer
-        this.channel.write(ByteBuffer.wrap(buffer));
-
+        final long offset = this.channel.size();
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + buffer.length);
+        record.putInt(buffer.length).putInt(0).put(buffer).flip();
+        long position = offset;
+        while (record.hasRemaining()) {
+            position += this.channel.write(record, position);
+        }
+        addOffset(offset);
     }
 
-    private void writeDeleteFlag(int flag) throws IOException {
+    private void writeDeleteFlag(final long offset, int flag) throws IOException {
 // write an int flag to identify, whether deleted or not, if delete, its
 // _DELETE, i.e -1 else 0.
-        ByteBuffer flagBuffer = ByteBuffer.allocateDirect(BSIZE_FLAG);
-        flagBuffer.asIntBuffer().put(flag);
-        this.channel.write(flagBuffer);
-    }
-
-    private void writeSizeInfo(byte[] buffer) throws IOException {
-// write the number of bytes in buffer to be written
-        ByteBuffer sizeBuffer = ByteBuffer.allocate(BSIZE_FLAG);
-        sizeBuffer.asIntBuffer().put(buffer.length);
-        this.channel.write(sizeBuffer);
+        ByteBuffer flagBuffer = ByteBuffer.allocate(BSIZE_FLAG);
+        flagBuffer.putInt(flag).flip();
+        this.channel.write(flagBuffer, offset + BSIZE_FLAG);
     }
 
     /**
      * Returns the number of objects currently in the store.
      */
     public int getStoredCount() throws IOException {
-
-        this.channel.position(0);
-        int counter = 0;
-        while (this.channel.position() < this.channel.size()) {
-
-            int skipBytes = readSizeInfo();
-            int deleteFlag = readDeleteFlag();
-
-            if (deleteFlag != _DELETE) {
-                counter++;
-            }
-
-// skip number of bytes
-            NEW_POSITION = (long) (this.channel.position() + skipBytes);
-            this.channel.position(NEW_POSITION);
-        }
-        System.out.println("Total Objects Written to a file is: " + counter);
-        return counter;
+        return count;
     }
 
     /**
-     * @return @throws IOException
+     * Returns all the objects in the store as a List.
      */
-    private int readDeleteFlag() throws IOException {
-// read flag information
-        ByteBuffer flagBuffer = ByteBuffer.allocate(BSIZE_FLAG);
-        this.channel.read(flagBuffer);
-        flagBuffer.rewind();
-        int deleteFlag = flagBuffer.getInt();
-        return deleteFlag;
+    public List getObjects() throws IOException, ClassNotFoundException {
+        List list = new ArrayList(count);
+        for (int i = 0; i < count; i++) {
+            list.add(readObject(offsets[i]));
+        }
+        return list;
     }
 
     /**
-     * @return @throws IOException
+     * Returns all the objects in the store, in order, as a stream read from
+     * the file SCAN_CHUNK bytes at a time and deserialized as it is consumed.
+     * The store must not be changed while the stream is used.
      */
-    private int readSizeInfo() throws IOException {
-// read and skip size information
-        ByteBuffer sizeBuffer = ByteBuffer.allocate(BSIZE_FLAG);
-        this.channel.read(sizeBuffer);
-        sizeBuffer.rewind();
-        int skipBytes = sizeBuffer.getInt();
-        return skipBytes;
+    public Stream<Object> scan() {
+        return StreamSupport.stream(Spliterators.spliterator(new ScanIterator(), count,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
     }
 
-    /**
-     * Returns all the objects in the store as a List.
+    /*
+     * Walks the offsets keeping one chunk of the file, read again when the
+     * next record is not wholly in it.
      */
-    public List getObjects() throws IOException, ClassNotFoundException {
-        List list = new LinkedList();
-        this.channel.position(0);
-        while (this.channel.position() < this.channel.size()) {
-
-            int skipBytes = readSizeInfo();
-            int deleteFlag = readDeleteFlag();
-
-            if (deleteFlag != _DELETE) {
-                this.channel.position(this.channel.position() - 8);
-                list.add(readObject());
+    private final class ScanIterator implements Iterator<Object> {
+
+        final int end = count;
+        int next;
+        ByteBuffer chunk = ByteBuffer.allocate(0);
+        long chunkStart;
+
+        private ByteBuffer record(final long offset, final int length) throws IOException {
+            if (offset < chunkStart || offset + length > chunkStart + chunk.limit()) {
+                final long size = Math.min(Math.max(SCAN_CHUNK, length), channel.size() - offset);
+                if (size < length) {
+                    throw new EOFException("Record at " + offset + " is past the end of " + file);
+                }
+                if (chunk.capacity() != size) {
+                    chunk = ByteBuffer.allocate((int) size);
+                }
+                readFully(chunk, offset);
+                chunkStart = offset;
             }
+            final ByteBuffer record = chunk.duplicate();
+            record.position((int) (offset - chunkStart)).limit((int) (offset - chunkStart) + length);
+            return record;
+        }
 
-// skip number of bytes
-            NEW_POSITION = (long) (this.channel.position() + skipBytes);
-            this.channel.position(NEW_POSITION);
+        @Override
+        public boolean hasNext() {
+            return next < end;
+        }
 
+        @Override
+        public Object next() {
+            if (next >= end) {
+                throw new NoSuchElementException();
+            }
+            final long offset = offsets[next++];
+            try {
+                final int bytes = record(offset, RECORD_HEADER).getInt();
+                final ByteBuffer record = record(offset + RECORD_HEADER, bytes);
+                ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(record.array(),
+                        record.arrayOffset() + record.position(), bytes));
+                return ois.readObject();
+            } catch (IOException | ClassNotFoundException cause) {
+                throw new IllegalStateException(cause.toString(), cause);
+            }
         }
-        return list;
     }
 
     /**
@@ -217,81 +298,54 @@ public class ObjectStore {
 
     /**
      * Compacts the underlying file by removing all the dead space aka deleted
-     * records.
+     * records. The records kept are copied to a new file which then replaces
+     * the old one in a single move, a crash part way leaves the old file as
+     * it was. The store is left open as it was before.
      */
     public void compact() throws IOException {
-// TO DO
-    }
-
-    private void seekToIndex(int index) throws IOException {
-        this.channel.position(0);
-        int counter = 0;
-        /*
-         * seek to the correct index skipping those we don't want. deleted
-         * records do not count as space
-         */
-        while (counter < index) {
-            if (this.channel.position() == this.channel.size()) {
-                throw new IOException("Object " + index + " not present.");
+        final Path target = file.toPath();
+        final Path temporary = Paths.get(file.getPath() + ".tmp");
+        final long[] compacted = new long[offsets.length];
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        try (final FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long position = 0;
+            for (int i = 0; i < count; i++) {
+                readFully(header, offsets[i]);
+                final long length = RECORD_HEADER + header.getInt(0);
+                compacted[i] = position;
+                long copied = 0;
+                while (copied < length) {
+                    copied += this.channel.transferTo(offsets[i] + copied, length - copied, out);
+                }
+                position += length;
             }
-
-            int skipBytes = readSizeInfo();
-            int deleteFlag = readDeleteFlag();
-
-// skip number of bytes
-            NEW_POSITION = (long) (this.channel.position() + skipBytes);
-            this.channel.position(NEW_POSITION);
-
-            if (deleteFlag != _DELETE) {
-                counter++;
-            }
-
-        }
-        /*
-         * now in theory we are in the right place but this index could be
-         * deleted. keep reading until we are at an existing record
-         */
-        boolean found = false;
-        while (!found) {
-
-            if (this.channel.position() == this.channel.size()) {
-                throw new IOException("Object " + index + " not present.");
-            }
-
-            int skipBytes = readSizeInfo();
-            int deleteFlag = readDeleteFlag();
-
-            if (deleteFlag != _DELETE) {
-                this.channel.position(this.channel.position() - 8);
-                found = true;
-            } else {
-// skip number of bytes
-                NEW_POSITION = (long) (this.channel.position() + skipBytes);
-                this.channel.position(NEW_POSITION);
-            }
-
+            out.force(true);
         }
+        this.channel.close();
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        offsets = compacted;
+        open(writable);
     }
 
 // does the actual byte to Object comversion for getObject(int) and
 // getObjects()
-    private Object readObject() throws IOException, ClassNotFoundException {
-        int bytes = readSizeInfo();
-        readDeleteFlag();
-        byte[] buff = new byte[bytes];
-        this.channel.read(ByteBuffer.wrap(buff));
-        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(buff));
+    private Object readObject(final long offset) throws IOException, ClassNotFoundException {
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        readFully(header, offset);
+        final ByteBuffer buff = ByteBuffer.allocate(header.getInt(0));
+        readFully(buff, offset + RECORD_HEADER);
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(buff.array()));
         return ois.readObject();
     }
 
     public static void main(String[] args) {
 
         try {
+            new File("Temp.obj").delete();
             ObjectStore obs = new ObjectStore("Temp.obj");
             Utilities.Clock clock = Utility.getTimer();
-            int tot = 1000;
-            int str=500;
-            int end=675;
+            int tot = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
             int cnt=0;
             Person[] people = new Person[tot];
             obs.write();
@@ -302,7 +356,7 @@ public class ObjectStore {
                 obs.addObject(p);
                 cnt++;
             }
-            System.out.println("\nTime for (" + cnt + ") inserts: " + clock.step() / 1000f + " ms");
+            System.out.println("\nTime for (" + cnt + ") inserts: " + clock.step() / 1000f + " seconds");
             obs.close();
             obs.read();
             cnt=0;
@@ -311,12 +365,31 @@ public class ObjectStore {
                 people[i] = (Person) obs.getObject(i);
                 cnt++;
             }
-            System.out.println("\nTime for (" + cnt + ") reads: " + clock.step() / 1000f + " ms");
+            System.out.println("Time for (" + cnt + ") reads: " + clock.step() / 1000f + " seconds");
+            clock.startTime();
+            cnt = obs.getObjects().size();
+            System.out.println("Time for (" + cnt + ") reads with getObjects: " + clock.step() / 1000f + " seconds");
+            clock.startTime();
+            cnt = (int) obs.scan().filter(record -> record instanceof Person).count();
+            System.out.println("Time for (" + cnt + ") reads with scan: " + clock.step() / 1000f + " seconds");
+            obs.close();
 
-            for (int i=0; i < tot; i++) {
-                System.out.println(people[i]);
+            obs.write();
+            final long length = new File("Temp.obj").length();
+            for (int i = tot / 2 - 1; i >= 0; i--) {
+                obs.deleteObject(i * 2);
+            }
+            clock.startTime();
+            obs.compact();
+            System.out.println("Time to compact (" + tot / 2 + ") deleted: " + clock.step() / 1000f + " seconds, "
+                    + length + " to " + new File("Temp.obj").length() + " bytes");
+            for (int i = 0; i < obs.getStoredCount(); i++) {
+                if (((Person) obs.getObject(i)).personID != people[i * 2 + 1].personID) {
+                    throw new IOException("Object " + i + " out of place after compact");
+                }
             }
             obs.close();
+            new File("Temp.obj").delete();
 
         } catch (Exception e) {
             System.out.println(e.toString());
@@ -324,3 +397,31 @@ public class ObjectStore {
 
     }
 }
+
+/*
+ Before, every getObject scanned from the start of the file:
+ Time for (1000) reads: 0.672 seconds
+
+ With the offset index:
+ Time for (1000) inserts: 0.072 seconds
+ Time for (1000) reads: 0.076 seconds
+ Time to compact (500) deleted: 0.007 seconds, 170000 to 85000 bytes
+
+ Time for (10000) inserts: 0.144 seconds
+ Time for (10000) reads: 0.272 seconds
+ Time to compact (5000) deleted: 0.032 seconds, 1700000 to 850000 bytes
+
+ Reading everything with getObjects, which holds every object at once, and
+ with scan, which holds one at a time:
+ Time for (1000) inserts: 0.093 seconds
+ Time for (1000) reads: 0.1 seconds
+ Time for (1000) reads with getObjects: 0.03 seconds
+ Time for (1000) reads with scan: 0.019 seconds
+ Time to compact (500) deleted: 0.008 seconds, 170000 to 85000 bytes
+
+ Time for (10000) inserts: 0.16 seconds
+ Time for (10000) reads: 0.317 seconds
+ Time for (10000) reads with getObjects: 0.141 seconds
+ Time for (10000) reads with scan: 0.089 seconds
+ Time to compact (5000) deleted: 0.018 seconds, 1700000 to 850000 bytes
+*/
@@ -9,6 +9,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
+import org.jware.objectbase.disk.CompactDataMarshaller;
 
 /*
  * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
@@ -35,6 +36,8 @@ import java.util.Objects;
  */
 public class Person implements Externalizable {
 
+    public static final int TYPE_ID = CompactDataMarshaller.FIRST_TYPE_ID;
+
     public int personID;
     public String firstName;
     public String lastName;
@@ -65,6 +68,19 @@ public class Person implements Externalizable {
 
     }
 
+    /**
+     * Register Person and PhoneNumber, so they are written compactly.
+     *
+     * @param <T>
+     * @param marshaller
+     * @return marshaller.
+     */
+    public static <T> CompactDataMarshaller<T> registerWith(final CompactDataMarshaller<T> marshaller) {
+        marshaller.register(TYPE_ID, Person.class);
+        marshaller.register(PhoneNumber.TYPE_ID, PhoneNumber.class);
+        return marshaller;
+    }
+
     public final String getFirstName() {
         return firstName;
     }
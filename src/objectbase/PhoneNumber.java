@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.util.logging.Logger;
+import org.jware.objectbase.disk.CompactDataMarshaller;
 
 /*
  * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
@@ -32,6 +33,8 @@ import java.util.logging.Logger;
  */
 public final class PhoneNumber implements Externalizable {
 
+    public static final int TYPE_ID = CompactDataMarshaller.FIRST_TYPE_ID + 1;
+
     short areaCode;
     short exchange;
     short extension;
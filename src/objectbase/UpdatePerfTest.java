@@ -0,0 +1,126 @@
+package objectbase;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.core.DataMarshaller;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.IndexedDataDirector;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.jware.objectbase.exception.DataDirectorException;
+import org.jware.objectbase.util.Utilities;
+import static org.jware.objectbase.util.Utilities.Utility;
+
+/**
+ * File: UpdatePerfTest.java Created On: 10/18/2026
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * Purpose: Compare update throughput of the old update path, which
+ * marshalled a record once to size it and again to write it, against
+ * updateData, which marshalls once and writes those same bytes.
+ */
+public class UpdatePerfTest {
+
+    static final int RECORD_COUNT = 5000;
+    static final int PASSES = 5;
+
+    /*
+     * updateData as it was: calculateSize then writeData, two serializations
+     * of the same object, with the rest of the update as updateData does it,
+     * the version, the header size and the journal write. The records here
+     * always fit in place, one that does not is left to updateData.
+     */
+    static class TwiceDirector extends IndexedDataDirector<Integer, DataHeader> {
+
+        TwiceDirector(final DataStoreDirector dm) {
+            super(dm, new DiskRecordHeaderFactory());
+        }
+
+        void updateTwice(final int key, final Person p) throws DataDirectorException {
+            final DataHeader header = getHeader(key);
+            Utilities.assertNotNull(header, "Key value is null in method 'updateTwice'");
+            invalidate(key);
+            final int size = calculateSize(p);
+            if (size > header.dataEndPtr() - header.dataStartPtr()) {
+                updateData(key, p);
+                return;
+            }
+            final long version = nextVersion();
+            writeData(p, header.dataStartPtr());
+            header.setSize(size);
+            header.setVersion(version);
+            journalPut(header);
+        }
+    }
+
+    public static void main(String[] args) {
+        DataMarshaller<Person> marshaller = new ObjectDataMarshaller();
+        Person[] people = new Person[RECORD_COUNT];
+        try {
+            DataStoreDirector dm = DataStoreDirector.createDataStoreDirector("Temp.jwob", marshaller);
+            TwiceDirector id = new TwiceDirector(dm);
+            dm.openChannel();
+            for (int i = 0; i < RECORD_COUNT; i++) {
+                people[i] = new Person(i, "Paul", "Jackson",
+                        new PhoneNumber(Utilities.getRandom(111, 900), Utilities.getRandom(111, 888), Utilities.getRandom(1111, 9000)), null);
+                id.insertData(i, people[i]);
+            }
+            Utilities.Clock clock = Utility.getTimer();
+            int updates = RECORD_COUNT * PASSES;
+
+            clock.startTime();
+            for (int pass = 0; pass < PASSES; pass++) {
+                for (int i = 0; i < RECORD_COUNT; i++) {
+                    people[i].firstName = "Jac" + (pass % 10);
+                    id.updateTwice(i, people[i]);
+                }
+            }
+            long before = Math.max(1, clock.step());
+            System.out.println("\nBefore, marshall twice (" + updates + ") updates: " + before / 1000f
+                    + " seconds, " + (updates * 1000L / before) + " updates per second");
+
+            clock.startTime();
+            for (int pass = 0; pass < PASSES; pass++) {
+                for (int i = 0; i < RECORD_COUNT; i++) {
+                    people[i].firstName = "Jil" + (pass % 10);
+                    id.updateData(i, people[i]);
+                }
+            }
+            long after = Math.max(1, clock.step());
+            System.out.println("After, marshall once (" + updates + ") updates: " + after / 1000f
+                    + " seconds, " + (updates * 1000L / after) + " updates per second");
+
+            dm.closeChannel();
+            dm.deleteFile();
+            id.deleteFile();
+        } catch (Exception e) {
+            System.out.println(e.toString());
+        }
+    }
+}
+
+/*
+ Both paths journal each update and take a new version:
+ Before, marshall twice (25000) updates: 0.256 seconds, 97656 updates per second
+ After, marshall once (25000) updates: 0.147 seconds, 170068 updates per second
+
+ Before, marshall twice (25000) updates: 0.248 seconds, 100806 updates per second
+ After, marshall once (25000) updates: 0.137 seconds, 182481 updates per second
+*/
@@ -0,0 +1,96 @@
+package org.jware.objectbase.core;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * File: BufferDataMarshaller.java 
+ * Created On: 10/18/2026
+ * 
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * Purpose: Marshall data to and from a ByteBuffer supplied by the caller, so
+ * data can be encoded straight into a pooled or direct buffer and decoded
+ * straight from a slice of a mapped file without an intermediate array.
+ * The byte array methods of <code>DataMarshaller</code> are provided as
+ * adapters over the buffer methods. The size of the encoded data is returned
+ * by writeData, as with DataMarshaller nothing is kept between calls.
+ * 
+ * @param <T> The type of data to be used.
+ */
+public interface BufferDataMarshaller<T> extends DataMarshaller<T> {
+
+    /*
+     * Initial size of the heap buffer used by the byte array adapter.
+     */
+    static final int ADAPTER_BUFFER_SIZE = 256;
+
+    /**
+     * Decode a value from source, which holds exactly one encoded value
+     * between its position and limit.
+     *
+     * @param source
+     * @return The value, or null if it could not be decoded.
+     */
+    public T readData(ByteBuffer source);
+
+    /**
+     * Encode value into target starting at its position, leaving the position
+     * just past the encoded bytes.
+     *
+     * @param value
+     * @param target
+     * @return The number of bytes written, -1 if the value could not be
+     * encoded.
+     * @throws BufferOverflowException if target is too small, its position is
+     * then undefined and the caller should retry with a larger buffer.
+     */
+    public int writeData(T value, ByteBuffer target) throws BufferOverflowException;
+
+    /*
+     * Read from bytes, marshall to T
+     */
+    @Override
+    public default T readData(final byte[] data) {
+        return readData(ByteBuffer.wrap(data));
+    }
+
+    /*
+     * Write from T, marshall to bytes
+     */
+    @Override
+    public default byte[] writeData(final T value) {
+        int capacity = ADAPTER_BUFFER_SIZE;
+        while (true) {
+            final ByteBuffer buffer = ByteBuffer.allocate(capacity);
+            try {
+                final int size = writeData(value, buffer);
+                if (size < 0) {
+                    return null;
+                }
+                final byte[] bytes = new byte[size];
+                System.arraycopy(buffer.array(), 0, bytes, 0, size);
+                return bytes;
+            } catch (BufferOverflowException full) {
+                capacity <<= 1;
+            }
+        }
+    }
+}
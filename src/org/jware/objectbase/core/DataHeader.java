@@ -36,6 +36,8 @@ public interface DataHeader<T> extends Serializable {
     public void setDataStartPtr(long offset);
     public int dataSize();
     public void setSize(int size);
+    public long version();
+    public void setVersion(long version);
     @Override
     public String toString();
 }
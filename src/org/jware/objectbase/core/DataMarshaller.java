@@ -25,6 +25,9 @@ package org.jware.objectbase.core;
  * @author J. Paul Jackson <jwareservices@gmail.com>
  *
  * Purpose: Marshall data from a given type to bytes, back again.
+ * Implementations hold no per call state, the size of the marshalled data is
+ * the length of the returned bytes, so a single instance can be shared by
+ * any number of threads.
  * 
  * @param <T> The type of data to be used.
  */
@@ -38,8 +41,4 @@ public interface DataMarshaller<T> {
     * Write from T, marshall to bytes
     */
     public byte[] writeData(T value);
-    /*
-     * @return Size of T.
-     */
-    public int getDataSize();
 }
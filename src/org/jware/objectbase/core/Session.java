@@ -18,6 +18,7 @@ package org.jware.objectbase.core;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import org.jware.objectbase.exception.DataDirectorException;
 
 /**
  * File: Session.java 
@@ -25,7 +26,39 @@ package org.jware.objectbase.core;
  * 
  * @author J. Paul Jackson <jwareservices@gmail.com>
  *
- * Purpose:  Controls a session
+ * Purpose:  Controls a session, the handle one thread uses to work with a
+ * store for a while, a request say. Changes are kept by the session until
+ * commit, which writes them all, and values read are kept so reading them
+ * again costs no I/O while they are unchanged in the store.
+ * <p>
+ * A session is used by the thread that obtained it, until it is closed.
+ * Closing discards changes not committed.
+ *
+ * @param <K> Key.
  */
-public interface Session {
+public interface Session<K> extends DataDirector<K>, AutoCloseable {
+
+    /**
+     * Write every change made since the last commit.
+     *
+     * @throws DataDirectorException if the changes could not be written, they
+     * are kept, to be committed again or rolled back.
+     */
+    public void commit() throws DataDirectorException;
+
+    /**
+     * Discard every change made since the last commit.
+     */
+    public void rollback();
+
+    /**
+     * @return Changes waiting for commit.
+     */
+    public int getPendingCount();
+
+    /**
+     * Roll back and give the session up.
+     */
+    @Override
+    public void close();
 }
@@ -17,6 +17,7 @@ package org.jware.objectbase.core;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import org.jware.objectbase.exception.DataDirectorException;
 
 /**
  * File: Transaction.java 
@@ -24,7 +25,47 @@ package org.jware.objectbase.core;
  * 
  * @author J. Paul Jackson <jwareservices@gmail.com>
  *
- * Purpose:
+ * Purpose: A unit of work against a store. Reads see the store as it was when
+ * the transaction began, with the transaction's own changes on top, however
+ * many other transactions commit meanwhile. Changes are kept by the
+ * transaction until commit, which makes all of them visible at once or, if
+ * another transaction has committed a change to one of the same keys since
+ * this one began, none of them.
+ * <p>
+ * A transaction is used by one thread at a time. Close it when done, which
+ * rolls it back if it was not committed.
+ *
+ * @param <K> Key.
+ * @see TransactionProcessor
  */
-public interface Transaction {
+public interface Transaction<K> extends DataDirector<K>, AutoCloseable {
+
+    /**
+     * @return The commit the transaction reads as of.
+     */
+    public long getSnapshot();
+
+    /**
+     * Make every change visible together.
+     *
+     * @throws DataDirectorException if another transaction changed one of
+     * the same keys first, the changes are then discarded.
+     */
+    public void commit() throws DataDirectorException;
+
+    /**
+     * Discard every change.
+     */
+    public void rollback();
+
+    /**
+     * @return True until committed or rolled back.
+     */
+    public boolean isActive();
+
+    /**
+     * Roll back if still active.
+     */
+    @Override
+    public void close();
 }
@@ -23,10 +23,20 @@ package org.jware.objectbase.core;
  * 
  * @author J. Paul Jackson <jwareservices@gmail.com>
  *
- * Purpose:
+ * Purpose: Begins transactions against a store.
  *
+ * @param <K> Key.
+ * @see Transaction
  */
-public interface TransactionProcessor {
+public interface TransactionProcessor<K> {
 
+    /**
+     * @return A transaction reading the store as of the last commit.
+     */
+    public Transaction<K> begin();
 
+    /**
+     * @return Number of the last commit.
+     */
+    public long getCommitStamp();
 }
@@ -0,0 +1,565 @@
+package org.jware.objectbase.disk;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import objectbase.Person;
+import objectbase.PhoneNumber;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.util.Utilities;
+import static org.jware.objectbase.util.Utilities.Utility;
+
+/**
+ * File: BufferPool.java Created On: 10/18/2026
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * Purpose: Caches the pages of a file in a fixed number of page frames, slices
+ * of one block of direct memory allocated up front. Page n covers the bytes
+ * [n * pageSize, (n + 1) * pageSize) of the file, and the page table maps a
+ * page number to the frame holding it.
+ * <p>
+ * A page is pinned while it is used and unpinned after, marked dirty if it
+ * was changed. A pinned page stays in its frame. When a page not in the pool
+ * is pinned a frame is chosen by CLOCK: the hand passes over pinned frames,
+ * gives a frame used since it last passed another turn, and takes the first
+ * frame that was not. A dirty page is written back before its frame is
+ * reused, and by flush. Only the bytes changed since the page was last
+ * written back are written, and flush visits only the dirty pages, so
+ * flushing after every small write costs about as much as the write.
+ * <p>
+ * Like <code>MappedFileRegions</code> the pool keeps the logical length of the
+ * file, the end of the last byte written, and only writes back bytes up to
+ * it, so a page partly past the end does not lengthen the file.
+ * <p>
+ * Thread safety: the page table, pins and the hand are guarded by the pool's
+ * lock, a page is read from disk or written back while it is held. The bytes
+ * of a pinned page are read and written outside it, on duplicates, so any
+ * number of threads may call read and write at once as long as concurrent
+ * writes target disjoint ranges. close must not race with other calls.
+ *
+ * @see StructuredFileDirector
+ * @see DataStoreDirector.StorageMode#PAGED
+ */
+public final class BufferPool {
+
+    /**
+     * A page held in one of the pool's frames. Its bytes are a slice of the
+     * pool's direct memory, and are only valid while it is pinned. The pins,
+     * dirty and referenced marks are the pool's, changed under its lock.
+     */
+    public static final class Page {
+
+        private final ByteBuffer pageBuffer;
+        private long pageNumber;
+        private int pins;
+        private boolean dirty;
+        private int dirtyFrom;
+        private int dirtyTo;
+        private boolean referenced;
+
+        private Page(final long pageNumber, final ByteBuffer buffer) {
+            this.pageNumber = pageNumber;
+            this.pageBuffer = buffer;
+        }
+
+        public long getPageNumber() {
+            return pageNumber;
+        }
+
+        /**
+         * @param offset within the page.
+         * @param length
+         * @return A read only view of length bytes at offset.
+         */
+        public ByteBuffer getBytes(final int offset, final int length) {
+            final ByteBuffer page = pageBuffer.asReadOnlyBuffer();
+            page.limit(offset + length).position(offset);
+            return page.slice();
+        }
+
+        /**
+         * @return A read only view of the whole page.
+         */
+        public ByteBuffer getPage() {
+            return pageBuffer.asReadOnlyBuffer();
+        }
+
+        /**
+         * Copy the remaining bytes of buffer into the page at offset. Unpin
+         * the page dirty afterwards.
+         *
+         * @param offset within the page.
+         * @param buffer
+         */
+        public void put(final int offset, final ByteBuffer buffer) {
+            final ByteBuffer page = pageBuffer.duplicate();
+            ((ByteBuffer) page.position(offset)).put(buffer);
+        }
+
+        @Override
+        public String toString() {
+            return "Page[" + pageNumber + "], Pins[" + pins + "], Dirty[" + dirty + "]";
+        }
+    }
+
+    public static final int DEFAULT_PAGE_COUNT = 256;
+
+    static final long FREE = -1L;
+
+    final FileChannel channel;
+    final int pageSize;
+    final Page[] frames;
+    final Map<Long, Page> table;
+    final Set<Page> dirtyPages = new LinkedHashSet<>();
+    int hand;
+    volatile long length;
+    long hits;
+    long misses;
+    long evictions;
+    long writeBacks;
+
+    /**
+     * @param channel the file, opened read/write.
+     * @param pageCount page frames in the pool.
+     * @param pageSize bytes in a page.
+     * @throws IOException
+     */
+    public BufferPool(final FileChannel channel, final int pageCount, final int pageSize) throws IOException {
+        Utilities.assertNotNull(channel, "Invalid channel.");
+        if (pageCount <= 0 || pageSize <= 0 || (long) pageCount * pageSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid page count " + pageCount + " or size " + pageSize);
+        }
+        this.channel = channel;
+        this.pageSize = pageSize;
+        this.frames = new Page[pageCount];
+        this.table = new HashMap<>(pageCount << 1);
+        final ByteBuffer memory = ByteBuffer.allocateDirect(pageCount * pageSize);
+        for (int i = 0; i < pageCount; i++) {
+            memory.limit((i + 1) * pageSize).position(i * pageSize);
+            frames[i] = new Page(FREE, memory.slice());
+        }
+        this.length = channel.size();
+    }
+
+    /**
+     * Pin page pageNumber, reading it into a frame if it is not in the pool.
+     * Every pin must be matched by an unpin.
+     *
+     * @param pageNumber
+     * @return The page, its bytes stay in place until it is unpinned.
+     * @throws IOException if the page cannot be read, or every frame is
+     * pinned.
+     */
+    public synchronized Page pin(final long pageNumber) throws IOException {
+        if (pageNumber < 0) {
+            throw new IllegalArgumentException("Invalid page number " + pageNumber);
+        }
+        Page page = table.get(pageNumber);
+        if (null == page) {
+            misses++;
+            page = victim();
+            load(page, pageNumber);
+            table.put(pageNumber, page);
+        } else {
+            hits++;
+        }
+        page.pins++;
+        page.referenced = true;
+        return page;
+    }
+
+    /**
+     * @param page a page pinned by pin.
+     * @param dirty true if the page was changed while pinned.
+     */
+    public synchronized void unpin(final Page page, final boolean dirty) {
+        if (page.pins <= 0) {
+            throw new IllegalStateException("Page " + page.pageNumber + " is not pinned.");
+        }
+        page.pins--;
+        if (dirty) {
+            markDirty(page, 0, pageSize);
+        }
+    }
+
+    /*
+     * Unpin a page whose bytes [from, to) were changed.
+     */
+    private synchronized void unpin(final Page page, final int from, final int to) {
+        page.pins--;
+        markDirty(page, from, to);
+    }
+
+    private void markDirty(final Page page, final int from, final int to) {
+        if (page.dirty) {
+            page.dirtyFrom = Math.min(page.dirtyFrom, from);
+            page.dirtyTo = Math.max(page.dirtyTo, to);
+        } else {
+            page.dirty = true;
+            page.dirtyFrom = from;
+            page.dirtyTo = to;
+            dirtyPages.add(page);
+        }
+    }
+
+    private void markClean(final Page page) {
+        if (page.dirty) {
+            page.dirty = false;
+            dirtyPages.remove(page);
+        }
+    }
+
+    /*
+     * The frame to reuse, written back and out of the page table.
+     */
+    private Page victim() throws IOException {
+        for (int swept = 0; swept < frames.length << 1; swept++) {
+            final Page page = frames[hand];
+            hand = (hand + 1) % frames.length;
+            if (page.pins > 0) {
+                continue;
+            }
+            if (page.referenced) {
+                page.referenced = false;
+                continue;
+            }
+            if (page.pageNumber != FREE) {
+                writeBack(page);
+                table.remove(page.pageNumber);
+                page.pageNumber = FREE;
+                evictions++;
+            }
+            return page;
+        }
+        throw new IOException("Every page of the buffer pool is pinned.");
+    }
+
+    /*
+     * Read a page into its frame, bytes past the end of the file read as
+     * zero.
+     */
+    private void load(final Page page, final long pageNumber) throws IOException {
+        final ByteBuffer frame = page.pageBuffer.duplicate();
+        frame.clear();
+        long position = pageNumber * pageSize;
+        while (frame.hasRemaining()) {
+            final int read = channel.read(frame, position);
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+        while (frame.hasRemaining()) {
+            frame.put((byte) 0);
+        }
+        page.pageNumber = pageNumber;
+        markClean(page);
+    }
+
+    /*
+     * Write the bytes of a page changed since it was last written back, up
+     * to the logical length.
+     */
+    private void writeBack(final Page page) throws IOException {
+        if (!page.dirty) {
+            return;
+        }
+        final long start = page.pageNumber * pageSize;
+        final int to = (int) Math.min(page.dirtyTo, length - start);
+        if (to > page.dirtyFrom) {
+            final ByteBuffer frame = page.pageBuffer.duplicate();
+            frame.limit(to).position(page.dirtyFrom);
+            long position = start + page.dirtyFrom;
+            while (frame.hasRemaining()) {
+                position += channel.write(frame, position);
+            }
+            writeBacks++;
+        }
+        markClean(page);
+    }
+
+    /**
+     * Copy size bytes at offset out of the pool.
+     *
+     * @param offset
+     * @param size
+     * @return The bytes in a heap buffer positioned at zero.
+     * @throws IOException if the range lies past the end of the file.
+     */
+    public ByteBuffer read(final long offset, final int size) throws IOException {
+        if (offset < 0 || size < 0 || offset + size > length) {
+            throw new EOFException("Read of " + size + " bytes at " + offset
+                    + " is past the end of the file at " + length);
+        }
+        final ByteBuffer copy = ByteBuffer.allocate(size);
+        long position = offset;
+        while (copy.hasRemaining()) {
+            final Page page = pin(position / pageSize);
+            try {
+                final ByteBuffer frame = page.pageBuffer.duplicate();
+                final int from = (int) (position % pageSize);
+                final int count = Math.min(copy.remaining(), pageSize - from);
+                frame.limit(from + count).position(from);
+                copy.put(frame);
+                position += count;
+            } finally {
+                unpin(page, false);
+            }
+        }
+        copy.flip();
+        return copy;
+    }
+
+    /**
+     * Copy the remaining bytes of source into the pool at offset. The pages
+     * changed reach the file when they are written back.
+     *
+     * @param source
+     * @param offset
+     * @return The number of bytes written.
+     * @throws IOException
+     */
+    public int write(final ByteBuffer source, final long offset) throws IOException {
+        final int size = source.remaining();
+        grow(offset + size);
+        long position = offset;
+        while (source.hasRemaining()) {
+            final Page page = pin(position / pageSize);
+            final int into = (int) (position % pageSize);
+            final int count = Math.min(source.remaining(), pageSize - into);
+            try {
+                final ByteBuffer frame = page.pageBuffer.duplicate();
+                final ByteBuffer piece = source.duplicate();
+                piece.limit(piece.position() + count);
+                ((ByteBuffer) frame.position(into)).put(piece);
+                source.position(source.position() + count);
+                position += count;
+            } finally {
+                unpin(page, into, into + count);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The logical length of the file, end of the last byte written.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Move the logical length out to length if it is shorter.
+     *
+     * @param length
+     */
+    public synchronized void grow(final long length) {
+        if (length > this.length) {
+            this.length = length;
+        }
+    }
+
+    /**
+     * Cut the file back to length. Pages wholly past it are dropped, the
+     * bytes past it in the last page are zeroed. Nothing may be using the
+     * pages past length meanwhile.
+     *
+     * @param length
+     * @throws IOException
+     */
+    public synchronized void truncate(final long length) throws IOException {
+        if (length >= this.length) {
+            return;
+        }
+        this.length = length;
+        for (final Page page : frames) {
+            if (page.pageNumber == FREE) {
+                continue;
+            }
+            final long start = page.pageNumber * pageSize;
+            if (start >= length && page.pins == 0) {
+                table.remove(page.pageNumber);
+                page.pageNumber = FREE;
+                markClean(page);
+            } else if (start + pageSize > length) {
+                final ByteBuffer frame = page.pageBuffer.duplicate();
+                frame.position((int) Math.max(0, length - start));
+                while (frame.hasRemaining()) {
+                    frame.put((byte) 0);
+                }
+            }
+        }
+        if (channel.size() > length) {
+            channel.truncate(length);
+        }
+    }
+
+    /**
+     * Write back every dirty page, and lengthen the file to its logical
+     * length. The bytes are then in the operating system, force the channel
+     * to make them durable.
+     *
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException {
+        for (final Page page : new ArrayList<>(dirtyPages)) {
+            writeBack(page);
+        }
+        if (channel.size() < length) {
+            channel.write(ByteBuffer.allocate(1), length - 1);
+        }
+    }
+
+    /**
+     * Flush and empty the pool, which must not be used once closed.
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            flush();
+        }
+        table.clear();
+        dirtyPages.clear();
+        for (final Page page : frames) {
+            page.pageNumber = FREE;
+            page.pins = 0;
+            page.dirty = false;
+        }
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return Page frames in the pool.
+     */
+    public int getPageCount() {
+        return frames.length;
+    }
+
+    /**
+     * @return Pages pinned that were in the pool.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Pages pinned that had to be read.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return Pages dropped to make room for others.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return Dirty pages written to the file.
+     */
+    public synchronized long getWriteBacks() {
+        return writeBacks;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Pages[" + table.size() + "/" + frames.length + "], Hits[" + hits + "], Misses[" + misses
+                + "], Evictions[" + evictions + "], WriteBacks[" + writeBacks + "]";
+    }
+
+    /*
+     * Inserts, then random reads with an update every fourth operation, in
+     * each storage mode.
+     */
+    public static void main(String[] args) {
+        final int tot = 20000;
+        final int operations = 200000;
+        Utilities.Clock clock = Utility.getTimer();
+        try {
+            for (int pass = 0; pass < 2; pass++) {
+                System.out.println();
+                for (final DataStoreDirector.StorageMode mode : DataStoreDirector.StorageMode.values()) {
+                    final DataStoreDirector dm = DataStoreDirector.createDataStoreDirector("Temp.jwob",
+                            new ObjectDataMarshaller(), mode);
+                    final IndexedDataDirector<Integer, DataHeader> id
+                            = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+                    dm.openChannel();
+                    clock.startTime();
+                    for (int i = 0; i < tot; i++) {
+                        id.insertData(i, new Person(i, "Paul", "Jackson",
+                                new PhoneNumber(Utilities.getRandom(111, 900), Utilities.getRandom(111, 888), Utilities.getRandom(1111, 9000)), null));
+                    }
+                    final long inserts = Math.max(1, clock.step());
+                    final Random random = new Random(11);
+                    final Person person = new Person(0, "Jill", "Jackson", null, null);
+                    clock.startTime();
+                    for (int i = 0; i < operations; i++) {
+                        final int key = random.nextInt(tot);
+                        if (i % 4 == 0) {
+                            person.personID = key;
+                            id.updateData(key, person);
+                        } else {
+                            id.retrieveData(key);
+                        }
+                    }
+                    final long time = Math.max(1, clock.step());
+                    System.out.println(mode + " (" + tot + ") inserts: " + (tot * 1000L / inserts)
+                            + " per second, (" + operations + ") reads and updates: " + (operations * 1000L / time)
+                            + " per second");
+                    if (null != dm.getBufferPool()) {
+                        System.out.println(dm.getBufferPool());
+                    }
+                    dm.closeChannel();
+                    dm.deleteFile();
+                    id.deleteFile();
+                }
+            }
+        } catch (Exception e) {
+            System.out.println(e.toString());
+        }
+    }
+}
+
+/*
+ With each change written back before it is journaled:
+ CHANNEL (20000) inserts: 78740 per second, (200000) reads and updates: 117164 per second
+ MAPPED (20000) inserts: 176991 per second, (200000) reads and updates: 206185 per second
+ PAGED (20000) inserts: 122699 per second, (200000) reads and updates: 199401 per second
+ Pages[50/256], Hits[220388], Misses[50], Evictions[0], WriteBacks[70127]
+
+ CHANNEL (20000) inserts: 298507 per second, (200000) reads and updates: 371057 per second
+ MAPPED (20000) inserts: 800000 per second, (200000) reads and updates: 461893 per second
+ PAGED (20000) inserts: 465116 per second, (200000) reads and updates: 414937 per second
+ Pages[50/256], Hits[220388], Misses[50], Evictions[0], WriteBacks[70127]
+*/
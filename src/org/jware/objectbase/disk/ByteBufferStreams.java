@@ -0,0 +1,101 @@
+package org.jware.objectbase.disk;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * File: ByteBufferStreams.java Created On: 10/18/2026
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * Purpose: Stream views of a ByteBuffer, used by the marshallers to run the
+ * java.io data and object streams directly over a caller's buffer.
+ */
+final class ByteBufferStreams {
+
+    private ByteBufferStreams() {
+    }
+
+    /*
+     * Writes into the buffer at its position, a full buffer throws
+     * BufferOverflowException.
+     */
+    static final class Output extends OutputStream {
+
+        final ByteBuffer target;
+
+        Output(final ByteBuffer target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(final int b) {
+            target.put((byte) b);
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int offset, final int length) {
+            target.put(bytes, offset, length);
+        }
+    }
+
+    /*
+     * Reads the buffer from its position to its limit.
+     */
+    static final class Input extends InputStream {
+
+        final ByteBuffer source;
+
+        Input(final ByteBuffer source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read() {
+            return source.hasRemaining() ? source.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int offset, final int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!source.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(length, source.remaining());
+            source.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(final long count) {
+            final int skipped = (int) Math.max(0, Math.min(count, source.remaining()));
+            source.position(source.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return source.remaining();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.jware.objectbase.disk;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * File: CompactionStats.java Created On: 10/18/2026
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * Purpose: What a compaction of a data file did, for one run or summed over
+ * every run of a director.
+ *
+ * @see IndexedDataDirector#compact()
+ */
+public final class CompactionStats {
+
+    static final CompactionStats NONE = new CompactionStats(0, 0, 0, 0, 0);
+
+    final long runs;
+    final long recordsMoved;
+    final long bytesMoved;
+    final long bytesReclaimed;
+    final long nanos;
+
+    CompactionStats(final long runs, final long recordsMoved, final long bytesMoved, final long bytesReclaimed,
+            final long nanos) {
+        this.runs = runs;
+        this.recordsMoved = recordsMoved;
+        this.bytesMoved = bytesMoved;
+        this.bytesReclaimed = bytesReclaimed;
+        this.nanos = nanos;
+    }
+
+    CompactionStats plus(final CompactionStats run) {
+        return new CompactionStats(runs + run.runs, recordsMoved + run.recordsMoved, bytesMoved + run.bytesMoved,
+                bytesReclaimed + run.bytesReclaimed, nanos + run.nanos);
+    }
+
+    public long getRuns() {
+        return runs;
+    }
+
+    /**
+     * @return Records moved to lower offsets.
+     */
+    public long getRecordsMoved() {
+        return recordsMoved;
+    }
+
+    /**
+     * @return Bytes written moving records, a record overlapping its new
+     * place is written twice.
+     */
+    public long getBytesMoved() {
+        return bytesMoved;
+    }
+
+    /**
+     * @return Bytes cut from the end of the file.
+     */
+    public long getBytesReclaimed() {
+        return bytesReclaimed;
+    }
+
+    public long getMillis() {
+        return nanos / 1000000L;
+    }
+
+    /**
+     * @return Bytes moved per second of compaction.
+     */
+    public long getBytesPerSecond() {
+        return nanos == 0 ? 0 : (long) (bytesMoved * 1e9 / nanos);
+    }
+
+    @Override
+    public String toString() {
+        return "Runs[" + runs + "], Records[" + recordsMoved + "], Moved[" + bytesMoved + "], Reclaimed["
+                + bytesReclaimed + "], Millis[" + getMillis() + "], Bytes/s[" + getBytesPerSecond() + "]";
+    }
+}
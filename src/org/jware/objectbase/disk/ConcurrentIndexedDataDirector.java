@@ -0,0 +1,576 @@
+package org.jware.objectbase.disk;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import objectbase.Person;
+import objectbase.PhoneNumber;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.core.DataHeaderFactory;
+import org.jware.objectbase.core.DataMarshaller;
+import org.jware.objectbase.exception.DataDirectorException;
+import org.jware.objectbase.util.Utilities;
+import static org.jware.objectbase.util.Utilities.Utility;
+
+/**
+ * File: ConcurrentIndexedDataDirector.java Created On: 10/18/2026
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * Purpose: An <code>IndexedDataDirector</code> that may be shared by many
+ * threads without an external lock.
+ * <p>
+ * The index is a ConcurrentHashMap, and the offset index a
+ * ConcurrentSkipListMap, so retrieveData never blocks. Writers lock
+ * one of a fixed set of stripes chosen by the hash of the key, so writers to
+ * keys in different stripes run in parallel while two writers to the same key
+ * are serialized. Space for new data is claimed with reserve, and each writer
+ * then writes its own region of the file with positional I/O.
+ * <p>
+ * Headers are never changed once they are in the index. An update writes the
+ * new data to fresh space, swaps in a new header and then releases the old
+ * space to free space. A reader checks its header is still in the index after
+ * reading the bytes, so it sees either the old record or the new one, never a
+ * partly written one or the data of another record reusing the space.
+ * <p>
+ * Compaction moves records the same way, holding the lock of the record it
+ * moves, so it runs while the store is read and changed, from
+ * startCompactor in the background if wanted. Only cutting the file back at
+ * the end holds off every writer.
+ *
+ * @param <K> Key.
+ * @param <T> Header data to use.
+ * @see IndexedDataDirector
+ */
+public class ConcurrentIndexedDataDirector<K, T extends DataHeader> extends IndexedDataDirector<K, T> {
+
+    static final int DEFAULT_STRIPES = 64;
+
+    final ReentrantLock[] stripes;
+    ScheduledExecutorService compactor;
+
+    /**
+     * @param fileDirector
+     * @param factory
+     */
+    public ConcurrentIndexedDataDirector(final DataStoreDirector fileDirector, final DataHeaderFactory factory) {
+        this(fileDirector, factory, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param fileDirector
+     * @param factory
+     * @param stripeCount number of write locks, rounded up to a power of two.
+     */
+    public ConcurrentIndexedDataDirector(final DataStoreDirector fileDirector, final DataHeaderFactory factory,
+            final int stripeCount) {
+        super(fileDirector, factory);
+        int count = 1;
+        while (count < stripeCount) {
+            count <<= 1;
+        }
+        stripes = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    protected Map<K, T> createIndex(final int capacity) {
+        return new ConcurrentHashMap<>(capacity);
+    }
+
+    @Override
+    protected NavigableMap<Long, T> createOffsetIndex() {
+        return new ConcurrentSkipListMap<>();
+    }
+
+    final int stripeOf(final K key) {
+        final int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (stripes.length - 1);
+    }
+
+    final ReentrantLock lockFor(final K key) {
+        return stripes[stripeOf(key)];
+    }
+
+    /*
+     * Write bytes to newly claimed space and return the header describing it.
+     */
+    final T append(final K key, final ByteBuffer bytes, final long version) throws DataDirectorException {
+        final int size = bytes.remaining();
+        final long start = allocate(size);
+        writeBytes(bytes, start);
+        final T header = allocateHeader();
+        header.setKey(key);
+        header.setSize(size);
+        header.setDataStartPtr(start);
+        header.setDataEndPtr(start + size);
+        header.setVersion(version);
+        return header;
+    }
+
+    @Override
+    public void insertData(final K key, final Object data) throws DataDirectorException {
+        Utilities.assertNotNull(key, "Key value is null in method 'insertData'");
+        final ByteBuffer bytes = marshall(data);
+        final ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            Utilities.assertNull(index.get(key), " Key already exists.");
+            final T header = append(key, bytes, nextVersion());
+            index.put(key, header);
+            putOffset(header);
+            journalPut(header);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Insert a batch with one write, holding the stripes of every key in the
+     * batch, taken in stripe order so two batches never deadlock.
+     *
+     * @param records
+     * @param scratch
+     * @return The buffer to use for the next batch.
+     * @throws DataDirectorException
+     */
+    @Override
+    public ByteBuffer insertAll(final Map<K, ?> records, final ByteBuffer scratch) throws DataDirectorException {
+        final boolean[] needed = new boolean[stripes.length];
+        for (final K key : records.keySet()) {
+            Utilities.assertNotNull(key, "Key value is null in method 'insertAll'");
+            needed[stripeOf(key)] = true;
+        }
+        int held = 0;
+        try {
+            for (; held < stripes.length; held++) {
+                if (needed[held]) {
+                    stripes[held].lock();
+                }
+            }
+            return super.insertAll(records, scratch);
+        } finally {
+            while (--held >= 0) {
+                if (needed[held]) {
+                    stripes[held].unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * The space of a replaced record may be reused as soon as it is released,
+     * so the bytes are read then the header checked to still be current
+     * before they are decoded, reading again if the record moved meanwhile.
+     * A record moved by compaction may have been past the end of the file
+     * once it was cut back, a read that fails is tried again too, unless the
+     * header is still current.
+     *
+     * @param key
+     * @return The data for key.
+     * @throws DataDirectorException
+     */
+    @Override
+    public Object retrieveData(final K key) throws DataDirectorException {
+        while (true) {
+            final T header = index.get(key);
+            Utilities.assertNotNull(header, "Key value is null in method 'retrieveData'");
+            final Object cached = cached(key, header);
+            if (null != cached) {
+                return cached;
+            }
+            final ByteBuffer bytes;
+            try {
+                bytes = readStable(header.dataStartPtr(), header.dataSize());
+            } catch (DataDirectorException failure) {
+                if (index.get(key) == header) {
+                    throw failure;
+                }
+                continue;
+            }
+            if (index.get(key) == header) {
+                final Object value = decode(bytes);
+                cache(key, header, value);
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Read a batch as IndexedDataDirector does, then read again one at a time
+     * any record replaced or moved while the batch was read, every record if
+     * the batch read failed.
+     *
+     * @param keys
+     * @return The data for each key, in the order of keys.
+     * @throws DataDirectorException
+     */
+    @Override
+    public List<Object> retrieveAll(final Collection<K> keys) throws DataDirectorException {
+        final List<K> keyList = new ArrayList<>(keys);
+        final List<T> headers = headersFor(keyList);
+        ByteBuffer[] bytes;
+        try {
+            bytes = readAll(headers);
+        } catch (DataDirectorException failure) {
+            bytes = new ByteBuffer[headers.size()];
+        }
+        boolean stale = false;
+        for (int i = 0; i < bytes.length; i++) {
+            if (null == bytes[i] || index.get(keyList.get(i)) != headers.get(i)) {
+                bytes[i] = null;
+                stale = true;
+            }
+        }
+        final Object[] values = decodeAll(bytes);
+        if (stale) {
+            for (int i = 0; i < bytes.length; i++) {
+                if (null == bytes[i]) {
+                    values[i] = retrieveData(keyList.get(i));
+                }
+            }
+        }
+        return Arrays.asList(values);
+    }
+
+    @Override
+    public void updateData(final K key, final Object data) throws DataDirectorException {
+        final ByteBuffer bytes = marshall(data);
+        final ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            final T old = index.get(key);
+            Utilities.assertNotNull(old, "Key value is null in method 'updateData'");
+            final T header = append(key, bytes, nextVersion());
+            index.put(key, header);
+            invalidate(key);
+            putOffset(header);
+            journalPut(header);
+            removeOffset(old);
+            release(old);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Update key holding its lock, so the version checked is the version
+     * replaced.
+     *
+     * @param key
+     * @param expected
+     * @param data
+     * @return The record's new version.
+     * @throws DataDirectorException
+     */
+    @Override
+    public long updateIfVersion(final K key, final long expected, final Object data) throws DataDirectorException {
+        final ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            return super.updateIfVersion(key, expected, data);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Read as retrieveData does, checking the header is still current after
+     * the bytes are read, so the version returned is the version read.
+     *
+     * @param key
+     * @return The data and the version it was read at.
+     * @throws DataDirectorException
+     */
+    @Override
+    public VersionedValue retrieveVersioned(final K key) throws DataDirectorException {
+        while (true) {
+            final T header = index.get(key);
+            Utilities.assertNotNull(header, "Key value is null in method 'retrieveVersioned'");
+            final Object cached = cached(key, header);
+            if (null != cached) {
+                return new VersionedValue(cached, header.version());
+            }
+            final ByteBuffer bytes;
+            try {
+                bytes = readStable(header.dataStartPtr(), header.dataSize());
+            } catch (DataDirectorException failure) {
+                if (index.get(key) == header) {
+                    throw failure;
+                }
+                continue;
+            }
+            if (index.get(key) == header) {
+                final Object value = decode(bytes);
+                cache(key, header, value);
+                return new VersionedValue(value, header.version());
+            }
+        }
+    }
+
+    /**
+     * Read, change and write back the record for key while holding its lock,
+     * so concurrent changes to the same key are never lost.
+     *
+     * @param key
+     * @param change given the current value, returns the value to store.
+     * @return The value stored.
+     * @throws DataDirectorException
+     */
+    public Object modifyData(final K key, final UnaryOperator<Object> change) throws DataDirectorException {
+        final ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            final T header = index.get(key);
+            Utilities.assertNotNull(header, "Key value is null in method 'modifyData'");
+            final Object value = change.apply(readData(header));
+            final T changed = append(key, marshall(value), nextVersion());
+            index.put(key, changed);
+            invalidate(key);
+            putOffset(changed);
+            journalPut(changed);
+            removeOffset(header);
+            release(header);
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void deleteData(final K key) throws DataDirectorException {
+        final ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            final T old = index.remove(key);
+            Utilities.assertNotNull(old, "Key value is null in method 'deleteData'");
+            invalidate(key);
+            removeOffset(old);
+            journalDelete(key);
+            release(old);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    protected int compactRecord(final T header) throws DataDirectorException {
+        final ReentrantLock lock = lockFor((K) header.key());
+        lock.lock();
+        try {
+            return index.get((K) header.key()) == header ? slide(header) : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Writers claim and write their space while holding their stripe, so
+     * with every stripe held nothing is being written past the end of data.
+     */
+    @Override
+    protected void truncateData() throws DataDirectorException {
+        for (final ReentrantLock stripe : stripes) {
+            stripe.lock();
+        }
+        try {
+            super.truncateData();
+        } finally {
+            for (final ReentrantLock stripe : stripes) {
+                stripe.unlock();
+            }
+        }
+    }
+
+    /**
+     * Check the fragmentation every period on a background thread and
+     * compact once it reaches the compaction threshold.
+     *
+     * @param period
+     * @param unit
+     */
+    public synchronized void startCompactor(final long period, final TimeUnit unit) {
+        Utilities.assertNull(compactor, "Compactor already started.");
+        compactor = Executors.newSingleThreadScheduledExecutor(task -> {
+            final Thread thread = new Thread(task, "Compactor " + getfileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                compactIfFragmented();
+            } catch (DataDirectorException | RuntimeException cause) {
+                Logger.getLogger(getClass().getName()).log(Level.SEVERE, " ", cause.toString() + " compacting.");
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stop the background compactor, waiting for a compaction in progress.
+     */
+    public synchronized void stopCompactor() {
+        if (null == compactor) {
+            return;
+        }
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        compactor = null;
+    }
+
+    @Override
+    public void closeIndex() {
+        stopCompactor();
+        super.closeIndex();
+    }
+
+    @Override
+    public void deleteFile() {
+        stopCompactor();
+        super.deleteFile();
+    }
+
+    @Override
+    public int getRecordCount() {
+        return index.size();
+    }
+
+    /*
+     * Read every key from a number of threads at once and report the reads
+     * per second for each thread count.
+     */
+    public static void main(String[] args) {
+        DataMarshaller<Person> marshaller = new ObjectDataMarshaller();
+        int tot = 10000;
+        int passes = 5;
+        try {
+            final DataStoreDirector dm = DataStoreDirector.createDataStoreDirector("Temp.jwob", marshaller,
+                    DataStoreDirector.StorageMode.MAPPED);
+            final ConcurrentIndexedDataDirector<Integer, DataHeader> id
+                    = new ConcurrentIndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+            dm.openChannel();
+            for (int i = 0; i < tot; i++) {
+                id.insertData(i, new Person(i, "Paul", "Jackson",
+                        new PhoneNumber(Utilities.getRandom(111, 900), Utilities.getRandom(111, 888), Utilities.getRandom(1111, 9000)), null));
+            }
+            Utilities.Clock clock = Utility.getTimer();
+            for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors() * 2; threads <<= 1) {
+                final ExecutorService pool = Executors.newFixedThreadPool(threads);
+                final List<Future<?>> done = new ArrayList<>();
+                clock.startTime();
+                for (int t = 0; t < threads; t++) {
+                    done.add(pool.submit(() -> {
+                        for (int pass = 0; pass < passes; pass++) {
+                            for (int i = 0; i < tot; i++) {
+                                id.retrieveData(i);
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> f : done) {
+                    f.get();
+                }
+                final long time = Math.max(1, clock.step());
+                pool.shutdown();
+                System.out.println("Threads (" + threads + ") reads per second: "
+                        + ((long) threads * passes * tot * 1000 / time));
+            }
+
+            for (int i = 0; i < tot; i += 2) {
+                id.deleteData(i);
+            }
+            System.out.println("\nFragmentation " + id.getFragmentation() + "%");
+            final ExecutorService pool = Executors.newFixedThreadPool(2);
+            for (final boolean compacting : new boolean[]{false, true}) {
+                final AtomicBoolean stop = new AtomicBoolean();
+                final List<Future<Long>> readers = new ArrayList<>();
+                clock.startTime();
+                for (int t = 0; t < 2; t++) {
+                    readers.add(pool.submit(() -> {
+                        long reads = 0;
+                        for (int i = 1; !stop.get(); i = (i + 2) % tot) {
+                            id.retrieveData(i);
+                            reads++;
+                        }
+                        return reads;
+                    }));
+                }
+                if (compacting) {
+                    System.out.println(id.compact());
+                } else {
+                    Thread.sleep(200);
+                }
+                stop.set(true);
+                long reads = 0;
+                for (Future<Long> f : readers) {
+                    reads += f.get();
+                }
+                System.out.println((compacting ? "Reads per second while compacting: " : "Reads per second idle: ")
+                        + reads * 1000 / Math.max(1, clock.step()));
+            }
+            pool.shutdown();
+            dm.closeChannel();
+            dm.deleteFile();
+            id.deleteFile();
+        } catch (Exception e) {
+            System.out.println(e.toString());
+        }
+    }
+}
+
+/*
+ Threads (1) reads per second: 71530
+ Threads (2) reads per second: 186567
+
+ With every other record deleted, reading the rest idle and while compact
+ moves them:
+ Fragmentation 49%
+ Reads per second idle: 237279
+ Runs[1], Records[5000], Moved[810000], Reclaimed[810000], Millis[165], Bytes/s[4905848]
+ Reads per second while compacting: 172958
+
+ Fragmentation 49%
+ Reads per second idle: 222413
+ Runs[1], Records[5000], Moved[810000], Reclaimed[810000], Millis[188], Bytes/s[4290816]
+ Reads per second while compacting: 163272
+*/
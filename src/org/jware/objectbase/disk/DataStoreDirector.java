@@ -18,11 +18,13 @@ package org.jware.objectbase.disk;
  */
 
 import java.io.*;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import objectbase.Person;
 import objectbase.PhoneNumber;
 import org.jware.objectbase.util.Utilities;
+import org.jware.objectbase.core.BufferDataMarshaller;
 import org.jware.objectbase.core.DataMarshaller;
 import static org.jware.objectbase.util.Utilities.Utility;
 
@@ -33,33 +35,67 @@ import static org.jware.objectbase.util.Utilities.Utility;
  *
  * Purpose: The DataStoreDirector is the main file handler in the library. It
  * handles or directs all access to the underlying file system.
- * DataStoreDirector follows the singleton patten and uses a single instance to
- * allow access to the class. All access to the file goes through the single
- * instance of the class.
+ * Each DataStoreDirector owns a single file along with its own channel and
+ * marshaller, so any number of stores may be open in one process. Use a
+ * <code>DataStoreRegistry</code> to keep track of several open stores.
  * <p>
  * This class uses an instance of a <code>DataMarshaller</code> to serialize and
  * de-serialize a given data type into the raw bytes to be read and written to
- * the file.
+ * the file. When the marshaller is a <code>BufferDataMarshaller</code> data is
+ * encoded straight into a per thread direct buffer and decoded straight from
+ * the bytes read, a slice of the mapped region in MAPPED mode, with no
+ * intermediate byte array.
  * <p>
  * The class holds a File object from which it obtains a channel to do the
  * reading and writing of the data. The channel is obtained by calling
  * RandomAccessFile.getChannel(). You must use the open channel method to set up
  * the channel for I/O, and closeChannel <b>should</b> be called to avoid a
  * IOException at subsequent reads and writes.
+ * <p>
+ * The director runs in one of three storage modes chosen when it is created.
+ * In CHANNEL mode every read and write goes through the channel, in MAPPED
+ * mode the file is mapped into memory in fixed size regions, see
+ * <code>MappedFileRegions</code>, and reads become a slice of a region. In
+ * PAGED mode reads and writes go through a <code>BufferPool</code> of 64K
+ * pages in direct memory, written back when evicted, by writeBack and force
+ * and on closeChannel.
+ * <p>
+ * Thread safety: all file I/O is positional, FileChannel.read(ByteBuffer,
+ * long) and FileChannel.write(ByteBuffer, long), or absolute access to a
+ * mapped region, and never moves the channel position. Once openChannel has
+ * returned, any number of threads may call readFile, readBuffer and writeFile
+ * at the same time. Concurrent writes to overlapping ranges are not ordered,
+ * callers must hand out disjoint ranges. openChannel and closeChannel must
+ * not race with I/O on the same director.
  *
  * @see ObjectDataMarshaller
+ * @see MappedFileRegions
+ * @see BufferPool
+ * @see DataStoreRegistry
  */
 public final class DataStoreDirector {
 
-    public static DataStoreDirector instance = null;
+    /**
+     * How the file is accessed.
+     */
+    public enum StorageMode {
+        CHANNEL, MAPPED, PAGED
+    }
+
+    static final int ENCODE_BUFFER_SIZE = 4096;
 
-    static DataMarshaller marshaller;
-    static File file = null;
-    static FileChannel channel = null;
-    RandomAccessFile raf;
-    long fileSize = 0L;
+    final DataMarshaller marshaller;
+    final StorageMode mode;
+    final ThreadLocal<ByteBuffer> encodeBuffers = new ThreadLocal<>();
+    File file = null;
+    volatile FileChannel channel = null;
+    volatile MappedFileRegions regions;
+    volatile BufferPool pool;
 
-    private DataStoreDirector() {
+    private DataStoreDirector(final File file, final DataMarshaller marshaller, final StorageMode mode) {
+        this.file = file;
+        this.marshaller = marshaller;
+        this.mode = mode;
     }
 
     /**
@@ -68,12 +104,21 @@ public final class DataStoreDirector {
      * @return
      */
     public static DataStoreDirector createDataStoreDirector(final String fileName, final DataMarshaller _marshaller) {
-        if (null == instance) {
-            instance = new DataStoreDirector();
-            marshaller = _marshaller;
-            file = new File(fileName);
-        }
-        return instance;
+        return createDataStoreDirector(fileName, _marshaller, StorageMode.CHANNEL);
+    }
+
+    /**
+     * @param fileName
+     * @param _marshaller
+     * @param mode CHANNEL, MAPPED or PAGED access to the file.
+     * @return A new director for fileName.
+     */
+    public static DataStoreDirector createDataStoreDirector(final String fileName, final DataMarshaller _marshaller,
+            final StorageMode mode) {
+        Utilities.assertNotNull(fileName, "Invalid file name.");
+        Utilities.assertNotNull(_marshaller, "Invalid marshaller.");
+        Utilities.assertNotNull(mode, "Invalid storage mode.");
+        return new DataStoreDirector(new File(fileName), _marshaller, mode);
     }
 
     /**
@@ -90,19 +135,110 @@ public final class DataStoreDirector {
         return file.getName();
     }
 
+    /**
+     * @return The path of the data file as given when the director was
+     * created.
+     */
+    public final String getFilePath() {
+        Utilities.assertNotNull(file, "Invalid file.");
+        return file.getPath();
+    }
+
     public final long getFileLength() {
         Utilities.assertNotNull(file, "Invalid file.");
+        final MappedFileRegions mapped = regions;
+        if (null != mapped) {
+            return mapped.length();
+        }
+        final BufferPool paged = pool;
+        if (null != paged) {
+            return paged.length();
+        }
         return file.length();
     }
 
+    public final StorageMode getStorageMode() {
+        return mode;
+    }
+
     public void growFile(final long size) throws IOException {
         Utilities.assertNotNull(file, "Invalid file.");
-        Utilities.assertNotNull(channel, "Invalid channel.");
-        if (size > getFileLength()) {
-            channel.position(size);
+        final FileChannel _channel = channel;
+        Utilities.assertNotNull(_channel, "Invalid channel.");
+        final MappedFileRegions mapped = regions;
+        final BufferPool paged = pool;
+        if (null != mapped) {
+            mapped.ensureCapacity(size);
+        } else if (null != paged) {
+            paged.grow(size);
+        } else if (size > _channel.size()) {
+            _channel.write(ByteBuffer.allocate(1), size - 1);
         }
     }
 
+    /**
+     * Hand every write made so far to the operating system, so it survives
+     * the process dying. Only PAGED mode holds writes back, its dirty pages
+     * are written to the channel, in the other modes writes already reach
+     * the operating system as they are made.
+     *
+     * @throws IOException
+     */
+    public void writeBack() throws IOException {
+        final BufferPool paged = pool;
+        if (null != paged) {
+            paged.flush();
+        }
+    }
+
+    /**
+     * Force every write made so far to the storage device, the mapped
+     * regions in MAPPED mode and the dirty pages in PAGED mode.
+     *
+     * @throws IOException
+     */
+    public void force() throws IOException {
+        final FileChannel _channel = channel;
+        Utilities.assertNotNull(_channel, "Invalid channel.");
+        final MappedFileRegions mapped = regions;
+        if (null != mapped) {
+            mapped.force();
+        }
+        final BufferPool paged = pool;
+        if (null != paged) {
+            paged.flush();
+        }
+        _channel.force(false);
+    }
+
+    /**
+     * Cut the file back to size bytes, a file already no longer is left as
+     * is. Nothing may be writing past size meanwhile.
+     *
+     * @param size
+     * @throws IOException
+     */
+    public void truncateFile(final long size) throws IOException {
+        final FileChannel _channel = channel;
+        Utilities.assertNotNull(_channel, "Invalid channel.");
+        final MappedFileRegions mapped = regions;
+        final BufferPool paged = pool;
+        if (null != mapped) {
+            mapped.truncate(size);
+        } else if (null != paged) {
+            paged.truncate(size);
+        } else if (size < _channel.size()) {
+            _channel.truncate(size);
+        }
+    }
+
+    /**
+     * @deprecated All I/O is positional, the channel position is no longer
+     * used by the director and moving it is not thread safe.
+     * @param offset
+     * @throws IOException
+     */
+    @Deprecated
     public void setPosition(long offset) throws IOException {
         Utilities.assertNotNull(channel, "Invalid channel.");
         channel.position(offset);
@@ -110,26 +246,176 @@ public final class DataStoreDirector {
 
     public void closeChannel() throws IOException {
         Utilities.assertNotNull(channel, "Invalid channel.");
+        final MappedFileRegions mapped = regions;
+        if (null != mapped) {
+            regions = null;
+            mapped.close();
+        }
+        final BufferPool paged = pool;
+        if (null != paged) {
+            pool = null;
+            paged.close();
+        }
         channel.close();
     }
 
+    public final boolean isOpen() {
+        return null != channel && channel.isOpen();
+    }
+
+    /**
+     * Open the file, the channel already open is kept if there is one.
+     *
+     * @throws IOException
+     */
     public void openChannel() throws IOException {
         Utilities.assertNotNull(file, "Invalid file.");
+        if (isOpen()) {
+            return;
+        }
         channel = new RandomAccessFile(file, "rw").getChannel();
+        if (mode == StorageMode.MAPPED) {
+            regions = new MappedFileRegions(channel, MappedFileRegions.DEFAULT_REGION_SIZE);
+        } else if (mode == StorageMode.PAGED) {
+            pool = new BufferPool(channel, BufferPool.DEFAULT_PAGE_COUNT, StructuredFileDirector.PAGE_SIZE);
+        }
     }
 
     public final int writeFile(final Object data, final long offset) throws IOException {
-        channel.position(offset);
-        return channel.write(ByteBuffer.wrap(marshaller.writeData(data)));
+        final ByteBuffer buffer = encode(data);
+        if (null == buffer) {
+            throw new IOException("Unable to marshall " + data);
+        }
+        return writeBuffer(buffer, offset);
+    }
+
+    /**
+     * Marshall data ready to be written. With a BufferDataMarshaller the data
+     * is encoded into a direct buffer owned by the calling thread, which is
+     * reused by the next call to encode on that thread, so the buffer must be
+     * written before encoding again.
+     *
+     * @param data
+     * @return The encoded data between position and limit, null if it could
+     * not be marshalled.
+     */
+    public ByteBuffer encode(final Object data) {
+        if (marshaller instanceof BufferDataMarshaller) {
+            ByteBuffer buffer = encodeBuffers.get();
+            if (null == buffer) {
+                buffer = ByteBuffer.allocateDirect(ENCODE_BUFFER_SIZE);
+                encodeBuffers.set(buffer);
+            }
+            while (true) {
+                buffer.clear();
+                try {
+                    if (((BufferDataMarshaller) marshaller).writeData(data, buffer) < 0) {
+                        return null;
+                    }
+                    buffer.flip();
+                    return buffer;
+                } catch (BufferOverflowException full) {
+                    buffer = ByteBuffer.allocateDirect(buffer.capacity() << 1);
+                    encodeBuffers.set(buffer);
+                }
+            }
+        }
+        final byte[] bytes = marshaller.writeData(data);
+        return null == bytes ? null : ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Write the remaining bytes of buffer at offset without moving the
+     * channel position.
+     *
+     * @param buffer
+     * @param offset
+     * @return The number of bytes written.
+     * @throws IOException
+     */
+    public int writeBuffer(final ByteBuffer buffer, final long offset) throws IOException {
+        final FileChannel _channel = channel;
+        Utilities.assertNotNull(_channel, "Invalid channel.");
+        final MappedFileRegions mapped = regions;
+        if (null != mapped) {
+            return mapped.write(buffer, offset);
+        }
+        final BufferPool paged = pool;
+        if (null != paged) {
+            return paged.write(buffer, offset);
+        }
+        final int size = buffer.remaining();
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            position += _channel.write(buffer, position);
+        }
+        return size;
     }
 
     public Object readFile(final long offset, final int size) throws IOException, ClassNotFoundException {
-        final byte[] data = new byte[size];
-        channel.position(offset);
-        channel.read(ByteBuffer.wrap(data));
+        return decode(readBuffer(offset, size));
+    }
+
+    /**
+     * Unmarshall the remaining bytes of a buffer read by readBuffer.
+     *
+     * @param bytes
+     * @return The data.
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public Object decode(final ByteBuffer bytes) throws IOException, ClassNotFoundException {
+        if (marshaller instanceof BufferDataMarshaller) {
+            return ((BufferDataMarshaller) marshaller).readData(bytes);
+        }
+        final byte[] data = new byte[bytes.remaining()];
+        bytes.get(data);
         return marshaller.readData(data);
     }
 
+    /**
+     * Read size bytes at offset without de-serializing them. In MAPPED mode
+     * the returned buffer is a read only slice of the mapped region.
+     *
+     * @param offset
+     * @param size
+     * @return The bytes, positioned at zero.
+     * @throws IOException
+     * @throws EOFException if the range lies past the end of the file.
+     */
+    public ByteBuffer readBuffer(final long offset, final int size) throws IOException {
+        final FileChannel _channel = channel;
+        Utilities.assertNotNull(_channel, "Invalid channel.");
+        final MappedFileRegions mapped = regions;
+        if (null != mapped) {
+            return mapped.slice(offset, size);
+        }
+        final BufferPool paged = pool;
+        if (null != paged) {
+            return paged.read(offset, size);
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            final int read = _channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Read of " + size + " bytes at " + offset
+                        + " is past the end of the file at " + _channel.size());
+            }
+            position += read;
+        }
+        buffer.rewind();
+        return buffer;
+    }
+
+    /**
+     * @return The buffer pool in PAGED mode while the channel is open, null
+     * otherwise.
+     */
+    public BufferPool getBufferPool() {
+        return pool;
+    }
+
     public DataMarshaller getMarshaller() {
         return marshaller;
     }
@@ -145,24 +431,25 @@ public final class DataStoreDirector {
         DataStoreDirector dir = DataStoreDirector.createDataStoreDirector("Temp.jwob", _marshaller);
         int tot = 100;
         int i = 0;
-        long[] length = new long[tot];
+        int[] length = new int[tot];
+        long[] start = new long[tot];
         Utilities.Clock clock = Utility.getTimer();
         clock.startTime();
         try {
-            length[0] = 1;
             dir.openChannel();
             long offset = 0;
             for (; i < tot; i++) {
                 Person p = new Person(i, "Paul", "Jackson",
                         new PhoneNumber(Utilities.getRandom(111, 900), Utilities.getRandom(111, 888), Utilities.getRandom(1111, 9000)), null);
 
-                length[i] = dir.writeFile(p, i * offset);
-                offset = _marshaller.getDataSize();
+                start[i] = offset;
+                length[i] = dir.writeFile(p, offset);
+                offset += length[i];
             }
             System.out.println("\nTime for (" + i + ") inserts: " + clock.step() / 1000f + " ms");
             clock.startTime();
             for (i = 0; i < tot; i++) {
-                Person p = (Person) dir.readFile(i * offset, (int) offset);
+                Person p = (Person) dir.readFile(start[i], length[i]);
             }
             System.out.println("\nTime for (" + tot + ") reads: " + clock.step() / 1000f + " ms");
 
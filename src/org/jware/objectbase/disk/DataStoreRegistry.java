@@ -0,0 +1,173 @@
+package org.jware.objectbase.disk;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.jware.objectbase.core.DataMarshaller;
+import org.jware.objectbase.util.Utilities;
+
+/**
+ * File: DataStoreRegistry.java Created On: 10/18/2026
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * Purpose: Keeps track of the open stores in a process, one
+ * <code>DataStoreDirector</code> per data file. Stores are keyed by the
+ * absolute path of their file so asking twice for the same file returns the
+ * same director, while different files, possibly on different disks, each get
+ * their own director, channel and marshaller.
+ *
+ * @see DataStoreDirector
+ */
+public final class DataStoreRegistry {
+
+    final ConcurrentMap<String, DataStoreDirector> stores = new ConcurrentHashMap<>();
+
+    private static String keyFor(final String fileName) {
+        Utilities.assertNotNull(fileName, "Invalid file name.");
+        return new File(fileName).getAbsolutePath();
+    }
+
+    /**
+     * Return the director for fileName, creating and opening it if this is
+     * the first request for that file.
+     *
+     * @param fileName
+     * @param marshaller
+     * @param mode
+     * @return The open director.
+     * @throws IOException
+     * @throws IllegalArgumentException if the store is already registered
+     * with a marshaller of another class or another mode.
+     */
+    public DataStoreDirector openStore(final String fileName, final DataMarshaller marshaller,
+            final DataStoreDirector.StorageMode mode) throws IOException {
+        Utilities.assertNotNull(mode, "Invalid storage mode.");
+        return open(fileName, marshaller, mode);
+    }
+
+    /**
+     * @param fileName
+     * @param marshaller
+     * @return The open director, in CHANNEL mode if newly created.
+     * @throws IOException
+     * @throws IllegalArgumentException if the store is already registered
+     * with a marshaller of another class.
+     */
+    public DataStoreDirector openStore(final String fileName, final DataMarshaller marshaller) throws IOException {
+        return open(fileName, marshaller, null);
+    }
+
+    /*
+     * A null mode accepts the mode of a registered store, and creates one in
+     * CHANNEL mode.
+     */
+    private DataStoreDirector open(final String fileName, final DataMarshaller marshaller,
+            final DataStoreDirector.StorageMode mode) throws IOException {
+        Utilities.assertNotNull(marshaller, "Invalid marshaller.");
+        final String key = keyFor(fileName);
+        DataStoreDirector store = stores.get(key);
+        if (null == store) {
+            final DataStoreDirector created = DataStoreDirector.createDataStoreDirector(fileName, marshaller,
+                    null == mode ? DataStoreDirector.StorageMode.CHANNEL : mode);
+            store = stores.putIfAbsent(key, created);
+            if (null == store) {
+                store = created;
+            }
+        }
+        if (store.getMarshaller().getClass() != marshaller.getClass()) {
+            throw new IllegalArgumentException(key + " is open with a " + store.getMarshaller().getClass().getName()
+                    + " not a " + marshaller.getClass().getName());
+        }
+        if (null != mode && store.getStorageMode() != mode) {
+            throw new IllegalArgumentException(key + " is open in " + store.getStorageMode() + " mode not " + mode);
+        }
+        synchronized (store) {
+            if (!store.isOpen()) {
+                store.openChannel();
+            }
+        }
+        return store;
+    }
+
+    /**
+     * @param fileName
+     * @return The director for fileName or null if it is not registered.
+     */
+    public DataStoreDirector getStore(final String fileName) {
+        return stores.get(keyFor(fileName));
+    }
+
+    /**
+     * Close the channel of the store for fileName and forget it.
+     *
+     * @param fileName
+     * @throws IOException
+     */
+    public void closeStore(final String fileName) throws IOException {
+        final DataStoreDirector store = stores.remove(keyFor(fileName));
+        if (null != store) {
+            synchronized (store) {
+                if (store.isOpen()) {
+                    store.closeChannel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Close every registered store. A failure to close one store is logged
+     * and does not stop the others from closing.
+     */
+    public void closeAll() {
+        for (final String key : new ArrayList<>(stores.keySet())) {
+            try {
+                closeStore(key);
+            } catch (IOException cause) {
+                Logger.getLogger(getClass().getName()).log(Level.SEVERE, " ", cause.toString() + " closing " + key);
+            }
+        }
+    }
+
+    /**
+     * @return The registered stores.
+     */
+    public Collection<DataStoreDirector> getStores() {
+        return Collections.unmodifiableCollection(stores.values());
+    }
+
+    /**
+     * @return The absolute paths of the registered stores.
+     */
+    public List<String> getStoreNames() {
+        return new ArrayList<>(stores.keySet());
+    }
+
+    public int size() {
+        return stores.size();
+    }
+}
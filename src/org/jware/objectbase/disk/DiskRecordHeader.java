@@ -29,10 +29,17 @@ import org.jware.objectbase.core.DataHeaderFactory;
  */
 public class DiskRecordHeader<T> implements DataHeader<T> {
 
+    /*
+     * As computed before version was added, so serialized indexes written
+     * then still read, with version 0.
+     */
+    private static final long serialVersionUID = -4148769837343925153L;
+
     protected T key;
     protected int dataSize;
     protected Long dataStartPtr;
     protected Long dataEndPtr;
+    protected long version;
 
     public DiskRecordHeader() {
     }
@@ -84,6 +91,20 @@ public class DiskRecordHeader<T> implements DataHeader<T> {
         dataSize = size;
     }
 
+    /**
+     * @return Number of the record's last change, 0 for a record written
+     * before records were versioned.
+     */
+    @Override
+    public long version() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(final long version) {
+        this.version = version;
+    }
+
     public final String toString() {
         final StringBuilder string = new StringBuilder();
 
@@ -91,6 +112,7 @@ public class DiskRecordHeader<T> implements DataHeader<T> {
         string.append("Size[" + dataSize + "], ");
         string.append("Start Ptr[" + dataStartPtr + "], ");
         string.append("Ending Ptr[" + dataEndPtr + "], ");
+        string.append("Version[" + version + "], ");
         string.append("Slot Size[" + (dataEndPtr - dataStartPtr) + "]");
 
         return string.toString();
@@ -0,0 +1,261 @@
+package org.jware.objectbase.disk;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * File: FreeSpaceManager.java Created On: 10/18/2026
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * Purpose: Keeps track of the holes left in a data file by deleted and moved
+ * records so new data can be written into them rather than at the end.
+ * <p>
+ * Holes are kept by offset, so a released hole is merged with any hole it
+ * touches, and on a free list per size class, class n holding the holes of
+ * 2^n up to 2^(n+1) bytes. An allocation looks a few holes into its own class
+ * for one big enough, then takes a hole from the smallest larger class, which
+ * always fits, and splits off what it does not need. Free list entries are
+ * checked against the holes when taken, so merging and splitting never have
+ * to search a list.
+ * <p>
+ * Offsets are relative to the start of the data, as in the headers.
+ * <p>
+ * Thread safety: all methods are synchronized.
+ *
+ * @see IndexedDataDirector
+ */
+public final class FreeSpaceManager {
+
+    public static final long NO_SPACE = -1L;
+
+    static final int SIZE_CLASSES = 64;
+    static final int CLASS_PROBES = 8;
+
+    final TreeMap<Long, Long> holes = new TreeMap<>();
+    final ArrayDeque<Long>[] freeLists;
+    long listed;
+    long freeBytes;
+    long reusedBytes;
+
+    public FreeSpaceManager() {
+        freeLists = new ArrayDeque[SIZE_CLASSES];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            freeLists[i] = new ArrayDeque<>();
+        }
+    }
+
+    static int sizeClass(final long length) {
+        return 63 - Long.numberOfLeadingZeros(length);
+    }
+
+    private void addHole(final long start, final long length) {
+        holes.put(start, length);
+        freeLists[sizeClass(length)].add(start);
+        freeBytes += length;
+        if (++listed > 2L * holes.size() + 64) {
+            relist();
+        }
+    }
+
+    /*
+     * Drop the stale entries merging and splitting leave on the free lists.
+     */
+    private void relist() {
+        for (final ArrayDeque<Long> list : freeLists) {
+            list.clear();
+        }
+        for (final Map.Entry<Long, Long> hole : holes.entrySet()) {
+            freeLists[sizeClass(hole.getValue())].add(hole.getKey());
+        }
+        listed = holes.size();
+    }
+
+    private void removeHole(final long start, final long length) {
+        holes.remove(start);
+        freeBytes -= length;
+    }
+
+    /**
+     * Return length bytes at start to free space.
+     *
+     * @param start
+     * @param length
+     */
+    public synchronized void release(long start, long length) {
+        if (length <= 0) {
+            return;
+        }
+        final Map.Entry<Long, Long> before = holes.floorEntry(start);
+        if (null != before && before.getKey() + before.getValue() >= start) {
+            if (before.getKey() + before.getValue() >= start + length) {
+                return;
+            }
+            removeHole(before.getKey(), before.getValue());
+            length = start + length - before.getKey();
+            start = before.getKey();
+        }
+        Map.Entry<Long, Long> after = holes.higherEntry(start);
+        while (null != after && after.getKey() <= start + length) {
+            removeHole(after.getKey(), after.getValue());
+            length = Math.max(start + length, after.getKey() + after.getValue()) - start;
+            after = holes.higherEntry(start);
+        }
+        addHole(start, length);
+    }
+
+    /**
+     * Take size bytes from free space.
+     *
+     * @param size
+     * @return The start of the space, or NO_SPACE if no hole is big enough.
+     */
+    public synchronized long allocate(final int size) {
+        if (size <= 0 || holes.isEmpty()) {
+            return NO_SPACE;
+        }
+        final int home = sizeClass(size);
+        final ArrayDeque<Long> own = freeLists[home];
+        for (int probe = Math.min(CLASS_PROBES, own.size()); probe > 0; probe--) {
+            final Long start = own.poll();
+            listed--;
+            final Long length = holes.get(start);
+            if (null == length || sizeClass(length) != home) {
+                continue;
+            }
+            if (length >= size) {
+                return take(start, length, size);
+            }
+            own.add(start);
+            listed++;
+        }
+        for (int n = home + 1; n < SIZE_CLASSES; n++) {
+            final ArrayDeque<Long> list = freeLists[n];
+            Long start;
+            while (null != (start = list.poll())) {
+                listed--;
+                final Long length = holes.get(start);
+                if (null != length && sizeClass(length) == n) {
+                    return take(start, length, size);
+                }
+            }
+        }
+        return NO_SPACE;
+    }
+
+    /**
+     * Find the hole running up to end, the space a record starting at end
+     * could slide down into.
+     *
+     * @param end
+     * @return The start of the hole, or NO_SPACE if end does not follow one.
+     */
+    public synchronized long holeBefore(final long end) {
+        final Map.Entry<Long, Long> before = holes.lowerEntry(end);
+        return null != before && before.getKey() + before.getValue() == end ? before.getKey() : NO_SPACE;
+    }
+
+    /**
+     * Take size bytes from the front of the hole starting at start, the
+     * compactor's way of taking the particular space it wants.
+     *
+     * @param start
+     * @param size
+     * @return True if a hole starts there and is big enough.
+     */
+    public synchronized boolean claim(final long start, final int size) {
+        final Long length = holes.get(start);
+        if (null == length || length < size) {
+            return false;
+        }
+        removeHole(start, length);
+        if (length > size) {
+            addHole(start + size, length - size);
+        }
+        return true;
+    }
+
+    private long take(final long start, final long length, final int size) {
+        removeHole(start, length);
+        if (length > size) {
+            addHole(start + size, length - size);
+        }
+        reusedBytes += size;
+        return start;
+    }
+
+    /**
+     * If the last hole runs to the end of the data, give it back to the end
+     * of data pointer so the file stops growing. Done with compareAndSet so a
+     * region claimed meanwhile is never handed out twice.
+     *
+     * @param endOfData
+     * @return True if the end of data moved back.
+     */
+    public synchronized boolean trimTail(final AtomicLong endOfData) {
+        final Map.Entry<Long, Long> last = holes.lastEntry();
+        if (null == last) {
+            return false;
+        }
+        final long end = last.getKey() + last.getValue();
+        if (endOfData.compareAndSet(end, last.getKey())) {
+            removeHole(last.getKey(), last.getValue());
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized void clear() {
+        holes.clear();
+        for (final ArrayDeque<Long> list : freeLists) {
+            list.clear();
+        }
+        listed = 0;
+        freeBytes = 0;
+    }
+
+    /**
+     * @return Bytes in holes.
+     */
+    public synchronized long getFreeBytes() {
+        return freeBytes;
+    }
+
+    /**
+     * @return Number of holes.
+     */
+    public synchronized int getHoleCount() {
+        return holes.size();
+    }
+
+    /**
+     * @return Bytes handed out from holes rather than the end of the data.
+     */
+    public synchronized long getReusedBytes() {
+        return reusedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Holes[" + holes.size() + "], Free[" + freeBytes + "], Reused[" + reusedBytes + "]";
+    }
+}
@@ -0,0 +1,273 @@
+package org.jware.objectbase.disk;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import objectbase.Person;
+import objectbase.PhoneNumber;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.util.Utilities;
+import static org.jware.objectbase.util.Utilities.Utility;
+
+/**
+ * File: GroupCommit.java Created On: 10/18/2026
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * Purpose: Decides when a write is made durable. With Policy NONE nothing is
+ * forced and a write lasts as long as the operating system's cache. With
+ * PER_WRITE every commit forces the files itself. With GROUP the first writer
+ * to commit becomes the leader, waits up to delay for others to commit, or
+ * until maxBytes have been written, then forces once for all of them. The
+ * others wait for that force rather than each issuing their own, so many
+ * writers share the cost of one force. A leader only waits when the last force
+ * covered more than one commit, so a lone writer is not held up for company
+ * that is not coming, and writers arriving during a force still queue behind
+ * it and go in the next.
+ * <p>
+ * Thread safety: commit may be called from any number of threads.
+ *
+ * @see IndexedDataDirector#setDurability
+ */
+public final class GroupCommit {
+
+    /**
+     * When commits are forced.
+     */
+    public enum Policy {
+        NONE, PER_WRITE, GROUP
+    }
+
+    /**
+     * Makes every write so far durable.
+     */
+    public interface Syncer {
+
+        void force() throws IOException;
+    }
+
+    final Policy policy;
+    final long delayNanos;
+    final long maxBytes;
+    final Syncer syncer;
+    long written;
+    long forced;
+    long pendingBytes;
+    long lastGroup;
+    boolean forcing;
+    long forces;
+    long commits;
+
+    /**
+     * @param policy
+     * @param delay longest a GROUP leader waits for others to join.
+     * @param unit
+     * @param maxBytes bytes after which a GROUP leader forces at once.
+     * @param syncer
+     */
+    public GroupCommit(final Policy policy, final long delay, final TimeUnit unit, final long maxBytes,
+            final Syncer syncer) {
+        Utilities.assertNotNull(policy, "Invalid policy.");
+        Utilities.assertNotNull(unit, "Invalid time unit.");
+        Utilities.assertNotNull(syncer, "Invalid syncer.");
+        if (delay < 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid group commit delay " + delay + " or size " + maxBytes);
+        }
+        this.policy = policy;
+        this.delayNanos = unit.toNanos(delay);
+        this.maxBytes = maxBytes;
+        this.syncer = syncer;
+    }
+
+    /**
+     * Return once a write of bytes, already made, is as durable as the
+     * policy asks.
+     *
+     * @param bytes
+     * @throws IOException if the force fails, the write may not be durable.
+     */
+    public void commit(final int bytes) throws IOException {
+        switch (policy) {
+            case NONE:
+                return;
+            case PER_WRITE:
+                syncer.force();
+                synchronized (this) {
+                    commits++;
+                    forces++;
+                }
+                return;
+            default:
+                groupCommit(bytes);
+        }
+    }
+
+    private void groupCommit(final int bytes) throws IOException {
+        final long covered;
+        synchronized (this) {
+            final long ticket = ++written;
+            commits++;
+            pendingBytes += bytes;
+            if (pendingBytes >= maxBytes) {
+                notifyAll();
+            }
+            while (forced < ticket) {
+                if (!forcing) {
+                    break;
+                }
+                await(0L);
+            }
+            if (forced >= ticket) {
+                return;
+            }
+            forcing = true;
+            final long deadline = lastGroup > 1 ? System.nanoTime() + delayNanos : 0L;
+            long remaining;
+            try {
+                while (deadline != 0L && pendingBytes < maxBytes && (remaining = deadline - System.nanoTime()) > 0) {
+                    await(remaining);
+                }
+            } catch (InterruptedIOException interrupted) {
+                forcing = false;
+                notifyAll();
+                throw interrupted;
+            }
+            covered = written;
+            pendingBytes = 0;
+        }
+        IOException failure = null;
+        try {
+            syncer.force();
+        } catch (IOException cause) {
+            failure = cause;
+        }
+        synchronized (this) {
+            forcing = false;
+            forces++;
+            if (null == failure) {
+                lastGroup = covered - forced;
+                forced = Math.max(forced, covered);
+            }
+            notifyAll();
+        }
+        if (null != failure) {
+            throw failure;
+        }
+    }
+
+    private void await(final long nanos) throws InterruptedIOException {
+        try {
+            if (nanos == 0) {
+                wait();
+            } else {
+                TimeUnit.NANOSECONDS.timedWait(this, nanos);
+            }
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for group commit");
+        }
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return Commits made durable.
+     */
+    public synchronized long getCommits() {
+        return commits;
+    }
+
+    /**
+     * @return Forces issued, fewer than commits when commits were grouped.
+     */
+    public synchronized long getForces() {
+        return forces;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return policy + " Commits[" + commits + "], Forces[" + forces + "]";
+    }
+
+    /*
+     * Inserts per second and the forces they cost under each policy, as the
+     * number of threads inserting grows.
+     */
+    public static void main(String[] args) {
+        final int tot = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        Utilities.Clock clock = Utility.getTimer();
+        try {
+            System.out.println("\nPolicy, threads, inserts/s, forces");
+            for (final Policy policy : Policy.values()) {
+                for (int threads = 1; threads <= 16; threads <<= 2) {
+                    final DataStoreDirector dm = DataStoreDirector.createDataStoreDirector("Temp.jwob",
+                            Person.registerWith(new CompactDataMarshaller<>()));
+                    final ConcurrentIndexedDataDirector<Integer, DataHeader> id
+                            = new ConcurrentIndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+                    dm.openChannel();
+                    id.setDurability(policy, 0, TimeUnit.MILLISECONDS, 1 << 20);
+                    final AtomicInteger next = new AtomicInteger();
+                    final Thread[] workers = new Thread[threads];
+                    clock.startTime();
+                    for (int t = 0; t < threads; t++) {
+                        workers[t] = new Thread(() -> {
+                            try {
+                                for (int i = next.getAndIncrement(); i < tot; i = next.getAndIncrement()) {
+                                    id.insertData(i, new Person(i, "Paul", "Jackson",
+                                            new PhoneNumber(Utilities.getRandom(111, 900), Utilities.getRandom(111, 888), Utilities.getRandom(1111, 9000)), null));
+                                }
+                            } catch (Exception e) {
+                                System.out.println(e.toString());
+                            }
+                        });
+                        workers[t].start();
+                    }
+                    for (final Thread worker : workers) {
+                        worker.join();
+                    }
+                    final long time = Math.max(1, clock.step());
+                    System.out.println(policy + ", " + threads + ", " + (tot * 1000L / time) + ", "
+                            + id.getGroupCommit().getForces());
+                    id.deleteFile();
+                    dm.closeChannel();
+                    dm.deleteFile();
+                }
+            }
+        } catch (Exception e) {
+            System.out.println(e.toString());
+        }
+    }
+}
+
+/*
+ Policy, threads, inserts/s, forces
+ NONE, 1, 27777, 0
+ NONE, 4, 100000, 0
+ NONE, 16, 117647, 0
+ PER_WRITE, 1, 6644, 2000
+ PER_WRITE, 4, 25641, 2000
+ PER_WRITE, 16, 26666, 2000
+ GROUP, 1, 12269, 2000
+ GROUP, 4, 29850, 812
+ GROUP, 16, 43478, 297
+*/
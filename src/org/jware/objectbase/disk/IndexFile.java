@@ -0,0 +1,543 @@
+package org.jware.objectbase.disk;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.core.DataHeaderFactory;
+import org.jware.objectbase.util.Utilities;
+import static org.jware.objectbase.util.Utilities.Utility;
+
+/**
+ * File: IndexFile.java Created On: 10/18/2026
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * Purpose: Reads and writes the index of an <code>IndexedDataDirector</code>
+ * as fixed width binary entries, so opening a store is a bulk read of the
+ * file rather than a deserialization of every header.
+ * <p>
+ * The file starts with a preamble:
+ * <pre>
+ *   "JWOB" | version int | key type int | key width int | count int | data start long
+ * </pre>
+ * followed by count entries, each key width + 28 bytes:
+ * <pre>
+ *   key | size int | start long | end long | record version long
+ * </pre>
+ * and the last record version the store handed out, a long, so a version
+ * is never given out twice even once the record holding it is deleted.
+ * Integer and Long keys are written as is. String keys, and any other key,
+ * which is written in its serialized form, are an int length followed by the
+ * bytes, padded to the longest key in the index so every entry has the same
+ * width. Entries are read from the file mapped in large chunks.
+ * <p>
+ * Files of version 1 have no record version in their entries, their records
+ * read as version 0. Files of version 2 end with the last entry, their last
+ * version is the highest version of an entry.
+ *
+ * @see IndexedDataDirector
+ */
+final class IndexFile implements Closeable {
+
+    static final byte[] FILE_TYPE = IndexedDataDirector.FILE_TYPE.getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 3;
+    static final int UNVERSIONED = 1;
+    static final int NO_LAST_VERSION = 2;
+
+    static final int KEY_INT = 1;
+    static final int KEY_LONG = 2;
+    static final int KEY_STRING = 3;
+    static final int KEY_SERIALIZED = 4;
+
+    static final int PREAMBLE_SIZE = FILE_TYPE.length + 4 * 4 + 8;
+    static final int POINTER_SIZE = 4 + 8 + 8;
+    static final int RECORD_VERSION_SIZE = 8;
+    static final int WRITE_BUFFER_SIZE = 1 << 20;
+    static final int MAX_READ_CHUNK = 1 << 28;
+
+    final FileChannel channel;
+    final int version;
+    final int keyType;
+    final int keyWidth;
+    final int recordCount;
+    final long dataStartOffset;
+    long lastVersion;
+
+    private IndexFile(final FileChannel channel, final ByteBuffer preamble) throws IOException {
+        this.channel = channel;
+        version = preamble.getInt();
+        if (version != VERSION && version != NO_LAST_VERSION && version != UNVERSIONED) {
+            throw new IOException("Unsupported index version.");
+        }
+        keyType = preamble.getInt();
+        keyWidth = preamble.getInt();
+        recordCount = preamble.getInt();
+        dataStartOffset = preamble.getLong();
+    }
+
+    /**
+     * @param fileName
+     * @return True if the file exists and starts with the binary preamble.
+     * @throws IOException
+     */
+    static boolean isIndexFile(final String fileName) throws IOException {
+        final File file = new File(fileName);
+        if (!file.isFile() || file.length() < PREAMBLE_SIZE) {
+            return false;
+        }
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer type = ByteBuffer.allocate(FILE_TYPE.length);
+            readFully(channel, type, 0);
+            return type.equals(ByteBuffer.wrap(FILE_TYPE));
+        }
+    }
+
+    /**
+     * Open an index file and read its preamble, the entries are read by
+     * readHeaders.
+     *
+     * @param fileName
+     * @return The open index file.
+     * @throws IOException
+     */
+    static IndexFile open(final String fileName) throws IOException {
+        final FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        try {
+            final ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE_SIZE);
+            readFully(channel, preamble, 0);
+            final byte[] type = new byte[FILE_TYPE.length];
+            preamble.get(type);
+            if (!ByteBuffer.wrap(type).equals(ByteBuffer.wrap(FILE_TYPE))) {
+                throw new IOException(fileName + " is not a JWOB index.");
+            }
+            final IndexFile file = new IndexFile(channel, preamble);
+            if (file.version == VERSION) {
+                final ByteBuffer last = ByteBuffer.allocate(8);
+                readFully(channel, last, PREAMBLE_SIZE + (long) file.recordCount * file.entryWidth());
+                file.lastVersion = last.getLong();
+            }
+            return file;
+        } catch (IOException | RuntimeException cause) {
+            channel.close();
+            throw cause;
+        }
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer target, long position) throws IOException {
+        while (target.hasRemaining()) {
+            final int read = channel.read(target, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of index.");
+            }
+            position += read;
+        }
+        target.flip();
+    }
+
+    final int entryWidth() {
+        return keyWidth + POINTER_SIZE + (version == UNVERSIONED ? 0 : RECORD_VERSION_SIZE);
+    }
+
+    /**
+     * Read every entry into a header allocated by factory and hand it to
+     * sink, in the order they were written. lastVersion is raised to the
+     * highest version read.
+     *
+     * @param <T>
+     * @param factory
+     * @param sink
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    <T extends DataHeader> void readHeaders(final DataHeaderFactory factory, final Consumer<T> sink)
+            throws IOException, ClassNotFoundException {
+        final int width = entryWidth();
+        final long end = PREAMBLE_SIZE + (long) recordCount * width;
+        if (channel.size() < end) {
+            throw new IOException("Index is shorter than its " + recordCount + " entries.");
+        }
+        final long chunk = Math.max(1, MAX_READ_CHUNK / width) * (long) width;
+        for (long position = PREAMBLE_SIZE; position < end; position += chunk) {
+            final ByteBuffer entries = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(chunk, end - position));
+            while (entries.hasRemaining()) {
+                final int entry = entries.position();
+                final T header = (T) factory.allocateHeader();
+                header.setKey(readKey(entries));
+                entries.position(entry + keyWidth);
+                header.setSize(entries.getInt());
+                header.setDataStartPtr(entries.getLong());
+                header.setDataEndPtr(entries.getLong());
+                if (version != UNVERSIONED) {
+                    header.setVersion(entries.getLong());
+                    lastVersion = Math.max(lastVersion, header.version());
+                }
+                sink.accept(header);
+            }
+        }
+    }
+
+    /**
+     * Read every entry straight into a primitive index, the keys must have
+     * been written as Integer or Long. lastVersion is raised to the highest
+     * version read.
+     *
+     * @param index
+     * @throws IOException
+     */
+    void readEntries(final OffHeapLongIndex index) throws IOException {
+        if (keyType != KEY_INT && keyType != KEY_LONG) {
+            throw new IOException("Index keys are not integers.");
+        }
+        final int width = entryWidth();
+        final long end = PREAMBLE_SIZE + (long) recordCount * width;
+        if (channel.size() < end) {
+            throw new IOException("Index is shorter than its " + recordCount + " entries.");
+        }
+        final long chunk = Math.max(1, MAX_READ_CHUNK / width) * (long) width;
+        for (long position = PREAMBLE_SIZE; position < end; position += chunk) {
+            final ByteBuffer entries = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(chunk, end - position));
+            while (entries.hasRemaining()) {
+                final int entry = entries.position();
+                final long key = keyType == KEY_INT ? entries.getInt() : entries.getLong();
+                final int size = entries.getInt();
+                final long start = entries.getLong();
+                final int capacity = (int) (entries.getLong() - start);
+                final long recordVersion = version != UNVERSIONED ? entries.getLong() : 0L;
+                index.put(key, start, size, capacity, recordVersion);
+                lastVersion = Math.max(lastVersion, recordVersion);
+                entries.position(entry + width);
+            }
+        }
+    }
+
+    private Object readKey(final ByteBuffer entries) throws IOException, ClassNotFoundException {
+        switch (keyType) {
+            case KEY_INT:
+                return entries.getInt();
+            case KEY_LONG:
+                return entries.getLong();
+            default:
+                final byte[] key = new byte[entries.getInt()];
+                entries.get(key);
+                return decodeKey(keyType, key);
+        }
+    }
+
+    static Object decodeKey(final int keyType, final byte[] key) throws IOException, ClassNotFoundException {
+        if (keyType == KEY_STRING) {
+            return new String(key, StandardCharsets.UTF_8);
+        }
+        try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(key))) {
+            return in.readObject();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /*
+     * The narrowest key type that holds every key.
+     */
+    static int keyTypeOf(final DataHeader[] headers) {
+        if (headers.length == 0) {
+            return KEY_INT;
+        }
+        final Class<?> type = headers[0].key().getClass();
+        for (final DataHeader header : headers) {
+            if (header.key().getClass() != type) {
+                return KEY_SERIALIZED;
+            }
+        }
+        return type == Integer.class ? KEY_INT
+                : type == Long.class ? KEY_LONG
+                : type == String.class ? KEY_STRING
+                : KEY_SERIALIZED;
+    }
+
+    static byte[] encodeKey(final int keyType, final Object key) throws IOException {
+        if (keyType == KEY_STRING) {
+            return ((String) key).getBytes(StandardCharsets.UTF_8);
+        }
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(key);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param headers
+     * @return The size in bytes of the index file for these headers.
+     * @throws IOException
+     */
+    static long sizeOf(final Collection<? extends DataHeader> headers) throws IOException {
+        final DataHeader[] snapshot = headers.toArray(new DataHeader[0]);
+        final int keyType = keyTypeOf(snapshot);
+        int keyWidth = keyType == KEY_INT ? 4 : 8;
+        if (keyType == KEY_STRING || keyType == KEY_SERIALIZED) {
+            keyWidth = 4;
+            for (final DataHeader header : snapshot) {
+                keyWidth = Math.max(keyWidth, 4 + encodeKey(keyType, header.key()).length);
+            }
+        }
+        return PREAMBLE_SIZE + (long) snapshot.length * (keyWidth + POINTER_SIZE + RECORD_VERSION_SIZE)
+                + RECORD_VERSION_SIZE;
+    }
+
+    /**
+     * Write headers to fileName. The entries go to a temporary file which then
+     * replaces fileName, so a failed write leaves the old index in place.
+     *
+     * @param fileName
+     * @param headers
+     * @param dataStartOffset
+     * @param lastVersion the last record version handed out.
+     * @throws IOException
+     */
+    static void write(final String fileName, final Collection<? extends DataHeader> headers,
+            final long dataStartOffset, final long lastVersion) throws IOException {
+        final DataHeader[] snapshot = headers.toArray(new DataHeader[0]);
+        final int keyType = keyTypeOf(snapshot);
+        int keyWidth = keyType == KEY_INT ? 4 : 8;
+        byte[][] keys = null;
+        if (keyType == KEY_STRING || keyType == KEY_SERIALIZED) {
+            keys = new byte[snapshot.length][];
+            keyWidth = 4;
+            for (int i = 0; i < snapshot.length; i++) {
+                keys[i] = encodeKey(keyType, snapshot[i].key());
+                keyWidth = Math.max(keyWidth, 4 + keys[i].length);
+            }
+        }
+        final int width = keyWidth + POINTER_SIZE + RECORD_VERSION_SIZE;
+        final Path target = Paths.get(fileName);
+        final Path temporary = Paths.get(fileName + ".tmp");
+        try (final FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(WRITE_BUFFER_SIZE, PREAMBLE_SIZE + width));
+            buffer.put(FILE_TYPE).putInt(VERSION).putInt(keyType).putInt(keyWidth)
+                    .putInt(snapshot.length).putLong(dataStartOffset);
+            for (int i = 0; i < snapshot.length; i++) {
+                if (buffer.remaining() < width) {
+                    drain(channel, buffer);
+                }
+                final int entry = buffer.position();
+                switch (keyType) {
+                    case KEY_INT:
+                        buffer.putInt((Integer) snapshot[i].key());
+                        break;
+                    case KEY_LONG:
+                        buffer.putLong((Long) snapshot[i].key());
+                        break;
+                    default:
+                        buffer.putInt(keys[i].length).put(keys[i]);
+                }
+                buffer.position(entry + keyWidth);
+                buffer.putInt(snapshot[i].dataSize())
+                        .putLong(snapshot[i].dataStartPtr())
+                        .putLong(snapshot[i].dataEndPtr())
+                        .putLong(snapshot[i].version());
+            }
+            if (buffer.remaining() < RECORD_VERSION_SIZE) {
+                drain(channel, buffer);
+            }
+            buffer.putLong(lastVersion);
+            drain(channel, buffer);
+            channel.force(false);
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Write the entries of a primitive index to fileName, in the same format
+     * so either kind of director can read it.
+     *
+     * @param fileName
+     * @param index
+     * @param keyType KEY_INT or KEY_LONG.
+     * @param dataStartOffset
+     * @param lastVersion the last record version handed out.
+     * @throws IOException
+     */
+    static void write(final String fileName, final OffHeapLongIndex index, final int keyType,
+            final long dataStartOffset, final long lastVersion) throws IOException {
+        if (keyType != KEY_INT && keyType != KEY_LONG) {
+            throw new IllegalArgumentException("Not a primitive key type: " + keyType);
+        }
+        if (index.count() > Integer.MAX_VALUE) {
+            throw new IOException("Too many entries for an index file: " + index.count());
+        }
+        final int keyWidth = keyType == KEY_INT ? 4 : 8;
+        final int width = keyWidth + POINTER_SIZE + RECORD_VERSION_SIZE;
+        final Path target = Paths.get(fileName);
+        final Path temporary = Paths.get(fileName + ".tmp");
+        try (final FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+            buffer.put(FILE_TYPE).putInt(VERSION).putInt(keyType).putInt(keyWidth)
+                    .putInt((int) index.count()).putLong(dataStartOffset);
+            final IOException[] failed = new IOException[1];
+            index.forEach((key, start, size, capacity, recordVersion) -> {
+                if (null != failed[0]) {
+                    return;
+                }
+                if (buffer.remaining() < width) {
+                    try {
+                        drain(channel, buffer);
+                    } catch (IOException cause) {
+                        failed[0] = cause;
+                        return;
+                    }
+                }
+                if (keyType == KEY_INT) {
+                    buffer.putInt((int) key);
+                } else {
+                    buffer.putLong(key);
+                }
+                buffer.putInt(size).putLong(start).putLong(start + capacity).putLong(recordVersion);
+            });
+            if (null != failed[0]) {
+                throw failed[0];
+            }
+            if (buffer.remaining() < RECORD_VERSION_SIZE) {
+                drain(channel, buffer);
+            }
+            buffer.putLong(lastVersion);
+            drain(channel, buffer);
+            channel.force(false);
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void drain(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /*
+     * Open an index of a million headers written both ways, the serialized
+     * headers the index used to be and the fixed width entries.
+     */
+    public static void main(String[] args) {
+        final int tot = 1000000;
+        final String legacyName = "Temp.ser.idx";
+        final String binaryName = "Temp.idx";
+        final Map<Integer, DiskRecordHeader> headers = new HashMap<>(tot * 4 / 3 + 1);
+        long offset = 0;
+        for (int i = 0; i < tot; i++) {
+            final int size = Utilities.getRandom(100, 200);
+            headers.put(i, new DiskRecordHeader<>(i, size, offset, offset + size));
+            offset += size;
+        }
+        try {
+            Utilities.Clock clock = Utility.getTimer();
+            clock.startTime();
+            try (final ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(legacyName)))) {
+                oos.writeObject(IndexedDataDirector.FILE_TYPE);
+                oos.writeInt(headers.size());
+                oos.writeLong(1024L);
+                for (DiskRecordHeader header : headers.values()) {
+                    oos.writeObject(header);
+                }
+            }
+            System.out.println("\nSerialized, write (" + tot + ") headers: " + clock.step() / 1000f
+                    + " seconds, " + new File(legacyName).length() + " bytes");
+            clock.startTime();
+            final Map<Integer, DiskRecordHeader> legacy = new HashMap<>();
+            try (final ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(legacyName)))) {
+                ois.readObject();
+                final int count = ois.readInt();
+                ois.readLong();
+                for (int i = 0; i < count; i++) {
+                    final DiskRecordHeader header = (DiskRecordHeader) ois.readObject();
+                    legacy.put((Integer) header.key(), header);
+                }
+            }
+            System.out.println("Serialized, open (" + legacy.size() + ") headers: " + clock.step() / 1000f + " seconds");
+
+            clock.startTime();
+            write(binaryName, headers.values(), 1024L, 0L);
+            System.out.println("Fixed width, write (" + tot + ") headers: " + clock.step() / 1000f
+                    + " seconds, " + new File(binaryName).length() + " bytes");
+            clock.startTime();
+            int opened;
+            try (final IndexFile file = open(binaryName)) {
+                final Map<Integer, DiskRecordHeader> binary = new HashMap<>(file.recordCount * 4 / 3 + 1);
+                file.readHeaders(new DiskRecordHeaderFactory(), (DiskRecordHeader header) -> binary.put((Integer) header.key(), header));
+                opened = binary.size();
+            }
+            System.out.println("Fixed width, open (" + opened + ") headers: " + clock.step() / 1000f + " seconds");
+        } catch (IOException | ClassNotFoundException e) {
+            System.out.println(e.toString());
+        } finally {
+            new File(legacyName).delete();
+            new File(binaryName).delete();
+        }
+    }
+}
+
+/*
+ Serialized, write (1000000) headers: 1.811 seconds, 48000263 bytes
+ Serialized, open (1000000) headers: 0.943 seconds
+ Fixed width, write (1000000) headers: 0.097 seconds, 24000028 bytes
+ Fixed width, open (1000000) headers: 0.354 seconds
+
+ Serialized, write (1000000) headers: 1.826 seconds, 48000263 bytes
+ Serialized, open (1000000) headers: 1.011 seconds
+ Fixed width, write (1000000) headers: 0.105 seconds, 24000028 bytes
+ Fixed width, open (1000000) headers: 0.339 seconds
+
+ With a record version in each header, 32 bytes an integer key entry, and
+ the last version after them:
+ Serialized, write (1000000) headers: 1.595 seconds, 56000282 bytes
+ Serialized, open (1000000) headers: 0.878 seconds
+ Fixed width, write (1000000) headers: 0.085 seconds, 32000036 bytes
+ Fixed width, open (1000000) headers: 0.357 seconds
+
+ Serialized, write (1000000) headers: 1.811 seconds, 56000282 bytes
+ Serialized, open (1000000) headers: 0.947 seconds
+ Fixed width, write (1000000) headers: 0.095 seconds, 32000036 bytes
+ Fixed width, open (1000000) headers: 0.352 seconds
+*/
@@ -0,0 +1,485 @@
+package org.jware.objectbase.disk;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import objectbase.Person;
+import objectbase.PhoneNumber;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.core.DataHeaderFactory;
+import org.jware.objectbase.exception.DataDirectorException;
+import org.jware.objectbase.util.Utilities;
+import static org.jware.objectbase.util.Utilities.Utility;
+
+/**
+ * File: IndexJournal.java Created On: 10/18/2026
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * Purpose: An append only log of the changes made to an index since it was
+ * last written in full. Each insert, update and delete appends one small
+ * record, so keeping the index on disk costs the same for every change
+ * however large the index is. Opening a store reads the index file then
+ * replays the journal on top of it.
+ * <p>
+ * A record is:
+ * <pre>
+ *   body length int | crc int | op byte | key | size int | start long | end long | record version long
+ * </pre>
+ * with the key encoded as in <code>IndexFile</code>, an int or long as is,
+ * anything else length prefixed. Only a put carries the record version, a
+ * put written before records were versioned ends without it. Replay stops
+ * at the first record that is short or fails its crc, the tail of a write
+ * cut off by a crash.
+ * <p>
+ * The changes of a transaction follow a batch record whose key is their
+ * number. Replay applies them only once it has read all of them, so a
+ * transaction cut off by a crash leaves no trace.
+ * <p>
+ * Records are written with the operating system's cache, they survive the
+ * process dying but not the machine, call force for that. The director does
+ * so per its durability policy, see <code>GroupCommit</code>.
+ * <p>
+ * Thread safety: appends are written one at a time, each claiming its
+ * position and writing its record under the append lock. Replay stops at the
+ * first record it cannot read, so a record must never reach the file ahead
+ * of an earlier one still to be written, a gap left by a crash there would
+ * lose every record after it. A checkpoint waits for appends in progress
+ * and holds new ones back until the journal is truncated. Callers must
+ * change the index before appending the record for the change, so a change
+ * made during a checkpoint is either in the index written or in the journal
+ * after it. Replay is idempotent, so a change in both is harmless.
+ *
+ * @see IndexedDataDirector
+ */
+final class IndexJournal {
+
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+    static final byte BATCH = 3;
+    static final int RECORD_PREFIX = 4 + 4;
+    static final int POINTERS = 4 + 8 + 8;
+    static final int RECORD_VERSION = 8;
+    static final String EXTENSION = ".jnl";
+
+    final String fileName;
+    final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    final Object appendLock = new Object();
+    final AtomicLong position = new AtomicLong();
+    final AtomicLong records = new AtomicLong();
+    long lastVersion;
+    volatile FileChannel channel;
+
+    IndexJournal(final String indexFileName) {
+        final int extension = indexFileName.lastIndexOf('.');
+        fileName = (extension < 0 ? indexFileName : indexFileName.substring(0, extension)) + EXTENSION;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel open = channel;
+        if (null == open) {
+            synchronized (this) {
+                open = channel;
+                if (null == open) {
+                    open = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                            StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    position.set(open.size());
+                    channel = open;
+                }
+            }
+        }
+        return open;
+    }
+
+    private static ByteBuffer encode(final byte op, final Object key, final int size, final long start, final long end,
+            final long version) throws IOException {
+        final byte[] keyBytes = key instanceof Integer || key instanceof Long ? null
+                : IndexFile.encodeKey(key instanceof String ? IndexFile.KEY_STRING : IndexFile.KEY_SERIALIZED, key);
+        final int keyType = key instanceof Integer ? IndexFile.KEY_INT
+                : key instanceof Long ? IndexFile.KEY_LONG
+                : key instanceof String ? IndexFile.KEY_STRING : IndexFile.KEY_SERIALIZED;
+        final int keyLength = keyType == IndexFile.KEY_INT ? 4 : keyType == IndexFile.KEY_LONG ? 8 : 4 + keyBytes.length;
+        final int body = 2 + keyLength + POINTERS + (op == PUT ? RECORD_VERSION : 0);
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_PREFIX + body);
+        record.position(RECORD_PREFIX);
+        record.put(op).put((byte) keyType);
+        if (keyType == IndexFile.KEY_INT) {
+            record.putInt((Integer) key);
+        } else if (keyType == IndexFile.KEY_LONG) {
+            record.putLong((Long) key);
+        } else {
+            record.putInt(keyBytes.length).put(keyBytes);
+        }
+        record.putInt(size).putLong(start).putLong(end);
+        if (op == PUT) {
+            record.putLong(version);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_PREFIX, body);
+        record.putInt(0, body).putInt(4, (int) crc.getValue());
+        record.rewind();
+        return record;
+    }
+
+    private void append(final ByteBuffer record) throws IOException {
+        append(record, 1);
+    }
+
+    private void append(final ByteBuffer record, final int count) throws IOException {
+        checkpointLock.readLock().lock();
+        try {
+            final FileChannel open = channel();
+            synchronized (appendLock) {
+                long offset = position.getAndAdd(record.remaining());
+                while (record.hasRemaining()) {
+                    offset += open.write(record, offset);
+                }
+            }
+            records.addAndGet(count);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
+    void put(final DataHeader header) throws IOException {
+        append(encodePut(header));
+    }
+
+    private static ByteBuffer encodePut(final DataHeader header) throws IOException {
+        return encode(PUT, header.key(), header.dataSize(), header.dataStartPtr(), header.dataEndPtr(),
+                header.version());
+    }
+
+    /*
+     * Journal a batch of headers with a single write, as one change, so a
+     * torn write never replays part of the batch.
+     */
+    void putAll(final Collection<? extends DataHeader> headers) throws IOException {
+        commit(headers, Collections.emptyList());
+    }
+
+    /*
+     * Journal the changes of a transaction with a single write, behind a
+     * batch record so replay applies all of them or none. A single change
+     * needs no batch, its record is whole or not at all.
+     */
+    void commit(final Collection<? extends DataHeader> puts, final Collection<?> deletes) throws IOException {
+        final int count = puts.size() + deletes.size();
+        final List<ByteBuffer> encoded = new ArrayList<>(count + 1);
+        if (count > 1) {
+            encoded.add(encode(BATCH, count, 0, 0L, 0L, 0L));
+        }
+        for (final DataHeader header : puts) {
+            encoded.add(encodePut(header));
+        }
+        for (final Object key : deletes) {
+            encoded.add(encode(DELETE, key, 0, 0L, 0L, 0L));
+        }
+        append(join(encoded), count);
+    }
+
+    private static ByteBuffer join(final List<ByteBuffer> encoded) {
+        int length = 0;
+        for (final ByteBuffer record : encoded) {
+            length += record.remaining();
+        }
+        final ByteBuffer batch = ByteBuffer.allocate(length);
+        for (final ByteBuffer record : encoded) {
+            batch.put(record);
+        }
+        batch.flip();
+        return batch;
+    }
+
+    void delete(final Object key) throws IOException {
+        append(encode(DELETE, key, 0, 0L, 0L, 0L));
+    }
+
+    /**
+     * @return Number of records appended since the journal was opened or
+     * last truncated.
+     */
+    long records() {
+        return records.get();
+    }
+
+    /**
+     * Make the records appended so far survive a crash of the machine.
+     *
+     * @throws IOException
+     */
+    void force() throws IOException {
+        final FileChannel open = channel;
+        if (null != open) {
+            open.force(false);
+        }
+    }
+
+    /**
+     * Write the full index with writer then empty the journal, holding back
+     * appends in between.
+     *
+     * @param writer
+     * @throws IOException
+     */
+    void checkpoint(final Checkpoint writer) throws IOException {
+        checkpointLock.writeLock().lock();
+        try {
+            writer.write();
+            final FileChannel open = channel();
+            open.truncate(0);
+            open.force(true);
+            position.set(0);
+            records.set(0);
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the full index for a checkpoint.
+     */
+    interface Checkpoint {
+
+        void write() throws IOException;
+    }
+
+    /**
+     * Takes the changes read by replay, a null header for a delete.
+     */
+    interface Changes<K, T> {
+
+        void apply(K key, T header);
+    }
+
+    /**
+     * Apply every whole record in the journal to index, in the order written.
+     * lastVersion is set to the highest version of a put read, those of
+     * records since deleted included.
+     *
+     * @param <K>
+     * @param <T>
+     * @param index
+     * @param factory
+     * @return Number of records applied.
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    <K, T extends DataHeader> long replay(final Map<K, T> index, final DataHeaderFactory factory)
+            throws IOException, ClassNotFoundException {
+        return replay((K key, T header) -> {
+            if (null == header) {
+                index.remove(key);
+            } else {
+                index.put(key, header);
+            }
+        }, factory);
+    }
+
+    /**
+     * Replay as above, handing each change to changes rather than a map.
+     *
+     * @param <K>
+     * @param <T>
+     * @param changes
+     * @param factory
+     * @return Number of records applied.
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    <K, T extends DataHeader> long replay(final Changes<K, T> changes, final DataHeaderFactory factory)
+            throws IOException, ClassNotFoundException {
+        final FileChannel open = channel();
+        final long length = open.size();
+        lastVersion = 0;
+        if (length == 0) {
+            return 0;
+        }
+        /*
+         * Read rather than mapped, a torn tail is cut off below and a mapped
+         * file cannot be truncated on every platform.
+         */
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException(fileName + " is too long to replay: " + length);
+        }
+        final ByteBuffer journal = ByteBuffer.allocate((int) length);
+        while (journal.hasRemaining()) {
+            if (open.read(journal, journal.position()) < 0) {
+                break;
+            }
+        }
+        journal.flip();
+        final CRC32 crc = new CRC32();
+        final List<Map.Entry<K, T>> batch = new ArrayList<>();
+        int batchStart = 0;
+        int batchLeft = 0;
+        long applied = 0;
+        while (journal.remaining() >= RECORD_PREFIX) {
+            final int record = journal.position();
+            final int body = journal.getInt();
+            final int expected = journal.getInt();
+            if (body < 2 + 4 + POINTERS || body > journal.remaining()) {
+                journal.position(record);
+                break;
+            }
+            final byte[] bytes = new byte[body];
+            journal.get(bytes);
+            crc.reset();
+            crc.update(bytes, 0, body);
+            if ((int) crc.getValue() != expected) {
+                journal.position(record);
+                break;
+            }
+            final ByteBuffer entry = ByteBuffer.wrap(bytes);
+            final byte op = entry.get();
+            final K key = (K) readKey(entry, entry.get());
+            final int size = entry.getInt();
+            final long start = entry.getLong();
+            final long end = entry.getLong();
+            final long version = entry.remaining() >= RECORD_VERSION ? entry.getLong() : 0L;
+            lastVersion = Math.max(lastVersion, version);
+            if (op == BATCH) {
+                batch.clear();
+                batchStart = record;
+                batchLeft = (Integer) key;
+                continue;
+            }
+            T header = null;
+            if (op != DELETE) {
+                header = (T) factory.allocateHeader();
+                header.setKey(key);
+                header.setSize(size);
+                header.setDataStartPtr(start);
+                header.setDataEndPtr(end);
+                header.setVersion(version);
+            }
+            if (batchLeft > 0) {
+                batch.add(new AbstractMap.SimpleImmutableEntry<>(key, header));
+                if (--batchLeft == 0) {
+                    for (final Map.Entry<K, T> change : batch) {
+                        changes.apply(change.getKey(), change.getValue());
+                    }
+                    applied += batch.size();
+                }
+            } else {
+                changes.apply(key, header);
+                applied++;
+            }
+        }
+        /*
+         * A batch not read in full was cut off, drop it with the torn tail.
+         */
+        if (batchLeft > 0) {
+            journal.position(batchStart);
+        }
+        /*
+         * Drop a torn tail so new records follow the last whole one.
+         */
+        final long whole = journal.position();
+        if (whole < length) {
+            open.truncate(whole);
+        }
+        position.set(whole);
+        records.set(applied);
+        return applied;
+    }
+
+    private static Object readKey(final ByteBuffer entry, final int keyType) throws IOException, ClassNotFoundException {
+        switch (keyType) {
+            case IndexFile.KEY_INT:
+                return entry.getInt();
+            case IndexFile.KEY_LONG:
+                return entry.getLong();
+            default:
+                final byte[] key = new byte[entry.getInt()];
+                entry.get(key);
+                return IndexFile.decodeKey(keyType, key);
+        }
+    }
+
+    void close() throws IOException {
+        final FileChannel open = channel;
+        if (null != open) {
+            channel = null;
+            open.close();
+        }
+    }
+
+    void delete() throws IOException {
+        close();
+        final File file = new File(fileName);
+        if (file.exists()) {
+            file.delete();
+        }
+        position.set(0);
+        records.set(0);
+    }
+
+    /*
+     * Keep the index on disk after every insert, as the test gui does, by
+     * rewriting the whole index and then by journaling the insert.
+     */
+    public static void main(String[] args) {
+        final int tot = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        Utilities.Clock clock = Utility.getTimer();
+        try {
+            for (int run = 0; run < 2; run++) {
+                final boolean rewrite = run == 0;
+                DataStoreDirector dm = DataStoreDirector.createDataStoreDirector("Temp.jwob", Person.registerWith(new CompactDataMarshaller<>()));
+                IndexedDataDirector<Integer, DataHeader> id = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+                dm.openChannel();
+                clock.startTime();
+                for (int i = 0; i < tot; i++) {
+                    id.insertData(i, new Person(i, "Paul", "Jackson",
+                            new PhoneNumber(Utilities.getRandom(111, 900), Utilities.getRandom(111, 888), Utilities.getRandom(1111, 9000)), null));
+                    if (rewrite) {
+                        id.writeIndexHeaders();
+                    } else {
+                        id.writeIndex();
+                    }
+                }
+                System.out.println((rewrite ? "\nRewrite index" : "Journal") + " per insert (" + tot + "): "
+                        + clock.step() / 1000f + " seconds");
+                id.deleteFile();
+                dm.closeChannel();
+                dm.deleteFile();
+            }
+        } catch (IOException | DataDirectorException e) {
+            System.out.println(e.toString());
+        }
+    }
+}
+
+/*
+ Rewrite index per insert (1000): 66.579 seconds
+ Journal per insert (1000): 0.054 seconds
+*/
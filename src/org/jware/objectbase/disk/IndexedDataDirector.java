@@ -17,18 +17,34 @@ package org.jware.objectbase.disk;
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import org.jware.objectbase.core.DataHeader;
 import org.jware.objectbase.core.DataDirector;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import objectbase.Person;
@@ -36,6 +52,7 @@ import objectbase.PhoneNumber;
 import org.jware.objectbase.core.DataHeaderFactory;
 import org.jware.objectbase.core.DataMarshaller;
 import org.jware.objectbase.exception.DataDirectorException;
+import org.jware.objectbase.exception.VersionConflictException;
 import org.jware.objectbase.util.Utilities;
 import static org.jware.objectbase.util.Utilities.Utility;
 
@@ -44,7 +61,50 @@ import static org.jware.objectbase.util.Utilities.Utility;
  *
  * @author J. Paul Jackson <jwareservices@gmail.com>
  *
- * Purpose:
+ * Purpose: Keeps an in memory index of record headers keyed by K over the
+ * data file managed by a <code>DataStoreDirector</code>.
+ * <p>
+ * Every change to the index is appended to an <code>IndexJournal</code> as it
+ * is made. The index file itself is rewritten only at a checkpoint, every
+ * checkpointInterval changes, by writeIndexHeaders and on closeIndex, and
+ * readIndexHeaders replays the journal over it.
+ * <p>
+ * How soon a change is durable is set with setDurability. By default nothing
+ * is forced, a change survives the process but not the machine failing.
+ * Otherwise the data and then the journal are forced before a change
+ * returns, by each change or, with group commit, once for all the changes
+ * made at about the same time. Either way the data of a change is handed to
+ * the operating system before its journal record, in PAGED mode by writing
+ * back the dirty pages, so the journal never outlives the process pointing
+ * at data still in the pool.
+ * <p>
+ * Beside the index by key the headers are kept ordered by where their data
+ * starts, so the record holding a given offset, and the records either side
+ * of it, are found in log n time.
+ * <p>
+ * Deleted and moved records leave holes that are reused by later writes.
+ * compact slides the records down over the holes, in file order, and cuts the
+ * file back, compactIfFragmented does so once the holes make up
+ * compactionThreshold percent of the data.
+ * <p>
+ * Each record carries a version, taken on every insert and update from a
+ * counter for the whole store that only grows, so a record deleted and
+ * inserted again does not take back an old version. The versions and the
+ * counter are kept in the index file and the journal. A caller that read a
+ * record with retrieveVersioned may write it back with updateIfVersion, which
+ * refuses with VersionConflictException if the record changed meanwhile, so
+ * no lock need be held between the read and the write.
+ * <p>
+ * An <code>ObjectCache</code> set with setCache holds decoded records, so a
+ * hot key is served without reading or unmarshalling it again. The cache is
+ * off by default, when on the same object is handed to every caller reading
+ * the key and must not be changed by them.
+ * <p>
+ * Thread safety: the data file is read with positional I/O, so any number of
+ * threads may call retrieveData at the same time provided no thread is
+ * inserting, updating or deleting. Changes to the index are not synchronized
+ * and must be serialized by the caller.
+ *
  * @param <T> Header data to use.
  * @param <K> Key.
  */
@@ -59,6 +119,13 @@ public class IndexedDataDirector<K, T extends DataHeader> implements DataDirecto
     static final int INDEX_START_OFFSET = FILE_TYPE_LENGTH + INT_SIZE;
 
     static final byte MAGIC = 1;
+    static final long DEFAULT_CHECKPOINT_INTERVAL = 1 << 16;
+    static final int BATCH_RECORD_SIZE = 256;
+    static final int COALESCE_GAP = 4096;
+    static final int MAX_COALESCED_READ = 1 << 20;
+    static final int PARALLEL_DECODE = 64;
+    static final boolean PARALLEL = Runtime.getRuntime().availableProcessors() > 1;
+    static final int SCAN_CHUNK = 1 << 20;
 
     final DataStoreDirector fileDirector;
     final DataHeaderFactory headerFactory;
@@ -68,8 +135,20 @@ public class IndexedDataDirector<K, T extends DataHeader> implements DataDirecto
     int headerSize;
     long dataStartOffset;
     long nextIndexOffsetEntry;
+    long dataMarkerEnd;
+    final AtomicLong endOfData = new AtomicLong();
+    final AtomicLong lastVersion = new AtomicLong();
+    final IndexJournal journal;
+    final FreeSpaceManager freeSpace = new FreeSpaceManager();
+    volatile long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    volatile int compactionThreshold = FRAGMENT_THRESHOLD;
+    volatile CompactionStats compactionStats = CompactionStats.NONE;
+    final Object compactionLock = new Object();
+    volatile GroupCommit groupCommit;
+    volatile ObjectCache<K> cache;
     boolean initialized;
     Map<K, T> index;
+    NavigableMap<Long, T> byOffset;
 
     /**
      *
@@ -78,35 +157,402 @@ public class IndexedDataDirector<K, T extends DataHeader> implements DataDirecto
      */
     public IndexedDataDirector(final DataStoreDirector fileDirector, final DataHeaderFactory factory) {
         this.fileDirector = fileDirector;
-        this.indexFileName = this.fileDirector.getFileName()
-                .substring(0, this.fileDirector.getFileName()
-                        .indexOf(".")) + ".idx";
-        index = new HashMap<>();
+        this.indexFileName = indexFileNameFor(this.fileDirector.getFilePath());
+        this.journal = new IndexJournal(indexFileName);
+        index = createIndex(16);
+        byOffset = createOffsetIndex();
 //        dataStartOffset = INDEX_START_OFFSET;
         dataStartOffset = 1024;
         recordCount = 0;
         sizeOfIndex = 0;
         headerFactory = factory;
+        groupCommit = new GroupCommit(GroupCommit.Policy.NONE, 0, TimeUnit.MILLISECONDS, 1, this::forceAll);
         initialize(); 
+        recoverEndOfData();
+    }
+
+    /*
+     * The index lives beside its data file, same path with an idx extension.
+     */
+    static String indexFileNameFor(final String dataFilePath) {
+        final int name = dataFilePath.lastIndexOf(File.separatorChar) + 1;
+        final int extension = dataFilePath.indexOf('.', name);
+        return (extension < 0 ? dataFilePath : dataFilePath.substring(0, extension)) + ".idx";
+    }
+
+    /*
+     * Allocate the map holding the index, subclasses needing a different
+     * map, a concurrent one say, override this.
+     */
+    protected Map<K, T> createIndex(final int capacity) {
+        return new HashMap<>(capacity);
+    }
+
+    /*
+     * Allocate the map ordering the headers by data start, a subclass
+     * changing the index from many threads needs a concurrent one.
+     */
+    protected NavigableMap<Long, T> createOffsetIndex() {
+        return new TreeMap<>();
+    }
+
+    /*
+     * Enter and remove a header in the offset index, remove only takes out
+     * the header given, never a later one reusing its start.
+     */
+    protected final void putOffset(final T header) {
+        byOffset.put(header.dataStartPtr(), header);
+    }
+
+    protected final void removeOffset(final T header) {
+        byOffset.remove(header.dataStartPtr(), header);
+    }
+
+    /*
+     * The version for a record inserted or changed. Versions come from one
+     * counter for the whole store, kept with the index, so a key deleted and
+     * inserted again never returns to a version it had before.
+     */
+    protected final long nextVersion() {
+        return lastVersion.incrementAndGet();
+    }
+
+    /*
+     * Order the headers read back in by data start.
+     */
+    final void rebuildOffsetIndex() {
+        final NavigableMap<Long, T> offsets = createOffsetIndex();
+        for (final T header : index.values()) {
+            offsets.put(header.dataStartPtr(), header);
+        }
+        byOffset = offsets;
     }
 
     private void initialize() {
         headerSize = calculateSize(allocateHeader());
  //       dataStartOffset = headerSize * recordCount + INDEX_START_OFFSET;
+        dataMarkerEnd = prepareDataFile(fileDirector, dataStartOffset);
+    }
+
+    /*
+     * Force the data under an index about to be written, the index file must
+     * never be on disk pointing at data that is not. A closed file has been
+     * handed to the operating system already and is left as it is.
+     */
+    static void forceData(final DataStoreDirector fileDirector) throws IOException {
+        if (fileDirector.isOpen()) {
+            fileDirector.force();
+        }
+    }
+
+    /*
+     * Reserve the space in front of the data and mark where the data starts.
+     * The channel is closed again only if it was opened here. Returns the
+     * length of the marker, which is written again on every open so no record
+     * may be put over it.
+     */
+    static int prepareDataFile(final DataStoreDirector fileDirector, final long dataStartOffset) {
         try {
-            fileDirector.openChannel();
+            final boolean opened = !fileDirector.isOpen();
+            if (opened) {
+                fileDirector.openChannel();
+            }
             fileDirector.growFile(dataStartOffset - MAGIC);
-            fileDirector.writeFile(MAGIC, dataStartOffset);
-            System.out.println(fileDirector.getFileLength());
-            fileDirector.closeChannel();
+            final int marker = fileDirector.writeFile(MAGIC, dataStartOffset);
+            if (opened) {
+                fileDirector.closeChannel();
+            }
+            return marker;
         } catch (IOException cause) {
             Utilities.alertDialog(cause.toString(), " Error in initialize");
+            return 0;
         }
     }
 
     private void growFile() {
     }
 
+    /*
+     * Set the end of data pointer past everything the index refers to and
+     * everything already in the file, whichever is further. Called on open
+     * and whenever the index is read back in.
+     */
+    final void recoverEndOfData() {
+        long end = Math.max(0L, fileDirector.getFileLength() - dataStartOffset);
+        for (final T header : index.values()) {
+            end = Math.max(end, header.dataEndPtr());
+        }
+        endOfData.set(end);
+    }
+
+    /**
+     * Claim size bytes at the end of the data without a lock or a system
+     * call. Concurrent callers always receive disjoint regions.
+     *
+     * @param size
+     * @return The start of the claimed region, relative to the data start.
+     */
+    protected final long reserve(final int size) {
+        return endOfData.getAndAdd(size);
+    }
+
+    /**
+     * Claim size bytes for new data, from a hole left by a deleted or moved
+     * record if there is one big enough, otherwise at the end of the data.
+     *
+     * @param size
+     * @return The start of the claimed region, relative to the data start.
+     */
+    protected final long allocate(final int size) {
+        final long start = freeSpace.allocate(size);
+        return start != FreeSpaceManager.NO_SPACE ? start : reserve(size);
+    }
+
+    /**
+     * Give the space of a record no longer in the index back for reuse.
+     *
+     * @param header
+     */
+    protected final void release(final DataHeader header) {
+        freeSpace.release(header.dataStartPtr(), header.dataEndPtr() - header.dataStartPtr());
+        freeSpace.trimTail(endOfData);
+    }
+
+    /*
+     * Holes are not written out, find them again as the gaps between the
+     * records in the index, from the end of the start of data marker, which
+     * is written again on every open. A hole below the first record is found
+     * like any other.
+     */
+    final void rebuildFreeSpace() {
+        freeSpace.clear();
+        long end = dataMarkerEnd;
+        for (final DataHeader header : byOffset.values()) {
+            if (header.dataStartPtr() > end) {
+                freeSpace.release(end, header.dataStartPtr() - end);
+            }
+            end = Math.max(end, header.dataEndPtr());
+        }
+        if (end < endOfData.get()) {
+            freeSpace.release(end, endOfData.get() - end);
+        }
+        freeSpace.trimTail(endOfData);
+    }
+
+    /**
+     * @return The holes available for reuse.
+     */
+    public final FreeSpaceManager getFreeSpace() {
+        return freeSpace;
+    }
+
+    /**
+     * @return Percentage of the data that is holes.
+     */
+    public final int getFragmentation() {
+        final long end = endOfData.get();
+        return end <= 0 ? 0 : (int) (freeSpace.getFreeBytes() * 100 / end);
+    }
+
+    /**
+     * @param percent fragmentation at which compactIfFragmented compacts.
+     */
+    public final void setCompactionThreshold(final int percent) {
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("Compaction threshold must be a percentage: " + percent);
+        }
+        compactionThreshold = percent;
+    }
+
+    /**
+     * @return Every compaction so far, summed.
+     */
+    public final CompactionStats getCompactionStats() {
+        return compactionStats;
+    }
+
+    /**
+     * Compact if the holes have reached the compaction threshold.
+     *
+     * @return True if the data was compacted.
+     * @throws DataDirectorException
+     */
+    public final boolean compactIfFragmented() throws DataDirectorException {
+        if (freeSpace.getFreeBytes() == 0 || getFragmentation() < compactionThreshold) {
+            return false;
+        }
+        compact();
+        return true;
+    }
+
+    /**
+     * Slide every record down over the holes before it, in file order, cut
+     * the file back to the end of the data and write the index file. Each
+     * move writes the data to free space and journals the new header before
+     * the old space is released, so the index always points at a whole copy
+     * of every record. A record bigger than the hole before it is first
+     * moved out of the way, then into place.
+     * <p>
+     * Here, as for any change, nothing else may use the director meanwhile.
+     * <code>ConcurrentIndexedDataDirector</code> compacts while it is read
+     * and changed.
+     *
+     * @return What this compaction did.
+     * @throws DataDirectorException
+     */
+    public final CompactionStats compact() throws DataDirectorException {
+        synchronized (compactionLock) {
+            final long began = System.nanoTime();
+            final long fileLength = fileDirector.getFileLength();
+            long records = 0;
+            long bytes = 0;
+            for (final T header : new ArrayList<>(byOffset.values())) {
+                final int moved = compactRecord(header);
+                if (moved > 0) {
+                    records++;
+                    bytes += moved;
+                }
+            }
+            freeSpace.trimTail(endOfData);
+            truncateData();
+            try {
+                writeIndexHeaders();
+            } catch (IOException cause) {
+                throw new DataDirectorException(cause.toString());
+            }
+            final CompactionStats run = new CompactionStats(1, records, bytes,
+                    Math.max(0L, fileLength - fileDirector.getFileLength()), System.nanoTime() - began);
+            compactionStats = compactionStats.plus(run);
+            return run;
+        }
+    }
+
+    /**
+     * Compact one record, a subclass sharing the director between threads
+     * locks it and checks the header is still current first.
+     *
+     * @param header
+     * @return Bytes written moving the record, 0 if it stayed.
+     * @throws DataDirectorException
+     */
+    protected int compactRecord(final T header) throws DataDirectorException {
+        return slide(header);
+    }
+
+    /**
+     * Move a record down into the hole ending where it starts. With no hole
+     * before it, spare space at the end of its slot is released instead.
+     *
+     * @param header
+     * @return Bytes written moving the record.
+     * @throws DataDirectorException
+     */
+    protected final int slide(final T header) throws DataDirectorException {
+        final long start = header.dataStartPtr();
+        final int size = header.dataSize();
+        final long hole = freeSpace.holeBefore(start);
+        if (hole == FreeSpaceManager.NO_SPACE) {
+            if (header.dataEndPtr() > start + size) {
+                final T trimmed = moved(header, start);
+                index.put((K) trimmed.key(), trimmed);
+                putOffset(trimmed);
+                journalPut(trimmed);
+                headerMoved(header, trimmed);
+                freeSpace.release(start + size, header.dataEndPtr() - start - size);
+                freeSpace.trimTail(endOfData);
+            }
+            return 0;
+        }
+        final ByteBuffer bytes = copyBytes(header);
+        if (start - hole >= size) {
+            if (!freeSpace.claim(hole, size)) {
+                return 0;
+            }
+            moveTo(header, bytes, hole);
+            return size;
+        }
+        final T staged = moveTo(header, bytes, allocate(size));
+        if (staged.dataStartPtr() < hole || !freeSpace.claim(hole, size)) {
+            return size;
+        }
+        bytes.rewind();
+        moveTo(staged, bytes, hole);
+        return size * 2;
+    }
+
+    private T moved(final T header, final long start) {
+        final T moved = allocateHeader();
+        moved.setKey(header.key());
+        moved.setSize(header.dataSize());
+        moved.setDataStartPtr(start);
+        moved.setDataEndPtr(start + header.dataSize());
+        moved.setVersion(header.version());
+        return moved;
+    }
+
+    /*
+     * Write a record's bytes to space already claimed at target and swap in
+     * a header for them, then release the old space.
+     */
+    private T moveTo(final T header, final ByteBuffer bytes, final long target) throws DataDirectorException {
+        writeBytes(bytes, target);
+        final T moved = moved(header, target);
+        index.put((K) moved.key(), moved);
+        putOffset(moved);
+        journalPut(moved);
+        removeOffset(header);
+        headerMoved(header, moved);
+        release(header);
+        return moved;
+    }
+
+    /**
+     * Called when compaction replaces the header of a record it moved or
+     * trimmed, before the old space is released.
+     *
+     * @param from
+     * @param to
+     */
+    protected void headerMoved(final T from, final T to) {
+    }
+
+    /*
+     * A record's bytes in a buffer of their own, not a view of a mapped
+     * region the move may write over.
+     */
+    final ByteBuffer copyBytes(final DataHeader header) throws DataDirectorException {
+        try {
+            final ByteBuffer bytes = fileDirector.readBuffer(header.dataStartPtr() + dataStartOffset, header.dataSize());
+            final ByteBuffer copy = ByteBuffer.allocate(bytes.remaining());
+            copy.put(bytes).flip();
+            return copy;
+        } catch (IOException cause) {
+            throw new DataDirectorException(cause.toString());
+        }
+    }
+
+    /**
+     * Cut the file back to the end of the data, a subclass with writers on
+     * other threads holds them off meanwhile.
+     *
+     * @throws DataDirectorException
+     */
+    protected void truncateData() throws DataDirectorException {
+        try {
+            fileDirector.truncateFile(dataStartOffset + endOfData.get());
+        } catch (IOException cause) {
+            throw new DataDirectorException(cause.toString());
+        }
+    }
+
+    /**
+     * @return The end of the data claimed so far, relative to the start of
+     * the data portion of the file.
+     */
+    public final long getEndOfData() {
+        return endOfData.get();
+    }
+
     private void setNextIndexPosition() {
 
         if ((recordCount * headerSize) * DEFAULT_LOAD_FACTOR >= dataStartOffset) {
@@ -134,31 +580,267 @@ public class IndexedDataDirector<K, T extends DataHeader> implements DataDirecto
 
     }
 
+    /**
+     * Force the data, then write the index beside the data file as fixed
+     * width binary entries and empty the journal, which the index file now
+     * covers.
+     *
+     * @throws IOException
+     * @see IndexFile
+     */
     public void writeIndexHeaders() throws IOException {
-        try (final FileOutputStream fos = new FileOutputStream(indexFileName);
-                final BufferedOutputStream bos = new BufferedOutputStream(fos);
-                final ObjectOutputStream oos = new ObjectOutputStream(fos)) {
-            oos.writeObject(FILE_TYPE);
-            oos.writeInt(recordCount);
-            oos.writeLong(dataStartOffset);
-            //           for (T header : index.values()) {
-            index.values().stream().forEach((header) -> {
-                //               writeIndexEntry(header);
-                try {
-                    oos.writeObject(header);
-                } catch (IOException e) {
-                    System.out.println(e.toString());
-                }
-            });
-            oos.close();
-            bos.close();
-            fos.close();
-        } catch (IOException e) {
-            System.out.println(e.toString());
+        journal.checkpoint(() -> {
+            forceData(fileDirector);
+            IndexFile.write(indexFileName, index.values(), dataStartOffset, lastVersion.get());
+        });
+    }
+
+    /**
+     * Make every change so far durable. Changes are journaled as they are
+     * made, so this only forces the data file and then the journal to disk
+     * and costs the same however large the index is.
+     *
+     * @throws IOException
+     */
+    public void writeIndex() throws IOException {
+        forceAll();
+    }
+
+    /**
+     * Read the index as it was left, the last index file written plus the
+     * changes journaled since.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public void readIndex() throws IOException, ClassNotFoundException {
+        readIndexHeaders();
+    }
+
+    /**
+     * Changes journaled since the index file was last written.
+     *
+     * @return Number of journal records.
+     */
+    public final long getJournalSize() {
+        return journal.records();
+    }
+
+    /**
+     * Write the index file and empty the journal every interval changes, so
+     * the journal replayed when the store is opened stays short.
+     *
+     * @param interval
+     */
+    public final void setCheckpointInterval(final long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive: " + interval);
+        }
+        checkpointInterval = interval;
+    }
+
+    /**
+     * Choose when changes are forced to the storage device.
+     *
+     * @param policy NONE, PER_WRITE, or GROUP, which forces as soon as
+     * another force is not under way.
+     */
+    public final void setDurability(final GroupCommit.Policy policy) {
+        setDurability(policy, 0L, TimeUnit.MILLISECONDS, Long.MAX_VALUE);
+    }
+
+    /**
+     * Choose when changes are forced, for GROUP how long a force may wait
+     * for more changes to join it and how many bytes of changes end the wait.
+     *
+     * @param policy
+     * @param delay
+     * @param unit
+     * @param maxBytes
+     */
+    public final void setDurability(final GroupCommit.Policy policy, final long delay, final TimeUnit unit,
+            final long maxBytes) {
+        groupCommit = new GroupCommit(policy, delay, unit, maxBytes, this::forceAll);
+    }
+
+    /**
+     * @return The durability in force and the commits and forces it made.
+     */
+    public final GroupCommit getGroupCommit() {
+        return groupCommit;
+    }
+
+    /**
+     * Serve retrieveData from cache, or read every time if null.
+     *
+     * @param cache
+     */
+    public final void setCache(final ObjectCache<K> cache) {
+        this.cache = cache;
+    }
+
+    public final ObjectCache<K> getCache() {
+        return cache;
+    }
+
+    /*
+     * The cached record decoded from header, null if none.
+     */
+    protected final Object cached(final K key, final DataHeader header) {
+        final ObjectCache<K> current = cache;
+        return null == current ? null : current.get(key, header);
+    }
+
+    protected final void cache(final K key, final DataHeader header, final Object value) {
+        final ObjectCache<K> current = cache;
+        if (null != current) {
+            current.put(key, header, value);
+        }
+    }
+
+    protected final void invalidate(final K key) {
+        final ObjectCache<K> current = cache;
+        if (null != current) {
+            current.invalidate(key);
+        }
+    }
+
+    /*
+     * The data first, the journal must never survive pointing at data that
+     * did not.
+     */
+    private void forceAll() throws IOException {
+        fileDirector.force();
+        journal.force();
+    }
+
+    /**
+     * Record a new or changed header in the journal. Call after the index
+     * has been changed.
+     *
+     * @param header
+     * @throws DataDirectorException
+     */
+    protected final void journalPut(final T header) throws DataDirectorException {
+        try {
+            fileDirector.writeBack();
+            journal.put(header);
+            checkpointIfDue();
+            groupCommit.commit(header.dataSize());
+        } catch (IOException cause) {
+            throw new DataDirectorException(cause.toString());
+        }
+    }
+
+    /**
+     * Record a batch of new headers in the journal with one write, replayed
+     * all together or not at all.
+     *
+     * @param headers
+     * @throws DataDirectorException
+     */
+    protected final void journalPutAll(final Collection<T> headers) throws DataDirectorException {
+        try {
+            fileDirector.writeBack();
+            journal.putAll(headers);
+            checkpointIfDue();
+            long bytes = 0;
+            for (final T header : headers) {
+                bytes += header.dataSize();
+            }
+            groupCommit.commit((int) Math.min(Integer.MAX_VALUE, bytes));
+        } catch (IOException cause) {
+            throw new DataDirectorException(cause.toString());
+        }
+    }
+
+    /**
+     * Record the changes of a transaction in the journal with one write, so
+     * they are replayed all together or not at all. Call after the index has
+     * been changed.
+     *
+     * @param puts
+     * @param deletes
+     * @throws DataDirectorException
+     */
+    protected final void journalCommit(final Collection<T> puts, final Collection<K> deletes) throws DataDirectorException {
+        try {
+            fileDirector.writeBack();
+            journal.commit(puts, deletes);
+            checkpointIfDue();
+            long bytes = 0;
+            for (final T header : puts) {
+                bytes += header.dataSize();
+            }
+            groupCommit.commit((int) Math.min(Integer.MAX_VALUE, bytes));
+        } catch (IOException cause) {
+            throw new DataDirectorException(cause.toString());
+        }
+    }
+
+    /**
+     * Record a removed key in the journal. Call after the index has been
+     * changed.
+     *
+     * @param key
+     * @throws DataDirectorException
+     */
+    protected final void journalDelete(final K key) throws DataDirectorException {
+        try {
+            fileDirector.writeBack();
+            journal.delete(key);
+            checkpointIfDue();
+            groupCommit.commit(0);
+        } catch (IOException cause) {
+            throw new DataDirectorException(cause.toString());
+        }
+    }
+
+    private void checkpointIfDue() throws IOException {
+        if (journal.records() >= checkpointInterval) {
+            writeIndexHeaders();
         }
     }
 
-    final void readIndexHeaders() throws IOException, ClassNotFoundException {
+    /**
+     * Read the index written by writeIndexHeaders, replacing the one in
+     * memory.
+     *
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public final void readIndexHeaders() throws IOException, ClassNotFoundException {
+        long last = 0;
+        if (IndexFile.isIndexFile(indexFileName)) {
+            try (final IndexFile file = IndexFile.open(indexFileName)) {
+                dataStartOffset = file.dataStartOffset;
+                final Map<K, T> headers = createIndex(file.recordCount * 4 / 3 + 1);
+                file.readHeaders(headerFactory, (T header) -> headers.put((K) header.key(), header));
+                index = headers;
+                last = file.lastVersion;
+            }
+        } else if (new File(indexFileName).exists()) {
+            readSerializedIndexHeaders();
+            for (final T header : index.values()) {
+                last = Math.max(last, header.version());
+            }
+        } else {
+            index = createIndex(16);
+        }
+        journal.replay(index, headerFactory);
+        lastVersion.set(Math.max(last, journal.lastVersion));
+        recordCount = index.size();
+        rebuildOffsetIndex();
+        recoverEndOfData();
+        rebuildFreeSpace();
+    }
+
+    /*
+     * Indexes written before the fixed width format were a stream of
+     * serialized headers, still read so older stores open. The next
+     * writeIndexHeaders converts them.
+     */
+    private void readSerializedIndexHeaders() throws IOException, ClassNotFoundException {
         try (final FileInputStream fis = new FileInputStream(indexFileName);
                 final BufferedInputStream bis = new BufferedInputStream(fis);
                 final ObjectInputStream ois = new ObjectInputStream(bis)) {
@@ -166,7 +848,7 @@ public class IndexedDataDirector<K, T extends DataHeader> implements DataDirecto
             if (fileType.equals(FILE_TYPE)) {
                 recordCount = (Integer) ois.readInt();
                 dataStartOffset = (Long) ois.readLong();
-                index = new HashMap(recordCount);
+                index = createIndex(recordCount);
                 for (int i = 0; i < recordCount; i++) {
                     T recordHeader = (T) ois.readObject();
                     index.put((K) recordHeader.key(), recordHeader);
@@ -174,10 +856,6 @@ public class IndexedDataDirector<K, T extends DataHeader> implements DataDirecto
             } else {
                 Utilities.confirmDialog("This is not an JWOB file", "Exit on Error");
             }
-            ois.close();
-            bis.close();
-            fis.close();
-//            initialize();
         } catch (ClassNotFoundException c) {
             Utilities.alertDialog(c.toString(), "Error reading index");
         }
@@ -185,20 +863,28 @@ public class IndexedDataDirector<K, T extends DataHeader> implements DataDirecto
 
     /*
      * This method is used to locate the header record pointed to
-     * by data ptr.  The header will be used to during update and
-     * delete operations.
+     * by data ptr, the record starting at or before it whose data
+     * reaches it, or null if it falls in free space.
      */
     protected DataHeader locateHeader(final long dataPtr) {
-        DataHeader returnValue = null;
-        for (final K _key : index.keySet()) {
-            DataHeader header = index.get(_key);
-            Utilities.assertNotNull(header, "Header value null in method 'locateHeader'");
-            if (dataPtr >= header.dataStartPtr() && dataPtr <= header.dataEndPtr()) {
-                returnValue = header;
-                break;
-            }
+        final Map.Entry<Long, T> floor = byOffset.floorEntry(dataPtr);
+        if (null == floor || dataPtr > floor.getValue().dataEndPtr()) {
+            return null;
         }
-        return returnValue;
+        return floor.getValue();
+    }
+
+    /*
+     * The records either side of a header in the file, null at either end.
+     */
+    protected final T previousHeader(final DataHeader header) {
+        final Map.Entry<Long, T> lower = byOffset.lowerEntry(header.dataStartPtr());
+        return null == lower ? null : lower.getValue();
+    }
+
+    protected final T nextHeader(final DataHeader header) {
+        final Map.Entry<Long, T> higher = byOffset.higherEntry(header.dataStartPtr());
+        return null == higher ? null : higher.getValue();
     }
 
     /*
@@ -214,58 +900,428 @@ public class IndexedDataDirector<K, T extends DataHeader> implements DataDirecto
 
     @Override
     public void insertData(final K key, final Object data) throws DataDirectorException, IllegalArgumentException {
+        insertBytes(key, marshall(data));
+    }
+
+    /**
+     * Insert data already marshalled, the remaining bytes of the buffer are
+     * written as is.
+     *
+     * @param key
+     * @param bytes
+     * @throws DataDirectorException
+     * @throws IllegalArgumentException
+     */
+    protected void insertBytes(final K key, final ByteBuffer bytes) throws DataDirectorException, IllegalArgumentException {
+        insertBytes(key, bytes, nextVersion());
+    }
+
+    private void insertBytes(final K key, final ByteBuffer bytes, final long version) throws IllegalArgumentException {
         try {
             DataHeader header = index.get((K) key);
             Utilities.assertNull(header, " Key already exists.");
-            final long eof = fileDirector.getFileLength();
-            final int size = writeData(data, eof);
+            final int size = bytes.remaining();
+            final long eof = allocate(size);
+            writeBytes(bytes, eof);
             header = allocateHeader();
             header.setSize(size);
             header.setDataEndPtr(eof + (long) size);
             header.setDataStartPtr(eof);
             header.setKey(key);
+            header.setVersion(version);
             index.put((K) key, (T) header);
-            //           writeIndexEntry(header);
+            putOffset((T) header);
             recordCount++;
+            journalPut((T) header);
         } catch (final DataDirectorException | IllegalArgumentException cause) {
             throw new IllegalArgumentException(cause);
         }
     }
 
+    /**
+     * Insert every entry of records with one write to the data file. The
+     * records are marshalled one after another into a single buffer, which
+     * is given one region of the file and written with one call, then the
+     * headers are entered in the index and journaled together.
+     *
+     * @param records key to data.
+     * @throws DataDirectorException
+     * @throws IllegalArgumentException if a key is null, already in the
+     * index or in the batch twice, nothing is written then.
+     */
+    public void insertAll(final Map<K, ?> records) throws DataDirectorException, IllegalArgumentException {
+        if (records.isEmpty()) {
+            return;
+        }
+        insertAll(records, ByteBuffer.allocate(Math.min(records.size(), 4096) * BATCH_RECORD_SIZE));
+    }
+
+    /**
+     * Insert as insertAll does, marshalling into scratch, so a caller
+     * inserting batch after batch can keep one buffer for all of them.
+     *
+     * @param records key to data.
+     * @param scratch a heap buffer, its contents are overwritten.
+     * @return scratch, or the larger buffer that replaced it if the batch did
+     * not fit, cleared for the next batch.
+     * @throws DataDirectorException
+     * @throws IllegalArgumentException if a key is null, already in the
+     * index or in the batch twice, nothing is written then.
+     */
+    public ByteBuffer insertAll(final Map<K, ?> records, final ByteBuffer scratch)
+            throws DataDirectorException, IllegalArgumentException {
+        ByteBuffer batch = scratch;
+        batch.clear();
+        if (records.isEmpty()) {
+            return batch;
+        }
+        final Set<K> keys = new HashSet<>(records.size() << 1);
+        for (final K key : records.keySet()) {
+            Utilities.assertNotNull(key, "Key value is null in method 'insertAll'");
+            Utilities.assertNull(index.get(key), " Key already exists.");
+            if (!keys.add(key)) {
+                throw new IllegalArgumentException(" Key is in the batch twice.");
+            }
+        }
+        final int[] sizes = new int[records.size()];
+        int n = 0;
+        for (final Map.Entry<K, ?> record : records.entrySet()) {
+            final ByteBuffer bytes = marshall(record.getValue());
+            if (bytes.remaining() > batch.remaining()) {
+                final ByteBuffer grown = ByteBuffer.allocate(Math.max(batch.capacity() << 1, batch.position() + bytes.remaining()));
+                batch.flip();
+                batch = grown.put(batch);
+            }
+            sizes[n++] = bytes.remaining();
+            batch.put(bytes);
+        }
+        batch.flip();
+        long start = allocate(batch.remaining());
+        writeBytes(batch, start);
+        final List<T> headers = new ArrayList<>(n);
+        n = 0;
+        for (final K key : records.keySet()) {
+            final T header = allocateHeader();
+            header.setKey(key);
+            header.setSize(sizes[n]);
+            header.setDataStartPtr(start);
+            header.setDataEndPtr(start + sizes[n]);
+            header.setVersion(nextVersion());
+            index.put(key, header);
+            putOffset(header);
+            headers.add(header);
+            start += sizes[n++];
+        }
+        recordCount += n;
+        journalPutAll(headers);
+        batch.clear();
+        return batch;
+    }
+
     @Override
-    public final Object retrieveData(final K key) throws DataDirectorException {
+    public Object retrieveData(final K key) throws DataDirectorException {
         DataHeader header = index.get(key);
         Utilities.assertNotNull(header, "Key value is null in method 'retrieveData'");
-        return readData(header);
+        Object value = cached(key, header);
+        if (null == value) {
+            value = readData(header);
+            cache(key, header, value);
+        }
+        return value;
+    }
+
+    /**
+     * Read the data for many keys at once. The records are read in file
+     * order, records close together in a single read, and decoded in
+     * parallel, so a large batch costs a few sequential reads rather than a
+     * seek per record.
+     *
+     * @param keys
+     * @return The data for each key, in the order of keys.
+     * @throws DataDirectorException
+     * @throws IllegalArgumentException if a key is not in the index.
+     */
+    public List<Object> retrieveAll(final Collection<K> keys) throws DataDirectorException {
+        return Arrays.asList(decodeAll(readAll(headersFor(keys))));
+    }
+
+    /**
+     * Every record, in file order, as a stream of key and data. The file is
+     * read SCAN_CHUNK bytes at a time and each record decoded only when the
+     * stream reaches it, so a scan holds one chunk rather than the store and
+     * can walk a store larger than the heap. As a parallel stream the scan
+     * splits the file into ranges of offsets, one chunk read per range at a
+     * time.
+     * <p>
+     * Here nothing may change the store while the stream is used.
+     * ConcurrentIndexedDataDirector may be changed meanwhile, a record
+     * changed during the scan is then seen at most once, in either version,
+     * or not at all.
+     *
+     * @return The records as a lazily read stream.
+     */
+    public Stream<Map.Entry<K, Object>> scan() {
+        return StreamSupport.stream(new ScanSpliterator(0L, Long.MAX_VALUE), false);
+    }
+
+    /*
+     * Reads the records starting in [from, to) a chunk at a time. Records
+     * whose header is no longer in the index when reached are skipped.
+     */
+    final class ScanSpliterator implements Spliterator<Map.Entry<K, Object>> {
+
+        long from;
+        final long to;
+        Iterator<T> headers;
+        T pending;
+        final List<T> chunk = new ArrayList<>();
+        ByteBuffer bytes;
+        long chunkStart;
+        int next;
+
+        ScanSpliterator(final long from, final long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        /*
+         * Read the next run of records spanning at most SCAN_CHUNK bytes, or
+         * one record if it is bigger.
+         */
+        private boolean readChunk() {
+            if (null == headers) {
+                headers = byOffset.subMap(from, true, to, false).values().iterator();
+            }
+            chunk.clear();
+            next = 0;
+            if (null == pending) {
+                if (!headers.hasNext()) {
+                    return false;
+                }
+                pending = headers.next();
+            }
+            chunkStart = pending.dataStartPtr();
+            long end = chunkStart;
+            while (null != pending
+                    && (chunk.isEmpty() || pending.dataStartPtr() + pending.dataSize() - chunkStart <= SCAN_CHUNK)) {
+                chunk.add(pending);
+                end = Math.max(end, pending.dataStartPtr() + pending.dataSize());
+                pending = headers.hasNext() ? headers.next() : null;
+            }
+            try {
+                bytes = readStable(chunkStart, (int) (end - chunkStart));
+            } catch (DataDirectorException cause) {
+                throw new IllegalStateException(cause.toString(), cause);
+            }
+            return true;
+        }
+
+        @Override
+        public boolean tryAdvance(final Consumer<? super Map.Entry<K, Object>> action) {
+            while (true) {
+                if (next == chunk.size() && !readChunk()) {
+                    return false;
+                }
+                final T header = chunk.get(next++);
+                if (index.get((K) header.key()) != header) {
+                    continue;
+                }
+                final ByteBuffer record = bytes.duplicate();
+                record.position((int) (header.dataStartPtr() - chunkStart));
+                record.limit(record.position() + header.dataSize());
+                try {
+                    action.accept(new AbstractMap.SimpleImmutableEntry<>((K) header.key(), decode(record.slice())));
+                } catch (DataDirectorException cause) {
+                    throw new IllegalStateException(cause.toString(), cause);
+                }
+                return true;
+            }
+        }
+
+        /*
+         * Split off the lower half of the offsets not yet read.
+         */
+        @Override
+        public Spliterator<Map.Entry<K, Object>> trySplit() {
+            final long end = Math.min(to, endOfData.get());
+            if (null != headers || end - from < 2L * SCAN_CHUNK) {
+                return null;
+            }
+            final long middle = from + (end - from) / 2;
+            final ScanSpliterator lower = new ScanSpliterator(from, middle);
+            from = middle;
+            return lower;
+        }
+
+        @Override
+        public long estimateSize() {
+            final long end = Math.min(to, endOfData.get());
+            final long data = Math.max(1L, endOfData.get());
+            return end <= from ? 0 : Math.max(1L, (long) ((double) index.size() * (end - from) / data));
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.NONNULL;
+        }
+    }
+
+    protected final List<T> headersFor(final Collection<K> keys) {
+        final List<T> headers = new ArrayList<>(keys.size());
+        for (final K key : keys) {
+            final T header = index.get(key);
+            Utilities.assertNotNull(header, "Key value is null in method 'retrieveAll'");
+            headers.add(header);
+        }
+        return headers;
+    }
+
+    /**
+     * Read the bytes of every header, sorted by where they start. Records no
+     * more than COALESCE_GAP bytes apart are read together, up to
+     * MAX_COALESCED_READ bytes, and handed out as slices of that read.
+     *
+     * @param headers
+     * @return The bytes of each header, in the order of headers.
+     * @throws DataDirectorException
+     */
+    protected final ByteBuffer[] readAll(final List<T> headers) throws DataDirectorException {
+        final int count = headers.size();
+        final int[] order = byStart(headers);
+        final ByteBuffer[] bytes = new ByteBuffer[count];
+        int first = 0;
+        while (first < count) {
+            final long start = headers.get(order[first]).dataStartPtr();
+            long end = start + headers.get(order[first]).dataSize();
+            int last = first + 1;
+            while (last < count) {
+                final DataHeader next = headers.get(order[last]);
+                final long nextEnd = Math.max(end, next.dataStartPtr() + next.dataSize());
+                if (next.dataStartPtr() - end > COALESCE_GAP || nextEnd - start > MAX_COALESCED_READ) {
+                    break;
+                }
+                end = nextEnd;
+                last++;
+            }
+            final ByteBuffer run = readStable(start, (int) (end - start));
+            for (int i = first; i < last; i++) {
+                final DataHeader header = headers.get(order[i]);
+                final ByteBuffer slice = run.duplicate();
+                slice.position((int) (header.dataStartPtr() - start));
+                slice.limit(slice.position() + header.dataSize());
+                bytes[order[i]] = slice.slice();
+            }
+            first = last;
+        }
+        return bytes;
+    }
+
+    /*
+     * The positions in headers ordered by data start. Each start is packed
+     * above its position in a long so a primitive sort does the work, unless
+     * the starts are too large to leave room.
+     */
+    private static int[] byStart(final List<? extends DataHeader> headers) {
+        final int count = headers.size();
+        final int bits = 64 - Long.numberOfLeadingZeros(Math.max(1, count - 1));
+        long maxStart = 0;
+        for (final DataHeader header : headers) {
+            maxStart = Math.max(maxStart, header.dataStartPtr());
+        }
+        final int[] order = new int[count];
+        if (maxStart >>> (63 - bits) == 0) {
+            final long[] packed = new long[count];
+            for (int i = 0; i < count; i++) {
+                packed[i] = headers.get(i).dataStartPtr() << bits | i;
+            }
+            Arrays.sort(packed);
+            final long mask = (1L << bits) - 1;
+            for (int i = 0; i < count; i++) {
+                order[i] = (int) (packed[i] & mask);
+            }
+            return order;
+        }
+        final Integer[] boxed = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, (a, b) -> Long.compare(headers.get(a).dataStartPtr(), headers.get(b).dataStartPtr()));
+        for (int i = 0; i < count; i++) {
+            order[i] = boxed[i];
+        }
+        return order;
+    }
+
+    /**
+     * Decode each buffer, in parallel for a large batch. A null buffer gives
+     * a null result.
+     *
+     * @param bytes
+     * @return The decoded data, in the order of bytes.
+     * @throws DataDirectorException
+     */
+    protected final Object[] decodeAll(final ByteBuffer[] bytes) throws DataDirectorException {
+        final Object[] values = new Object[bytes.length];
+        final AtomicReference<DataDirectorException> failure = new AtomicReference<>();
+        final IntStream each = IntStream.range(0, bytes.length);
+        (bytes.length >= PARALLEL_DECODE && PARALLEL ? each.parallel() : each).forEach(i -> {
+            if (null != bytes[i] && null == failure.get()) {
+                try {
+                    values[i] = decode(bytes[i]);
+                } catch (DataDirectorException cause) {
+                    failure.compareAndSet(null, cause);
+                }
+            }
+        });
+        if (null != failure.get()) {
+            throw failure.get();
+        }
+        return values;
     }
 
     /*
-     * Incomplete.
+     * The bytes of size at start as a buffer no writer can change, a mapped
+     * slice is copied.
+     */
+    protected final ByteBuffer readStable(final long start, final int size) throws DataDirectorException {
+        try {
+            final ByteBuffer bytes = fileDirector.readBuffer(start + dataStartOffset, size);
+            if (fileDirector.getStorageMode() != DataStoreDirector.StorageMode.MAPPED) {
+                return bytes;
+            }
+            final ByteBuffer copy = ByteBuffer.allocate(bytes.remaining());
+            copy.put(bytes).flip();
+            return copy;
+        } catch (IOException cause) {
+            throw new DataDirectorException(cause.toString());
+        }
+    }
+
+    protected final Object decode(final ByteBuffer bytes) throws DataDirectorException {
+        try {
+            return fileDirector.decode(bytes);
+        } catch (IOException | ClassNotFoundException cause) {
+            throw new DataDirectorException(cause.toString());
+        }
+    }
+
+    /**
+     * Remove the record for key, its space goes to free space for the next
+     * insert or moved update that fits.
+     *
+     * @param key
+     * @throws DataDirectorException
      */
     @Override
     public void deleteData(final K key) throws DataDirectorException {
         final DataHeader deleteRecord = index.get(key);
         Utilities.assertNotNull(deleteRecord, "Key value is null in method 'deleteData'");
-        /*
-         * Is the record to be deleted pointing to the first record
-         * in the data portion of the file.  If so reclaim the space
-         * by moving the data starting position to end of the records
-         * block thus giving it to the index potion at the top of the file.
-         */
-        if (deleteRecord.dataStartPtr() == dataStartOffset) {
-            dataStartOffset = deleteRecord.dataEndPtr();
-        } else {
-            /*
-             * Locate the previous adjacent record and set its end ptr
-             * to point to the deleted records end ptr, effectively
-             * growing the previous records slot size by that length.
-             */
-            DataHeader previousRecord = locateHeader(deleteRecord.dataStartPtr() - 1);
-            Utilities.assertNotNull(previousRecord, " Previous record is null in 'deleteData'");
-            previousRecord.setDataEndPtr(deleteRecord.dataEndPtr());
-        }
+        invalidate(key);
         index.remove(key);
+        removeOffset((T) deleteRecord);
         recordCount--;
+        journalDelete(key);
+        release(deleteRecord);
     }
 
     /**
@@ -278,25 +1334,102 @@ public class IndexedDataDirector<K, T extends DataHeader> implements DataDirecto
     public void updateData(final K key, Object data) throws DataDirectorException {
         final DataHeader headerRecordForKey = index.get((K) key);
         Utilities.assertNotNull(headerRecordForKey, "Key value is null in method 'updateData'");
+        invalidate(key);
+        /*
+         * Marshall once, the same bytes decide whether the data fits and
+         * are what gets written.
+         */
+        final ByteBuffer bytes = marshall(data);
+        final int size = bytes.remaining();
         /*
          * If the updated data cannot fit into its current slot in the file
-         * then create a new header for it, set the key value, delete the old
-         * data and header information then call the insert method to set up
-         * the new header data and write the udpated data to the EOF.  
+         * then write it to a hole it fits or the EOF and replace the header
+         * with one journaled put, so a crash leaves either the old record or
+         * the new one. The old slot is only freed after, so the new data
+         * never lands in it.
          */
-        if (calculateSize(data) > headerRecordForKey.dataSize()) {
-            DataHeader header = allocateHeader();
+        final long version = nextVersion();
+        if (size > headerRecordForKey.dataEndPtr() - headerRecordForKey.dataStartPtr()) {
+            final long start = allocate(size);
+            writeBytes(bytes, start);
+            final T header = allocateHeader();
             header.setKey(key);
-            deleteData((K) key);
-            insertData(key, data);
+            header.setSize(size);
+            header.setDataStartPtr(start);
+            header.setDataEndPtr(start + size);
+            header.setVersion(version);
+            index.put(key, header);
+            removeOffset((T) headerRecordForKey);
+            putOffset(header);
+            journalCommit(Collections.singletonList(header), Collections.<K>emptyList());
+            release(headerRecordForKey);
         } else {
             /*
              * It does fit into its current slot, so write it.
              */
-            writeData(data, headerRecordForKey.dataStartPtr());
+            writeBytes(bytes, headerRecordForKey.dataStartPtr());
+            headerRecordForKey.setSize(size);
+            headerRecordForKey.setVersion(version);
+            journalPut((T) headerRecordForKey);
+        }
+    }
+
+    /**
+     * Update key only if its version is still expected, the version it had
+     * when the caller read it.
+     *
+     * @param key
+     * @param expected
+     * @param data
+     * @return The record's new version.
+     * @throws DataDirectorException
+     * @throws VersionConflictException if the record has been changed since,
+     * nothing is written then.
+     */
+    public long updateIfVersion(final K key, final long expected, final Object data) throws DataDirectorException {
+        final DataHeader header = index.get(key);
+        Utilities.assertNotNull(header, "Key value is null in method 'updateIfVersion'");
+        checkVersion(key, expected, header.version());
+        updateData(key, data);
+        return index.get(key).version();
+    }
+
+    protected static void checkVersion(final Object key, final long expected, final long actual)
+            throws VersionConflictException {
+        if (actual != expected) {
+            throw new VersionConflictException("Key " + key + " is at version " + actual + " not " + expected + ".",
+                    expected, actual);
         }
     }
 
+    /**
+     * @param key
+     * @return The record's version.
+     */
+    public long getVersion(final K key) {
+        final DataHeader header = index.get(key);
+        Utilities.assertNotNull(header, "Key value is null in method 'getVersion'");
+        return header.version();
+    }
+
+    /**
+     * Read a record together with its version, for a later updateIfVersion.
+     *
+     * @param key
+     * @return The data and the version it was read at.
+     * @throws DataDirectorException
+     */
+    public VersionedValue retrieveVersioned(final K key) throws DataDirectorException {
+        final DataHeader header = index.get(key);
+        Utilities.assertNotNull(header, "Key value is null in method 'retrieveVersioned'");
+        Object value = cached(key, header);
+        if (null == value) {
+            value = readData(header);
+            cache(key, header, value);
+        }
+        return new VersionedValue(value, header.version());
+    }
+
     protected final int writeData(final Object data, final long offset) throws DataDirectorException {
         int size = BAD_READ;
         try {
@@ -308,6 +1441,26 @@ public class IndexedDataDirector<K, T extends DataHeader> implements DataDirecto
         return size;
     }
 
+    protected final void writeBytes(final ByteBuffer bytes, final long offset) throws DataDirectorException {
+        try {
+            fileDirector.writeBuffer(bytes, offset + dataStartOffset);
+        } catch (IOException cause) {
+            throw new DataDirectorException(cause.toString());
+        }
+    }
+
+    /*
+     * The returned buffer belongs to the calling thread and is reused by
+     * the next marshall, write it before marshalling anything else.
+     */
+    protected final ByteBuffer marshall(final Object data) throws DataDirectorException {
+        final ByteBuffer bytes = fileDirector.encode(data);
+        if (null == bytes) {
+            throw new DataDirectorException("Unable to marshall " + data);
+        }
+        return bytes;
+    }
+
     protected Object readData(final DataHeader header) throws DataDirectorException {
         Object returnValue;
         try {
@@ -319,7 +1472,7 @@ public class IndexedDataDirector<K, T extends DataHeader> implements DataDirecto
         return returnValue;
     }
 
-    public final int getRecordCount() {
+    public int getRecordCount() {
         return recordCount;
     }
 
@@ -330,6 +1483,7 @@ public class IndexedDataDirector<K, T extends DataHeader> implements DataDirecto
     public void closeIndex() {
         try {
             writeIndexHeaders();
+            journal.close();
         } catch (IOException cause) {
             Logger.getLogger(getClass().getName()).log(Level.SEVERE, " ", cause.toString() + " writing index.");
         }
@@ -340,14 +1494,32 @@ public class IndexedDataDirector<K, T extends DataHeader> implements DataDirecto
     }
 
     public void deleteFile() {
+        final ObjectCache<K> current = cache;
+        if (null != current) {
+            current.clear();
+        }
         File f = new File(indexFileName);
         if (f.exists()) {
             f.delete();
         }
+        try {
+            journal.delete();
+        } catch (IOException cause) {
+            Logger.getLogger(getClass().getName()).log(Level.SEVERE, " ", cause.toString() + " deleting journal.");
+        }
     }
 
+    /**
+     * The size of the index when written out by writeIndexHeaders.
+     *
+     * @return The size in bytes.
+     */
     public final int getSizeOfIndex() {
-        sizeOfIndex = calculateSize(index);
+        try {
+            sizeOfIndex = (int) Math.min(Integer.MAX_VALUE, IndexFile.sizeOf(index.values()));
+        } catch (IOException cause) {
+            Utilities.alertDialog(cause.toString(), " Error sizing index");
+        }
         return sizeOfIndex;
     }
 
@@ -371,10 +1543,12 @@ public class IndexedDataDirector<K, T extends DataHeader> implements DataDirecto
         DataMarshaller<Person> marshaller = new ObjectDataMarshaller();
         DataStoreDirector dm;
         IndexedDataDirector<Integer, DataHeader> id;
-        int tot = 10;
+        int tot = 1000;
         Person[] people = new Person[tot];
         try {
-            dm = DataStoreDirector.createDataStoreDirector("Temp.jwob", marshaller);
+            final DataStoreDirector.StorageMode mode = args.length > 0
+                    ? DataStoreDirector.StorageMode.valueOf(args[0].toUpperCase()) : DataStoreDirector.StorageMode.CHANNEL;
+            dm = DataStoreDirector.createDataStoreDirector("Temp.jwob", marshaller, mode);
             id = new IndexedDataDirector(dm, new DiskRecordHeaderFactory());
             Utilities.Clock clock = Utility.getTimer();
             int i = 0;
@@ -412,6 +1586,45 @@ public class IndexedDataDirector<K, T extends DataHeader> implements DataDirecto
 
             dm.deleteFile();
             id.deleteFile();
+
+            final Map<Integer, Person> batch = new HashMap<>();
+            for (i = 0; i < tot; i++) {
+                batch.put(i, people[i]);
+            }
+            dm = DataStoreDirector.createDataStoreDirector("Temp.jwob", marshaller, mode);
+            id = new IndexedDataDirector(dm, new DiskRecordHeaderFactory());
+            dm.openChannel();
+            clock.startTime();
+            id.insertAll(batch);
+            System.out.println("\nTime for (" + tot + ") inserts with insertAll: " + clock.step() / 1000f + " seconds");
+
+            final List<Integer> keys = new ArrayList<>(batch.keySet());
+            Collections.shuffle(keys);
+            clock.startTime();
+            for (final Integer key : keys) {
+                id.retrieveData(key);
+            }
+            System.out.println("\nTime for (" + tot + ") reads: " + clock.step() / 1000f + " seconds");
+            clock.startTime();
+            id.retrieveAll(keys);
+            System.out.println("Time for (" + tot + ") reads with retrieveAll: " + clock.step() / 1000f + " seconds");
+            clock.startTime();
+            i = (int) id.scan().filter(record -> record.getValue() instanceof Person).count();
+            System.out.println("Time for (" + i + ") reads with scan: " + clock.step() / 1000f + " seconds");
+
+            clock.startTime();
+            for (i = 0; i < tot; i++) {
+                id.locateHeader(id.getHeader(i).dataStartPtr() + 1);
+            }
+            System.out.println("\nTime for (" + tot + ") locateHeader lookups: " + clock.step() / 1000f + " seconds");
+            clock.startTime();
+            for (i = 0; i < tot; i += 2) {
+                id.deleteData(i);
+            }
+            System.out.println("Time for (" + tot / 2 + ") deletes: " + clock.step() / 1000f + " seconds");
+            dm.closeChannel();
+            dm.deleteFile();
+            id.deleteFile();
         } catch (IOException | DataDirectorException | IllegalArgumentException | ClassNotFoundException e) {
             System.out.println(e.toString());
         }
@@ -452,34 +1665,38 @@ public class IndexedDataDirector<K, T extends DataHeader> implements DataDirecto
  */
 //Time for (1000) inserts: 3.898 ms
 /*
- RandomAccessFile memoryMappedFile = new RandomAccessFile("somefile.fil", "rw");
- //Mapping a file into memory
- MappedByteBuffer out = memoryMappedFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, count);
- //Writing into Memory Mapped File
- for (int i = 0; i < count; i++) {
- out.put((byte) 'A');
- }
- System.out.println("Writing to Memory Mapped File is completed");
- //reading from memory file in Java
- for (int i = 0; i < 10 ; i++) {
- System.out.print((char) out.get(i));
- }
- System.out.println("Reading from Memory Mapped File is completed");
-
- Read more: http://javarevisited.blogspot.com/2012/01/memorymapped-file-and-io-in-java.html#ixzz3iGyKqcnn
-
-
- FileInputStream f = new FileInputStream( name );
- FileChannel ch = f.getChannel( );
- byte[] barray = new byte[SIZE];
- ByteBuffer bb = ByteBuffer.wrap( barray );
- long checkSum = 0L;
- int nRead;
- while ( (nRead=ch.read( bb )) != -1 )
- {
- for ( int i=0; i<nRead; i++ )
- checkSum += barray[i];
- bb.clear( );
- }
+ With the journal, one insertData at a time, then one insertAll:
+ Time for (1000) inserts: 0.069 seconds
+ Time for (1000) inserts with insertAll: 0.019 seconds
 
- */
+ Time for (1000) inserts: 0.068 seconds
+ Time for (1000) inserts with insertAll: 0.023 seconds
+*/
+/*
+ With the headers ordered by data start, locateHeader on every record after
+ the insertAll, then deleting every other record:
+ Time for (1000) locateHeader lookups: 0.001 seconds
+ Time for (500) deletes: 0.005 seconds
+
+ Time for (1000) locateHeader lookups: 0.002 seconds
+ Time for (500) deletes: 0.008 seconds
+*/
+/*
+ Reading the insertAll batch back in a random order, one retrieveData at a
+ time, then all of it with one retrieveAll:
+ Time for (1000) reads: 0.024 seconds
+ Time for (1000) reads with retrieveAll: 0.021 seconds
+
+ Time for (1000) reads: 0.035 seconds
+ Time for (1000) reads with retrieveAll: 0.027 seconds
+*/
+/*
+ Then every record in file order with scan:
+ Time for (1000) reads: 0.031 seconds
+ Time for (1000) reads with retrieveAll: 0.026 seconds
+ Time for (1000) reads with scan: 0.024 seconds
+
+ Time for (1000) reads: 0.021 seconds
+ Time for (1000) reads with retrieveAll: 0.032 seconds
+ Time for (1000) reads with scan: 0.036 seconds
+*/
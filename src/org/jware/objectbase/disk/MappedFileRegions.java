@@ -0,0 +1,249 @@
+package org.jware.objectbase.disk;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import org.jware.objectbase.util.Utilities;
+
+/**
+ * File: MappedFileRegions.java Created On: 10/18/2026
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * Purpose: Maps a file into memory as a table of fixed size regions. Region n
+ * covers the bytes [n * regionSize, (n + 1) * regionSize) of the file and new
+ * regions are mapped as the file grows, so reading a record is a bounds check
+ * plus a slice of the region holding it rather than a system call.
+ * <p>
+ * Mapping a region past the end of the file extends the file on disk, so the
+ * class keeps its own logical length, the end of the last byte written. The
+ * file is truncated back to that length when the regions are closed, after
+ * they are unmapped, as a mapped file cannot be cut on every platform.
+ * <p>
+ * Thread safety: reads and writes use absolute positions on duplicates of the
+ * regions, so any number of threads may call slice and write at once as long
+ * as concurrent writes target disjoint ranges. Growing the region table and
+ * the logical length is synchronized, and the table is replaced rather than
+ * modified so readers never see a partly grown table. close must not race
+ * with reads or writes.
+ *
+ * @see DataStoreDirector
+ */
+public final class MappedFileRegions {
+
+    public static final int DEFAULT_REGION_SIZE = 1 << 24; // 16MB
+
+    final FileChannel channel;
+    final int regionSize;
+    volatile MappedByteBuffer[] regions;
+    volatile long length;
+
+    /**
+     * Map the file behind channel, which must have been opened read/write.
+     *
+     * @param channel
+     * @param regionSize size of a single mapped region in bytes.
+     * @throws IOException
+     */
+    public MappedFileRegions(final FileChannel channel, final int regionSize) throws IOException {
+        Utilities.assertNotNull(channel, "Invalid channel.");
+        if (regionSize <= 0) {
+            throw new IllegalArgumentException("Region size must be positive: " + regionSize);
+        }
+        this.channel = channel;
+        this.regionSize = regionSize;
+        this.regions = new MappedByteBuffer[0];
+        this.length = channel.size();
+        ensureCapacity(length);
+    }
+
+    /**
+     * @return The logical length of the file, end of the last byte written.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * @return The number of regions currently mapped.
+     */
+    public int regionCount() {
+        return regions.length;
+    }
+
+    /**
+     * Map enough regions to cover capacity bytes.
+     *
+     * @param capacity
+     * @throws IOException
+     */
+    public synchronized void ensureCapacity(final long capacity) throws IOException {
+        final int needed = (int) ((capacity + regionSize - 1) / regionSize);
+        if (needed > regions.length) {
+            final MappedByteBuffer[] grown = new MappedByteBuffer[needed];
+            System.arraycopy(regions, 0, grown, 0, regions.length);
+            for (int i = regions.length; i < needed; i++) {
+                grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * regionSize, regionSize);
+            }
+            regions = grown;
+        }
+    }
+
+    /**
+     * Copy the remaining bytes of source into the file at offset, mapping new
+     * regions as needed.
+     *
+     * @param source
+     * @param offset
+     * @return The number of bytes written.
+     * @throws IOException
+     */
+    public int write(final ByteBuffer source, final long offset) throws IOException {
+        final int size = source.remaining();
+        ensureCapacity(offset + size);
+        final MappedByteBuffer[] table = regions;
+        long position = offset;
+        while (source.hasRemaining()) {
+            final ByteBuffer region = table[(int) (position / regionSize)].duplicate();
+            final int into = (int) (position % regionSize);
+            final int count = Math.min(source.remaining(), regionSize - into);
+            final ByteBuffer piece = source.duplicate();
+            piece.limit(piece.position() + count);
+            ((ByteBuffer) region.position(into)).put(piece);
+            source.position(source.position() + count);
+            position += count;
+        }
+        extendLength(position);
+        return size;
+    }
+
+    private synchronized void extendLength(final long position) {
+        if (position > length) {
+            length = position;
+        }
+    }
+
+    /**
+     * Move the logical length back to length, the file is cut there when the
+     * regions are closed.
+     *
+     * @param length
+     */
+    public synchronized void truncate(final long length) {
+        if (length < this.length) {
+            this.length = length;
+        }
+    }
+
+    /**
+     * Return a read only view of size bytes at offset. When the bytes lie in a
+     * single region the view is a slice of that region and no data is copied,
+     * a record straddling two regions is copied into a heap buffer.
+     *
+     * @param offset
+     * @param size
+     * @return The bytes as a buffer positioned at zero.
+     * @throws IOException if the range lies past the end of the file.
+     */
+    public ByteBuffer slice(final long offset, final int size) throws IOException {
+        if (offset < 0 || size < 0 || offset + size > length) {
+            throw new EOFException("Read of " + size + " bytes at " + offset
+                    + " is past the end of the file at " + length);
+        }
+        final MappedByteBuffer[] table = regions;
+        final int first = (int) (offset / regionSize);
+        final int into = (int) (offset % regionSize);
+        if (into + size <= regionSize) {
+            final ByteBuffer region = table[first].asReadOnlyBuffer();
+            region.limit(into + size).position(into);
+            return region.slice();
+        }
+        final ByteBuffer copy = ByteBuffer.allocate(size);
+        long position = offset;
+        while (copy.hasRemaining()) {
+            final ByteBuffer region = table[(int) (position / regionSize)].asReadOnlyBuffer();
+            final int from = (int) (position % regionSize);
+            final int count = Math.min(copy.remaining(), regionSize - from);
+            region.limit(from + count).position(from);
+            copy.put(region);
+            position += count;
+        }
+        copy.flip();
+        return copy;
+    }
+
+    /**
+     * Flush the mapped regions to the storage device.
+     */
+    public void force() {
+        for (final MappedByteBuffer region : regions) {
+            region.force();
+        }
+    }
+
+    /**
+     * Flush the regions, unmap them and truncate the file to its logical
+     * length. The regions, and slices of them, must not be used once closed.
+     *
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        force();
+        final MappedByteBuffer[] mapped = regions;
+        regions = new MappedByteBuffer[0];
+        for (final MappedByteBuffer region : mapped) {
+            unmap(region);
+        }
+        if (channel.isOpen() && channel.size() > length) {
+            channel.truncate(length);
+        }
+    }
+
+    /*
+     * Release a mapping now rather than once the buffer is collected, the
+     * file cannot be truncated or deleted while it is mapped on Windows.
+     * Where the runtime offers no way to, the mapping is left to the
+     * collector.
+     */
+    static void unmap(final MappedByteBuffer buffer) {
+        try {
+            final Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+            try {
+                final Method invokeCleaner = unsafe.getMethod("invokeCleaner", ByteBuffer.class);
+                final Field instance = unsafe.getDeclaredField("theUnsafe");
+                instance.setAccessible(true);
+                invokeCleaner.invoke(instance.get(null), buffer);
+                return;
+            } catch (NoSuchMethodException beforeJava9) {
+            }
+            final Method cleaner = buffer.getClass().getMethod("cleaner");
+            cleaner.setAccessible(true);
+            final Object clean = cleaner.invoke(buffer);
+            if (null != clean) {
+                clean.getClass().getMethod("clean").invoke(clean);
+            }
+        } catch (ReflectiveOperationException | RuntimeException unavailable) {
+        }
+    }
+}
@@ -18,12 +18,12 @@
  * along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import org.jware.objectbase.core.DataMarshaller;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import org.jware.objectbase.core.BufferDataMarshaller;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import org.jware.objectbase.util.Utilities;
 
  
@@ -33,40 +33,37 @@ import org.jware.objectbase.util.Utilities;
  * @author J. Paul Jackson <jwareservices@gmail.com>
  *
  * Purpose: Convert Java objects from and to byte arrays by serialization.
- * Objects of this class will typically be used for a single shot serialization.
- * The size member is only guaranteed to be valid if no exceptions are thrown.
- * Objects passed in must either implement the Serializable or
+ * The marshaller holds no state between calls, the size of the serialized
+ * data is returned with it, so one instance may be shared by any number of
+ * threads. Objects passed in must either implement the Serializable or
  * Externalizable interface.
+ * <p>
+ * The object streams run directly over the caller's buffer, the byte array
+ * methods are the adapters inherited from BufferDataMarshaller.
  * 
- * @see DataMarshaller
+ * @see BufferDataMarshaller
  * @see Utilities
  * @param <T> The data type to be Marshalled.
  */
-public final class ObjectDataMarshaller<T> implements DataMarshaller<T> {
-
-    /* 
-     * Size of the current object, -1 if invalid. 
-     */
-    int size;
+public final class ObjectDataMarshaller<T> implements BufferDataMarshaller<T> {
 
     /**
      * Construct
      */
     public ObjectDataMarshaller() {
-        size = -1;
     }
 
     /**
-     * Read in bytes and de-serialize them into an object 
+     * Read in the bytes of source and de-serialize them into an object 
      * of type T
      * 
-     * @param bytes
+     * @param source
      * @return the data object of type T
      */
     @Override
-    public final T readData(final byte[] bytes) {
+    public final T readData(final ByteBuffer source) {
         Object data = null;
-        try (final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+        try (final ObjectInputStream ois = new ObjectInputStream(new ByteBufferStreams.Input(source))) {
             data = ois.readObject();
         } catch (final IOException | ClassNotFoundException cause) {
             Utilities.alertDialog(cause.toString(), " Marshaller read");
@@ -75,33 +72,23 @@ public final class ObjectDataMarshaller<T> implements DataMarshaller<T> {
     }
 
     /**
-     * Convert data of type T into a byte array.
+     * Serialize data of type T into target.
      * 
      * @param data
-     * @return the serialized data in bytes
+     * @param target
+     * @return the number of bytes written, -1 on error
+     * @throws BufferOverflowException if target is too small.
      */
     @Override
-    public final byte[] writeData(final T data) {
-        byte[] bytes = null;
-        try (final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                final ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+    public final int writeData(final T data, final ByteBuffer target) throws BufferOverflowException {
+        final int start = target.position();
+        try (final ObjectOutputStream oos = new ObjectOutputStream(new ByteBufferStreams.Output(target))) {
             oos.writeObject(data);
-            bytes = baos.toByteArray();
-            size = bytes.length;
         } catch (IOException cause) {
             Utilities.alertDialog(cause.toString(), " Marshaller write");
+            return -1;
         }
-        return bytes;
-    }
-
-    /**
-     * Return the size of the current length of the bytes being serialized.
-     * 
-     * @return length of byte array.
-     */
-    @Override
-    public final int getDataSize() {
-        return size;
+        return target.position() - start;
     }
     
     
@@ -113,7 +100,7 @@ public final class ObjectDataMarshaller<T> implements DataMarshaller<T> {
                 
         byte[] bytes = dm.writeData("Hello, World");
         
-        int size = dm.getDataSize();
+        int size = bytes.length;
         
         String str = dm.readData(bytes);
         
@@ -122,4 +109,4 @@ public final class ObjectDataMarshaller<T> implements DataMarshaller<T> {
         System.out.println("Size: " + size );
     }
   }
- 
\ No newline at end of file
+ 
\ No newline at end of file
@@ -0,0 +1,358 @@
+package org.jware.objectbase.disk;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+import org.jware.objectbase.util.Utilities;
+import static org.jware.objectbase.util.Utilities.Utility;
+
+/**
+ * File: OffHeapLongIndex.java Created On: 10/18/2026
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * Purpose: An open addressing hash table from a long key to the location of
+ * its record, kept in direct buffers outside the Java heap. Each slot is 32
+ * packed bytes:
+ * <pre>
+ *   key long | start long | size int | capacity int | record version long
+ * </pre>
+ * where capacity is the length of the space the record occupies, at least
+ * size. There are no objects per entry, so the table costs the garbage
+ * collector nothing however many records it holds.
+ * <p>
+ * Collisions are resolved by linear probing and removal shifts the following
+ * entries back, so there are no tombstones. The table is split into segments
+ * of SEGMENT_SLOTS slots so it may grow past the 2GB limit of a single
+ * buffer. Long.MIN_VALUE marks an empty slot and cannot be used as a key.
+ * <p>
+ * Thread safety: none, callers serialize changes. Lookups may run together
+ * while nothing is changing the table.
+ *
+ * @see PrimitiveIndexedDataDirector
+ */
+public final class OffHeapLongIndex {
+
+    /**
+     * Called for every entry by forEach.
+     */
+    public interface EntryConsumer {
+
+        void accept(long key, long start, int size, int capacity, long version);
+    }
+
+    public static final long EMPTY = Long.MIN_VALUE;
+    public static final int NOT_FOUND = -1;
+
+    static final int SLOT_SIZE = 32;
+    static final int START = 8;
+    static final int SIZE = 16;
+    static final int CAPACITY = 20;
+    static final int VERSION = 24;
+    static final int SEGMENT_SHIFT = 20;
+    static final int SEGMENT_SLOTS = 1 << SEGMENT_SHIFT;
+    static final int MINIMUM_SLOTS = 16;
+    static final float LOAD_FACTOR = 0.75f;
+
+    ByteBuffer[] segments;
+    long mask;
+    long threshold;
+    long count;
+
+    /**
+     * @param expected number of entries to size the table for.
+     */
+    public OffHeapLongIndex(final long expected) {
+        long slots = MINIMUM_SLOTS;
+        while (slots * LOAD_FACTOR < expected) {
+            slots <<= 1;
+        }
+        allocate(slots);
+    }
+
+    private void allocate(final long slots) {
+        final int segmentSlots = (int) Math.min(slots, SEGMENT_SLOTS);
+        segments = new ByteBuffer[(int) (slots / segmentSlots)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = ByteBuffer.allocateDirect(segmentSlots * SLOT_SIZE).order(ByteOrder.nativeOrder());
+            for (int slot = 0; slot < segmentSlots; slot++) {
+                segments[i].putLong(slot * SLOT_SIZE, EMPTY);
+            }
+        }
+        mask = slots - 1;
+        threshold = (long) (slots * LOAD_FACTOR);
+        count = 0;
+    }
+
+    /*
+     * Spread the key bits, keys are often sequential ids.
+     */
+    static long hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+
+    private ByteBuffer segment(final long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)];
+    }
+
+    private static int offset(final long slot) {
+        return (int) (slot & (SEGMENT_SLOTS - 1)) * SLOT_SIZE;
+    }
+
+    private long keyAt(final long slot) {
+        return segment(slot).getLong(offset(slot));
+    }
+
+    /**
+     * @param key
+     * @return The slot holding key, or NOT_FOUND.
+     */
+    public long find(final long key) {
+        for (long slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+            final long found = keyAt(slot);
+            if (found == key) {
+                return slot;
+            }
+            if (found == EMPTY) {
+                return NOT_FOUND;
+            }
+        }
+    }
+
+    public boolean containsKey(final long key) {
+        return find(key) != NOT_FOUND;
+    }
+
+    public long start(final long slot) {
+        return segment(slot).getLong(offset(slot) + START);
+    }
+
+    public int size(final long slot) {
+        return segment(slot).getInt(offset(slot) + SIZE);
+    }
+
+    public int capacity(final long slot) {
+        return segment(slot).getInt(offset(slot) + CAPACITY);
+    }
+
+    public void setSize(final long slot, final int size) {
+        segment(slot).putInt(offset(slot) + SIZE, size);
+    }
+
+    public long version(final long slot) {
+        return segment(slot).getLong(offset(slot) + VERSION);
+    }
+
+    public void setVersion(final long slot, final long version) {
+        segment(slot).putLong(offset(slot) + VERSION, version);
+    }
+
+    /**
+     * Add key or replace its entry.
+     *
+     * @param key
+     * @param start
+     * @param size
+     * @param capacity
+     * @param version the record version.
+     */
+    public void put(final long key, final long start, final int size, final int capacity, final long version) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Key " + EMPTY + " is reserved.");
+        }
+        if (count >= threshold) {
+            grow();
+        }
+        long slot = hash(key) & mask;
+        long found;
+        while ((found = keyAt(slot)) != EMPTY && found != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (found == EMPTY) {
+            count++;
+        }
+        final ByteBuffer segment = segment(slot);
+        final int offset = offset(slot);
+        segment.putLong(offset, key);
+        segment.putLong(offset + START, start);
+        segment.putInt(offset + SIZE, size);
+        segment.putInt(offset + CAPACITY, capacity);
+        segment.putLong(offset + VERSION, version);
+    }
+
+    /**
+     * @param key
+     * @return True if key was in the index.
+     */
+    public boolean remove(final long key) {
+        long slot = find(key);
+        if (slot == NOT_FOUND) {
+            return false;
+        }
+        /*
+         * Move back any following entry whose home slot is at or before the
+         * hole, so every entry stays reachable from its home slot.
+         */
+        for (long next = (slot + 1) & mask;; next = (next + 1) & mask) {
+            final long key2 = keyAt(next);
+            if (key2 == EMPTY) {
+                break;
+            }
+            final long home = hash(key2) & mask;
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                copy(next, slot);
+                slot = next;
+            }
+        }
+        segment(slot).putLong(offset(slot), EMPTY);
+        count--;
+        return true;
+    }
+
+    private void copy(final long from, final long to) {
+        final ByteBuffer source = segment(from);
+        final ByteBuffer target = segment(to);
+        final int f = offset(from);
+        final int t = offset(to);
+        target.putLong(t, source.getLong(f));
+        target.putLong(t + START, source.getLong(f + START));
+        target.putLong(t + SIZE, source.getLong(f + SIZE));
+        target.putLong(t + VERSION, source.getLong(f + VERSION));
+    }
+
+    private void grow() {
+        final ByteBuffer[] old = segments;
+        final long oldCount = count;
+        allocate((mask + 1) << 1);
+        for (final ByteBuffer segment : old) {
+            for (int offset = 0; offset < segment.capacity(); offset += SLOT_SIZE) {
+                final long key = segment.getLong(offset);
+                if (key != EMPTY) {
+                    put(key, segment.getLong(offset + START), segment.getInt(offset + SIZE),
+                            segment.getInt(offset + CAPACITY), segment.getLong(offset + VERSION));
+                }
+            }
+        }
+        assert count == oldCount;
+    }
+
+    /**
+     * Visit every entry, in no particular order.
+     *
+     * @param consumer
+     */
+    public void forEach(final EntryConsumer consumer) {
+        for (final ByteBuffer segment : segments) {
+            for (int offset = 0; offset < segment.capacity(); offset += SLOT_SIZE) {
+                final long key = segment.getLong(offset);
+                if (key != EMPTY) {
+                    consumer.accept(key, segment.getLong(offset + START), segment.getInt(offset + SIZE),
+                            segment.getInt(offset + CAPACITY), segment.getLong(offset + VERSION));
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        for (final ByteBuffer segment : segments) {
+            for (int offset = 0; offset < segment.capacity(); offset += SLOT_SIZE) {
+                segment.putLong(offset, EMPTY);
+            }
+        }
+        count = 0;
+    }
+
+    /**
+     * @return Number of entries.
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return Bytes of direct memory held by the table.
+     */
+    public long memoryUsed() {
+        return (mask + 1) * SLOT_SIZE;
+    }
+
+    private static long heapUsed() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+    }
+
+    /*
+     * Heap and lookup cost of the header map against the packed table for a
+     * few million integer keys.
+     */
+    public static void main(String[] args) {
+        final int tot = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+        Utilities.Clock clock = Utility.getTimer();
+
+        long before = heapUsed();
+        Map<Integer, DiskRecordHeader> map = new HashMap<>();
+        for (int i = 0; i < tot; i++) {
+            map.put(i, new DiskRecordHeader<>(i, 150, i * 150L, i * 150L + 150));
+        }
+        long heap = heapUsed() - before;
+        clock.startTime();
+        long sum = 0;
+        for (int i = 0; i < tot; i++) {
+            sum += map.get(i).dataStartPtr();
+        }
+        System.out.println("\nHeader map (" + tot + ") entries: " + heap / tot + " heap bytes per entry, lookups "
+                + clock.step() / 1000f + " seconds " + (sum > 0 ? "" : "!"));
+        map = null;
+
+        before = heapUsed();
+        OffHeapLongIndex index = new OffHeapLongIndex(tot);
+        for (int i = 0; i < tot; i++) {
+            index.put(i, i * 150L, 150, 150, 1L);
+        }
+        heap = heapUsed() - before;
+        clock.startTime();
+        sum = 0;
+        for (int i = 0; i < tot; i++) {
+            sum += index.start(index.find(i));
+        }
+        System.out.println("Off heap (" + index.count() + ") entries: " + heap / tot + " heap bytes per entry, "
+                + index.memoryUsed() / tot + " direct bytes per entry, lookups " + clock.step() / 1000f
+                + " seconds " + (sum > 0 ? "" : "!"));
+    }
+}
+
+/*
+ Header map (5000000) entries: 150 heap bytes per entry, lookups 0.092 seconds
+ Off heap (5000000) entries: 0 heap bytes per entry, 40 direct bytes per entry, lookups 0.309 seconds
+
+ Header map (5000000) entries: 150 heap bytes per entry, lookups 0.091 seconds
+ Off heap (5000000) entries: 0 heap bytes per entry, 40 direct bytes per entry, lookups 0.322 seconds
+
+ With a record version in each slot:
+ Header map (5000000) entries: 158 heap bytes per entry, lookups 0.09 seconds
+ Off heap (5000000) entries: 0 heap bytes per entry, 53 direct bytes per entry, lookups 0.286 seconds
+*/
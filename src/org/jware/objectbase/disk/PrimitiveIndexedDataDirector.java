@@ -0,0 +1,478 @@
+package org.jware.objectbase.disk;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import objectbase.Person;
+import objectbase.PhoneNumber;
+import org.jware.objectbase.core.DataDirector;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.core.DataMarshaller;
+import org.jware.objectbase.exception.DataDirectorException;
+import org.jware.objectbase.util.Utilities;
+import static org.jware.objectbase.util.Utilities.Utility;
+
+/**
+ * File: PrimitiveIndexedDataDirector.java Created On: 10/18/2026
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * Purpose: An indexed director for Integer or Long keys that keeps its index
+ * in an <code>OffHeapLongIndex</code> rather than a map of header objects.
+ * An entry costs 32 bytes of direct memory and nothing on the heap, so
+ * tens of millions of records need neither a large heap nor long collections.
+ * <p>
+ * The data file, the index file and the journal have the same layout as
+ * those of <code>IndexedDataDirector</code>, and records are versioned from
+ * the same store-wide counter, so a store written by one may be opened by
+ * the other. Every insert, update and delete is journaled as it is made,
+ * after its data has been handed to the operating system, so a change
+ * survives the process, and writeIndexHeaders checkpoints the journal every
+ * checkpointInterval changes. Nothing is forced until writeIndex.
+ * <p>
+ * The space of deleted records and of updates that outgrew their slot goes
+ * to a <code>FreeSpaceManager</code> and is reused by later writes. The holes
+ * are found again as the gaps between the records when the index is read.
+ * Thread safety is the same too: any number of readers while no thread is
+ * changing the store, changes serialized by the caller.
+ *
+ * @param <K> Integer or Long.
+ * @see IndexedDataDirector
+ * @see OffHeapLongIndex
+ */
+public class PrimitiveIndexedDataDirector<K extends Number> implements DataDirector<K> {
+
+    static final int DEFAULT_EXPECTED_RECORDS = 1024;
+
+    final DataStoreDirector fileDirector;
+    final Class<K> keyClass;
+    final String indexFileName;
+    final IndexJournal journal;
+    final AtomicLong endOfData = new AtomicLong();
+    final AtomicLong lastVersion = new AtomicLong();
+    final FreeSpaceManager freeSpace = new FreeSpaceManager();
+    long checkpointInterval = IndexedDataDirector.DEFAULT_CHECKPOINT_INTERVAL;
+    final long dataMarkerEnd;
+    long dataStartOffset;
+    OffHeapLongIndex index;
+
+    /**
+     * @param fileDirector
+     * @param keyClass Integer.class or Long.class.
+     */
+    public PrimitiveIndexedDataDirector(final DataStoreDirector fileDirector, final Class<K> keyClass) {
+        this(fileDirector, keyClass, DEFAULT_EXPECTED_RECORDS);
+    }
+
+    /**
+     * @param fileDirector
+     * @param keyClass Integer.class or Long.class.
+     * @param expectedRecords number of records to size the index for.
+     */
+    public PrimitiveIndexedDataDirector(final DataStoreDirector fileDirector, final Class<K> keyClass,
+            final long expectedRecords) {
+        Utilities.assertNotNull(fileDirector, "Invalid file director.");
+        if (keyClass != Integer.class && keyClass != Long.class) {
+            throw new IllegalArgumentException("Keys must be Integer or Long: " + keyClass);
+        }
+        this.fileDirector = fileDirector;
+        this.keyClass = keyClass;
+        this.indexFileName = IndexedDataDirector.indexFileNameFor(fileDirector.getFilePath());
+        this.journal = new IndexJournal(indexFileName);
+        this.dataStartOffset = 1024;
+        this.index = new OffHeapLongIndex(expectedRecords);
+        this.dataMarkerEnd = IndexedDataDirector.prepareDataFile(fileDirector, dataStartOffset);
+        recoverEndOfData();
+    }
+
+    private long keyOf(final K key) {
+        Utilities.assertNotNull(key, "Key value is null.");
+        return key.longValue();
+    }
+
+    private long slotFor(final K key, final String method) {
+        final long slot = index.find(keyOf(key));
+        if (slot == OffHeapLongIndex.NOT_FOUND) {
+            throw new IllegalArgumentException("Key value is null in method '" + method + "'");
+        }
+        return slot;
+    }
+
+    final void recoverEndOfData() {
+        final long[] end = {Math.max(0L, fileDirector.getFileLength() - dataStartOffset)};
+        index.forEach((key, start, size, capacity, version) -> end[0] = Math.max(end[0], start + capacity));
+        endOfData.set(end[0]);
+    }
+
+    /*
+     * Holes are not written out, find them again as the gaps between the
+     * records, after the start of data marker. The records do not overlap, so
+     * the i-th smallest start and the i-th smallest end belong to the same
+     * record and sorting each on its own is enough.
+     */
+    final void rebuildFreeSpace() {
+        freeSpace.clear();
+        final int count = (int) index.count();
+        final long[] starts = new long[count];
+        final long[] ends = new long[count];
+        final int[] next = {0};
+        index.forEach((key, start, size, capacity, version) -> {
+            starts[next[0]] = start;
+            ends[next[0]++] = start + capacity;
+        });
+        Arrays.sort(starts);
+        Arrays.sort(ends);
+        long end = dataMarkerEnd;
+        for (int i = 0; i < count; i++) {
+            if (starts[i] > end) {
+                freeSpace.release(end, starts[i] - end);
+            }
+            end = ends[i];
+        }
+        if (end < endOfData.get()) {
+            freeSpace.release(end, endOfData.get() - end);
+        }
+        freeSpace.trimTail(endOfData);
+    }
+
+    /*
+     * size bytes from a hole that fits, otherwise at the end of the data.
+     */
+    private long allocate(final int size) {
+        final long start = freeSpace.allocate(size);
+        return start != FreeSpaceManager.NO_SPACE ? start : endOfData.getAndAdd(size);
+    }
+
+    private void release(final long start, final int capacity) {
+        freeSpace.release(start, capacity);
+        freeSpace.trimTail(endOfData);
+    }
+
+    /*
+     * Journal the entry at slot. The data is handed to the operating system
+     * first so the journal never outlives the process pointing at data that
+     * did not.
+     */
+    private void journalPut(final K key, final long slot) throws DataDirectorException {
+        final long start = index.start(slot);
+        final DataHeader header = new DiskRecordHeader<>(key, index.size(slot), start, start + index.capacity(slot));
+        header.setVersion(index.version(slot));
+        try {
+            fileDirector.writeBack();
+            journal.put(header);
+            checkpointIfDue();
+        } catch (IOException cause) {
+            throw new DataDirectorException(cause.toString());
+        }
+    }
+
+    private void journalDelete(final K key) throws DataDirectorException {
+        try {
+            journal.delete(key);
+            checkpointIfDue();
+        } catch (IOException cause) {
+            throw new DataDirectorException(cause.toString());
+        }
+    }
+
+    private void checkpointIfDue() throws IOException {
+        if (journal.records() >= checkpointInterval) {
+            writeIndexHeaders();
+        }
+    }
+
+    /**
+     * Write the index file and empty the journal every interval changes.
+     *
+     * @param interval
+     */
+    public final void setCheckpointInterval(final long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive: " + interval);
+        }
+        checkpointInterval = interval;
+    }
+
+    private ByteBuffer marshall(final Object data) throws DataDirectorException {
+        final ByteBuffer bytes = fileDirector.encode(data);
+        if (null == bytes) {
+            throw new DataDirectorException("Unable to marshall " + data);
+        }
+        return bytes;
+    }
+
+    private void writeBytes(final ByteBuffer bytes, final long offset) throws DataDirectorException {
+        try {
+            fileDirector.writeBuffer(bytes, offset + dataStartOffset);
+        } catch (IOException cause) {
+            throw new DataDirectorException(cause.toString());
+        }
+    }
+
+    @Override
+    public void insertData(final K key, final Object data) throws DataDirectorException {
+        final long primitive = keyOf(key);
+        if (index.containsKey(primitive)) {
+            throw new IllegalArgumentException(" Key already exists.");
+        }
+        final ByteBuffer bytes = marshall(data);
+        final int size = bytes.remaining();
+        final long start = allocate(size);
+        writeBytes(bytes, start);
+        index.put(primitive, start, size, size, lastVersion.incrementAndGet());
+        journalPut(key, index.find(primitive));
+    }
+
+    @Override
+    public Object retrieveData(final K key) throws DataDirectorException {
+        final long slot = slotFor(key, "retrieveData");
+        try {
+            return fileDirector.readFile(index.start(slot) + dataStartOffset, index.size(slot));
+        } catch (IOException | ClassNotFoundException cause) {
+            throw new DataDirectorException(cause.toString());
+        }
+    }
+
+    /**
+     * Data that still fits the space of the record is written in place,
+     * otherwise it is written to a hole it fits or the end of the data and
+     * the old space freed once the new entry is journaled.
+     *
+     * @param key
+     * @param data
+     * @throws DataDirectorException
+     */
+    @Override
+    public void updateData(final K key, final Object data) throws DataDirectorException {
+        final long slot = slotFor(key, "updateData");
+        final ByteBuffer bytes = marshall(data);
+        final int size = bytes.remaining();
+        if (size <= index.capacity(slot)) {
+            writeBytes(bytes, index.start(slot));
+            index.setSize(slot, size);
+            index.setVersion(slot, lastVersion.incrementAndGet());
+            journalPut(key, slot);
+        } else {
+            final long oldStart = index.start(slot);
+            final int oldCapacity = index.capacity(slot);
+            final long start = allocate(size);
+            writeBytes(bytes, start);
+            index.put(keyOf(key), start, size, size, lastVersion.incrementAndGet());
+            journalPut(key, index.find(keyOf(key)));
+            release(oldStart, oldCapacity);
+        }
+    }
+
+    /**
+     * Remove the record for key, its space goes to free space.
+     *
+     * @param key
+     * @throws DataDirectorException
+     */
+    @Override
+    public void deleteData(final K key) throws DataDirectorException {
+        final long slot = slotFor(key, "deleteData");
+        final long start = index.start(slot);
+        final int capacity = index.capacity(slot);
+        index.remove(keyOf(key));
+        journalDelete(key);
+        release(start, capacity);
+    }
+
+    public boolean containsKey(final K key) {
+        return index.containsKey(keyOf(key));
+    }
+
+    /**
+     * @param key
+     * @return A header describing the record for key, or null. Changing it
+     * does not change the index.
+     */
+    public DataHeader getHeader(final K key) {
+        final long slot = index.find(keyOf(key));
+        if (slot == OffHeapLongIndex.NOT_FOUND) {
+            return null;
+        }
+        final long start = index.start(slot);
+        final DataHeader header = new DiskRecordHeader<>(key, index.size(slot), start, start + index.capacity(slot));
+        header.setVersion(index.version(slot));
+        return header;
+    }
+
+    public long getRecordCount() {
+        return index.count();
+    }
+
+    public final long getEndOfData() {
+        return endOfData.get();
+    }
+
+    /**
+     * @return The holes available for reuse.
+     */
+    public final FreeSpaceManager getFreeSpace() {
+        return freeSpace;
+    }
+
+    /**
+     * Make every change so far durable, forcing the data file and then the
+     * journal.
+     *
+     * @throws IOException
+     */
+    public void writeIndex() throws IOException {
+        IndexedDataDirector.forceData(fileDirector);
+        journal.force();
+    }
+
+    /**
+     * @return Bytes of direct memory held by the index.
+     */
+    public long getIndexMemory() {
+        return index.memoryUsed();
+    }
+
+    /**
+     * Force the data, write the index file and empty the journal, which it
+     * now covers.
+     *
+     * @throws IOException
+     */
+    public void writeIndexHeaders() throws IOException {
+        journal.checkpoint(() -> {
+            IndexedDataDirector.forceData(fileDirector);
+            IndexFile.write(indexFileName, index, keyClass == Integer.class ? IndexFile.KEY_INT : IndexFile.KEY_LONG,
+                    dataStartOffset, lastVersion.get());
+        });
+    }
+
+    /**
+     * Read the index file, if one has been written, then the changes
+     * journaled since, by this class or an <code>IndexedDataDirector</code>.
+     *
+     * @throws IOException
+     */
+    public void readIndexHeaders() throws IOException {
+        final OffHeapLongIndex read;
+        long last = 0;
+        if (IndexFile.isIndexFile(indexFileName)) {
+            try (final IndexFile file = IndexFile.open(indexFileName)) {
+                read = new OffHeapLongIndex(file.recordCount);
+                file.readEntries(read);
+                dataStartOffset = file.dataStartOffset;
+                last = file.lastVersion;
+            }
+        } else {
+            read = new OffHeapLongIndex(DEFAULT_EXPECTED_RECORDS);
+        }
+        try {
+            journal.replay((Object key, DataHeader header) -> {
+                final long primitive = ((Number) key).longValue();
+                if (null == header) {
+                    read.remove(primitive);
+                } else {
+                    read.put(primitive, header.dataStartPtr(), header.dataSize(),
+                            (int) (header.dataEndPtr() - header.dataStartPtr()), header.version());
+                }
+            }, new DiskRecordHeaderFactory());
+        } catch (ClassNotFoundException cause) {
+            throw new IOException(cause.toString());
+        }
+        index = read;
+        lastVersion.set(Math.max(last, journal.lastVersion));
+        recoverEndOfData();
+        rebuildFreeSpace();
+    }
+
+    public final String getfileName() {
+        return indexFileName;
+    }
+
+    /*
+     * Deletes the journal an IndexedDataDirector may have left beside the
+     * index too.
+     */
+    public void deleteFile() {
+        File f = new File(indexFileName);
+        if (f.exists()) {
+            f.delete();
+        }
+        try {
+            journal.delete();
+        } catch (IOException cause) {
+            Utilities.alertDialog(cause.toString(), " Error deleting journal");
+        }
+    }
+
+    /*
+     * Insert, reread and reopen a store keyed by person id.
+     */
+    public static void main(String[] args) {
+        DataMarshaller<Person> marshaller = Person.registerWith(new CompactDataMarshaller<>());
+        int tot = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        try {
+            DataStoreDirector dm = DataStoreDirector.createDataStoreDirector("Temp.jwob", marshaller);
+            PrimitiveIndexedDataDirector<Integer> id = new PrimitiveIndexedDataDirector<>(dm, Integer.class, tot);
+            dm.openChannel();
+            Utilities.Clock clock = Utility.getTimer();
+            clock.startTime();
+            for (int i = 0; i < tot; i++) {
+                id.insertData(i, new Person(i, "Paul", "Jackson",
+                        new PhoneNumber(Utilities.getRandom(111, 900), Utilities.getRandom(111, 888), Utilities.getRandom(1111, 9000)), null));
+            }
+            System.out.println("\nTime for (" + tot + ") inserts: " + clock.step() / 1000f + " seconds, index "
+                    + id.getIndexMemory() / tot + " direct bytes per record");
+
+            id.writeIndexHeaders();
+            clock.startTime();
+            id.readIndexHeaders();
+            System.out.println("Time to open (" + id.getRecordCount() + ") entries: " + clock.step() / 1000f + " seconds");
+
+            clock.startTime();
+            for (int i = 0; i < tot; i++) {
+                id.retrieveData(i);
+            }
+            System.out.println("Time for (" + tot + ") reads: " + clock.step() / 1000f + " seconds");
+            dm.closeChannel();
+            dm.deleteFile();
+            id.deleteFile();
+        } catch (IOException | DataDirectorException | IllegalArgumentException e) {
+            System.out.println(e.toString());
+        }
+    }
+}
+
+/*
+ Time for (100000) inserts: 0.226 seconds, index 62 direct bytes per record
+ Time to open (100000) entries: 0.044 seconds
+ Time for (100000) reads: 0.198 seconds
+
+ With a record version in each entry:
+ Time for (100000) inserts: 0.21 seconds, index 83 direct bytes per record
+ Time to open (100000) entries: 0.05 seconds
+ Time for (100000) reads: 0.198 seconds
+
+ With every change journaled and the holes found again on open:
+ Time for (100000) inserts: 0.369 seconds, index 83 direct bytes per record
+ Time to open (100000) entries: 0.157 seconds
+ Time for (100000) reads: 0.242 seconds
+*/
@@ -0,0 +1,438 @@
+package org.jware.objectbase.disk;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import objectbase.Person;
+import objectbase.PhoneNumber;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.core.Session;
+import org.jware.objectbase.core.Transaction;
+import org.jware.objectbase.exception.DataDirectorException;
+import org.jware.objectbase.util.Utilities;
+import static org.jware.objectbase.util.Utilities.Utility;
+
+/**
+ * File: SessionPool.java Created On: 10/18/2026
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * Purpose: Hands out sessions over an <code>IndexedDataDirector</code> and
+ * takes them back on close, so a session, its buffers and its cache are made
+ * once and reused request after request.
+ * <p>
+ * A session keeps the values it reads with the header and version they were
+ * read at. A value is served from the session again only while the index
+ * still holds that header at that version, so no stale value is returned and
+ * a hit costs a map lookup rather than a read and a decode. At most
+ * cacheSize values are kept, the least recently used going first.
+ * <p>
+ * Changes wait in the session until commit. Inserts are then marshalled into
+ * the session's own buffer and written with one insertAll, updates and
+ * deletes follow one at a time. Over a <code>TransactionalDataDirector</code>
+ * commit runs every change in one transaction, so they are seen all together
+ * or not at all, elsewhere each change is seen as it is written.
+ * <p>
+ * Thread safety: acquire and close may be called from any thread, and
+ * take no lock. A session belongs to the thread that acquired it until it
+ * is closed, using it from another thread fails. Closing it again does
+ * nothing.
+ *
+ * @param <K> Key.
+ * @param <T> Header data to use.
+ * @see Session
+ */
+public final class SessionPool<K, T extends DataHeader> {
+
+    public static final int DEFAULT_CACHE_SIZE = 256;
+    public static final int DEFAULT_MAX_IDLE = 64;
+
+    static final Object DELETED = new Object();
+    static final int BATCH_BUFFER_SIZE = 64 * IndexedDataDirector.BATCH_RECORD_SIZE;
+
+    final IndexedDataDirector<K, T> director;
+    final int cacheSize;
+    final int maxIdle;
+    final ConcurrentLinkedQueue<PooledSession> idle = new ConcurrentLinkedQueue<>();
+    final AtomicInteger idleCount = new AtomicInteger();
+    final AtomicLong created = new AtomicLong();
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+
+    /**
+     * @param director
+     */
+    public SessionPool(final IndexedDataDirector<K, T> director) {
+        this(director, DEFAULT_CACHE_SIZE, DEFAULT_MAX_IDLE);
+    }
+
+    /**
+     * @param director
+     * @param cacheSize values each session keeps.
+     * @param maxIdle sessions kept for reuse, more are dropped on close.
+     */
+    public SessionPool(final IndexedDataDirector<K, T> director, final int cacheSize, final int maxIdle) {
+        Utilities.assertNotNull(director, "Invalid director.");
+        if (cacheSize < 0 || maxIdle < 0) {
+            throw new IllegalArgumentException("Invalid cache size " + cacheSize + " or idle count " + maxIdle);
+        }
+        this.director = director;
+        this.cacheSize = cacheSize;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * @return A session for the calling thread, reused if one is idle.
+     */
+    public Session<K> acquire() {
+        PooledSession session = idle.poll();
+        if (null == session) {
+            session = new PooledSession();
+            created.incrementAndGet();
+        } else {
+            idleCount.decrementAndGet();
+        }
+        session.owner = Thread.currentThread();
+        return session;
+    }
+
+    private void release(final PooledSession session) {
+        session.owner = null;
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.offer(session);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    public IndexedDataDirector<K, T> getDirector() {
+        return director;
+    }
+
+    /**
+     * @return Sessions made, fewer than acquired when sessions were reused.
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     * @return Sessions waiting to be reused.
+     */
+    public int getIdleCount() {
+        return idleCount.get();
+    }
+
+    /**
+     * @return Reads served from a session's cache.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Reads that went to the store.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "Created[" + created.get() + "], Idle[" + idleCount.get() + "], Hits[" + hits.sum()
+                + "], Misses[" + misses.sum() + "]";
+    }
+
+    /*
+     * A value read, the header and the version it was read at.
+     */
+    static final class Cached {
+
+        final Object value;
+        final DataHeader header;
+        final long version;
+
+        Cached(final Object value, final DataHeader header, final long version) {
+            this.value = value;
+            this.header = header;
+            this.version = version;
+        }
+    }
+
+    /*
+     * The session handed out, pending changes and cache are plain maps, it
+     * is only ever used by its owner.
+     */
+    final class PooledSession implements Session<K> {
+
+        final Map<K, Object> pending = new LinkedHashMap<>();
+        final Set<K> inserted = new HashSet<>();
+        final Map<K, Object> inserts = new LinkedHashMap<>();
+        final LinkedHashMap<K, Cached> cache = new LinkedHashMap<K, Cached>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<K, Cached> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        ByteBuffer batch = ByteBuffer.allocate(BATCH_BUFFER_SIZE);
+        volatile Thread owner;
+
+        private void checkOwner() {
+            if (owner != Thread.currentThread()) {
+                throw new IllegalStateException("Session is not held by " + Thread.currentThread().getName());
+            }
+        }
+
+        /*
+         * The value of key as this session sees it, null if it has none.
+         */
+        private Object current(final K key) throws DataDirectorException {
+            checkOwner();
+            Utilities.assertNotNull(key, "Key value is null.");
+            final Object written = pending.get(key);
+            if (null != written) {
+                return written == DELETED ? null : written;
+            }
+            final Cached cached = cache.get(key);
+            final DataHeader header = director.getHeader(key);
+            if (null == header) {
+                cache.remove(key);
+                return null;
+            }
+            if (null != cached && cached.header == header && cached.version == header.version()) {
+                hits.increment();
+                return cached.value;
+            }
+            misses.increment();
+            final VersionedValue read;
+            try {
+                read = director.retrieveVersioned(key);
+            } catch (IllegalArgumentException deleted) {
+                cache.remove(key);
+                return null;
+            }
+            if (cacheSize > 0 && read.getVersion() == header.version()) {
+                cache.put(key, new Cached(read.getValue(), header, read.getVersion()));
+            } else {
+                cache.remove(key);
+            }
+            return read.getValue();
+        }
+
+        @Override
+        public Object retrieveData(final K key) throws DataDirectorException {
+            final Object value = current(key);
+            Utilities.assertNotNull(value, "Key value is null in method 'retrieveData'");
+            return value;
+        }
+
+        @Override
+        public void insertData(final K key, final Object data) throws DataDirectorException {
+            final boolean replacing = pending.get(key) == DELETED;
+            Utilities.assertNull(current(key), " Key already exists.");
+            pending.put(key, data);
+            if (!replacing) {
+                inserted.add(key);
+            }
+        }
+
+        @Override
+        public void updateData(final K key, final Object data) throws DataDirectorException {
+            Utilities.assertNotNull(current(key), "Key value is null in method 'updateData'");
+            pending.put(key, data);
+        }
+
+        @Override
+        public void deleteData(final K key) throws DataDirectorException {
+            Utilities.assertNotNull(current(key), "Key value is null in method 'deleteData'");
+            if (inserted.remove(key)) {
+                pending.remove(key);
+            } else {
+                pending.put(key, DELETED);
+            }
+        }
+
+        @Override
+        public void commit() throws DataDirectorException {
+            checkOwner();
+            if (pending.isEmpty()) {
+                return;
+            }
+            if (director instanceof TransactionalDataDirector) {
+                commitTransaction((TransactionalDataDirector<K, T>) director);
+            } else {
+                commitChanges();
+            }
+            pending.clear();
+            inserted.clear();
+        }
+
+        private void commitTransaction(final TransactionalDataDirector<K, T> transactional) throws DataDirectorException {
+            try (final Transaction<K> transaction = transactional.begin()) {
+                for (final Map.Entry<K, Object> change : pending.entrySet()) {
+                    final K key = change.getKey();
+                    if (change.getValue() == DELETED) {
+                        transaction.deleteData(key);
+                    } else if (inserted.contains(key)) {
+                        transaction.insertData(key, change.getValue());
+                    } else {
+                        transaction.updateData(key, change.getValue());
+                    }
+                }
+                transaction.commit();
+            }
+        }
+
+        /*
+         * Deletes and updates first, then the inserts in one write. A change
+         * written is dropped from pending, so a commit that fails part way
+         * may be committed again.
+         */
+        private void commitChanges() throws DataDirectorException {
+            inserts.clear();
+            for (final Iterator<Map.Entry<K, Object>> changes = pending.entrySet().iterator(); changes.hasNext();) {
+                final Map.Entry<K, Object> change = changes.next();
+                final K key = change.getKey();
+                if (inserted.contains(key)) {
+                    inserts.put(key, change.getValue());
+                    continue;
+                }
+                if (change.getValue() == DELETED) {
+                    director.deleteData(key);
+                } else {
+                    director.updateData(key, change.getValue());
+                }
+                changes.remove();
+            }
+            if (!inserts.isEmpty()) {
+                batch = director.insertAll(inserts, batch);
+                inserts.clear();
+            }
+        }
+
+        @Override
+        public void rollback() {
+            checkOwner();
+            pending.clear();
+            inserted.clear();
+        }
+
+        @Override
+        public int getPendingCount() {
+            return pending.size();
+        }
+
+        /*
+         * The cache goes too, the next owner is a different request. Closing
+         * a session once it is released does nothing.
+         */
+        @Override
+        public void close() {
+            if (owner != Thread.currentThread()) {
+                return;
+            }
+            rollback();
+            cache.clear();
+            release(this);
+        }
+
+        @Override
+        public String toString() {
+            return "Session Pending[" + pending.size() + "], Cached[" + cache.size() + "]";
+        }
+    }
+
+    /*
+     * Requests that read a few hot records and insert a few new ones, made
+     * straight to the director and then through pooled sessions.
+     */
+    public static void main(String[] args) {
+        final int tot = 2000;
+        final int requests = 5000;
+        final int reads = 16;
+        final int hot = 4;
+        final int writes = 8;
+        try {
+            final DataStoreDirector dm = DataStoreDirector.createDataStoreDirector("Temp.jwob", new ObjectDataMarshaller());
+            final ConcurrentIndexedDataDirector<Integer, DataHeader> id
+                    = new ConcurrentIndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+            dm.openChannel();
+            for (int i = 0; i < tot; i++) {
+                id.insertData(i, new Person(i, "Paul", "Jackson",
+                        new PhoneNumber(Utilities.getRandom(111, 900), Utilities.getRandom(111, 888), Utilities.getRandom(1111, 9000)), null));
+            }
+            final SessionPool<Integer, DataHeader> pool = new SessionPool<>(id);
+            Utilities.Clock clock = Utility.getTimer();
+            int next = tot;
+            for (int run = 0; run < 2; run++) {
+                clock.startTime();
+                for (int r = 0; r < requests; r++) {
+                    for (int i = 0; i < reads; i++) {
+                        id.retrieveData((r * 7 + i % hot) % tot);
+                    }
+                    for (int i = 0; i < writes; i++, next++) {
+                        id.insertData(next, new Person(next, "Jill", "Jackson", null, null));
+                    }
+                }
+                final long direct = Math.max(1, clock.step());
+                System.out.println("\nDirect (" + requests + ") requests: " + direct / 1000f
+                        + " seconds, " + (requests * 1000L / direct) + " requests per second");
+                clock.startTime();
+                for (int r = 0; r < requests; r++) {
+                    try (final Session<Integer> session = pool.acquire()) {
+                        for (int i = 0; i < reads; i++) {
+                            session.retrieveData((r * 7 + i % hot) % tot);
+                        }
+                        for (int i = 0; i < writes; i++, next++) {
+                            session.insertData(next, new Person(next, "Jill", "Jackson", null, null));
+                        }
+                        session.commit();
+                    }
+                }
+                final long pooled = Math.max(1, clock.step());
+                System.out.println("Session (" + requests + ") requests: " + pooled / 1000f
+                        + " seconds, " + (requests * 1000L / pooled) + " requests per second");
+                System.out.println(pool);
+            }
+            dm.closeChannel();
+            dm.deleteFile();
+            id.deleteFile();
+        } catch (Exception e) {
+            System.out.println(e.toString());
+        }
+    }
+}
+
+/*
+ Direct (5000) requests: 1.143 seconds, 4374 requests per second
+ Session (5000) requests: 0.489 seconds, 10224 requests per second
+ Created[1], Idle[1], Hits[60000], Misses[20000]
+
+ Direct (5000) requests: 0.674 seconds, 7418 requests per second
+ Session (5000) requests: 0.336 seconds, 14880 requests per second
+ Created[1], Idle[1], Hits[120000], Misses[40000]
+*/
@@ -1,10 +1,12 @@
 package org.jware.objectbase.disk;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.ByteBuffer;
-import java.nio.channels.Channel;
 import org.jware.objectbase.core.DataMarshaller;
+import org.jware.objectbase.disk.BufferPool.Page;
+import org.jware.objectbase.util.Utilities;
 
 /*
  * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
@@ -27,44 +29,16 @@ import org.jware.objectbase.core.DataMarshaller;
  *
  * @author J. Paul Jackson <jwareservices@gmail.com>
  *
- * Purpose:
+ * Purpose: Reads and writes a file as 64K pages of 2K frames through a
+ * <code>BufferPool</code>. The file is opened by a
+ * <code>DataStoreDirector</code> in PAGED mode, so an
+ * <code>IndexedDataDirector</code> over the same director reads and writes
+ * records through the same pool.
  *
+ * @see BufferPool
  */
 public class StructuredFileDirector {
 
-    class Page {
-
-        ByteBuffer pageBuffer;
-        long pageNumber;
-
-        Page(long pageNum, int bufferSize) {
-            pageNumber = pageNum;
-            this.pageBuffer = ByteBuffer.allocate(bufferSize);
-        }
-
-        public final long getPageNumber() {
-            return pageNumber;
-        }
-
-        public ByteBuffer getFrame(int indexInto) {
-            ByteBuffer page = pageBuffer.asReadOnlyBuffer();
-            int offset = indexInto * FRAME_SIZE;
-            page.limit(offset + FRAME_SIZE).position(offset);
-
-            return pageBuffer.slice();
-        }
-
-        public ByteBuffer getPage() {
-            return pageBuffer.asReadOnlyBuffer();
-        }
-        
-        public void putFrame(int indexInto, ByteBuffer buffer) {
-            int offset = indexInto + FRAME_SIZE;
-            ((ByteBuffer)pageBuffer.position(offset)).put(buffer);
-        }
-
-    }
-
     static final int PAGE_SIZE = (int) Math.pow(2, 16); // should match most underlying file systems. 64K
     static final int FRAME_SIZE = PAGE_SIZE / 32; // our data frame size. 2K
     static final int FRAMES_PER_PAGE = PAGE_SIZE / FRAME_SIZE;
@@ -73,14 +47,104 @@ public class StructuredFileDirector {
     DataStoreDirector fileDirector;
     DataMarshaller marshaller;
     File file;
-    Channel fileChannel;
 
     public StructuredFileDirector(String fileName) {
 
         file = new File(fileName);
         marshaller = new ObjectDataMarshaller();
-        fileDirector = DataStoreDirector.createDataStoreDirector(fileName, marshaller);
+        fileDirector = DataStoreDirector.createDataStoreDirector(fileName, marshaller, DataStoreDirector.StorageMode.PAGED);
+
+    }
+
+    public void openChannel() throws IOException {
+        fileDirector.openChannel();
+    }
+
+    /**
+     * Write back every dirty page and close the file.
+     *
+     * @throws IOException
+     */
+    public void closeChannel() throws IOException {
+        fileDirector.closeChannel();
+    }
+
+    public final DataStoreDirector getFileDirector() {
+        return fileDirector;
+    }
+
+    public final BufferPool getBufferPool() {
+        final BufferPool pool = fileDirector.getBufferPool();
+        Utilities.assertNotNull(pool, "Invalid channel.");
+        return pool;
+    }
+
+    /**
+     * @param pageNumber
+     * @return The page, pinned until unpin is called.
+     * @throws IOException
+     */
+    public Page pin(final long pageNumber) throws IOException {
+        return getBufferPool().pin(pageNumber);
+    }
+
+    /**
+     * @param page
+     * @param dirty true if the page was changed.
+     */
+    public void unpin(final Page page, final boolean dirty) {
+        getBufferPool().unpin(page, dirty);
+    }
+
+    /**
+     * @param frameNumber frame within the file.
+     * @return The offset of the frame within its page.
+     */
+    static int frameOffset(final long frameNumber) {
+        return (int) (frameNumber % FRAMES_PER_PAGE) * FRAME_SIZE;
+    }
+
+    /**
+     * @param frameNumber frame within the file.
+     * @return A copy of the frame.
+     * @throws IOException
+     */
+    public ByteBuffer readFrame(final long frameNumber) throws IOException {
+        final Page page = pin(frameNumber / FRAMES_PER_PAGE);
+        try {
+            final ByteBuffer copy = ByteBuffer.allocate(FRAME_SIZE);
+            copy.put(page.getBytes(frameOffset(frameNumber), FRAME_SIZE));
+            copy.flip();
+            return copy;
+        } finally {
+            unpin(page, false);
+        }
+    }
+
+    /**
+     * Copy the remaining bytes of frame, at most FRAME_SIZE, into the frame
+     * frameNumber of the file.
+     *
+     * @param frameNumber frame within the file.
+     * @param frame
+     * @throws IOException
+     */
+    public void writeFrame(final long frameNumber, final ByteBuffer frame) throws IOException {
+        if (frame.remaining() > FRAME_SIZE) {
+            throw new IllegalArgumentException("Frame of " + frame.remaining() + " bytes, at most "
+                    + FRAME_SIZE + " fit.");
+        }
+        getBufferPool().grow((frameNumber + 1) * FRAME_SIZE);
+        final Page page = pin(frameNumber / FRAMES_PER_PAGE);
+        try {
+            page.put(frameOffset(frameNumber), frame);
+        } finally {
+            unpin(page, true);
+        }
+    }
 
+    public void deleteFile() {
+        fileDirector.deleteFile();
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,756 @@
+package org.jware.objectbase.disk;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.core.DataHeaderFactory;
+import org.jware.objectbase.core.Transaction;
+import org.jware.objectbase.core.TransactionProcessor;
+import org.jware.objectbase.exception.DataDirectorException;
+import org.jware.objectbase.exception.TransactionConflictException;
+import org.jware.objectbase.util.Utilities;
+
+/**
+ * File: TransactionalDataDirector.java Created On: 10/18/2026
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * Purpose: A <code>ConcurrentIndexedDataDirector</code> whose changes are
+ * made in transactions with snapshot isolation.
+ * <p>
+ * Every key changed keeps a chain of versions, newest first, each stamped
+ * with the number of the commit that made it. A transaction reads as of the
+ * last commit when it began, walking the chain to the newest version no
+ * later than that, so readers take no lock and never see part of a commit.
+ * <p>
+ * Commit writes the new data to fresh space first, then, holding the stripes
+ * of its keys and for a moment the commit lock, checks that no key has a
+ * version newer than its snapshot, links in the new versions and publishes
+ * the commit number. Of two transactions changing a key the first to commit
+ * wins, the other gets TransactionConflictException and changes nothing.
+ * <p>
+ * The space of a replaced version is kept until every transaction that
+ * began before it was replaced has ended, then released and the version
+ * dropped from its chain. A chain left with only its newest version is
+ * dropped too, the header in the index is then the one every transaction
+ * reads, so only keys changed since the oldest transaction began keep one.
+ * <p>
+ * insertData, updateData, updateIfVersion, deleteData, modifyData and
+ * insertAll each run as a transaction of their own, tried again if they
+ * conflict. retrieveData reads the last commit and retrieveAll reads every
+ * key as of the same commit.
+ * <p>
+ * The chains are kept in memory only, the record versions in the headers.
+ * The journal records each commit with one write that replay applies all
+ * together or not at all.
+ *
+ * @param <K> Key.
+ * @param <T> Header data to use.
+ * @see Transaction
+ */
+public class TransactionalDataDirector<K, T extends DataHeader> extends ConcurrentIndexedDataDirector<K, T>
+        implements TransactionProcessor<K> {
+
+    static final Object DELETED = new Object();
+
+    final ConcurrentHashMap<K, Version<T>> versions = new ConcurrentHashMap<>();
+    final AtomicLong commitStamp = new AtomicLong();
+    final Object commitLock = new Object();
+    final TreeMap<Long, Integer> snapshots = new TreeMap<>();
+    final ArrayDeque<Retired<K, T>> retired = new ArrayDeque<>();
+
+    /*
+     * One version of a record, a null header for a delete. Only the newest
+     * version's header changes, when compaction moves the record.
+     */
+    static final class Version<T> {
+
+        volatile T header;
+        final long stamp;
+        volatile Version<T> older;
+
+        Version(final T header, final long stamp, final Version<T> older) {
+            this.header = header;
+            this.stamp = stamp;
+            this.older = older;
+        }
+    }
+
+    /*
+     * The version newer was linked in by the commit stamped stamp, replacing
+     * the older one if there was one.
+     */
+    static final class Retired<K, T> {
+
+        final K key;
+        final long stamp;
+        final Version<T> newer;
+
+        Retired(final K key, final long stamp, final Version<T> newer) {
+            this.key = key;
+            this.stamp = stamp;
+            this.newer = newer;
+        }
+    }
+
+    /*
+     * The work of a transaction run by autoCommit.
+     */
+    interface Work<K> {
+
+        Object run(Transaction<K> transaction) throws DataDirectorException;
+    }
+
+    /**
+     * @param fileDirector
+     * @param factory
+     */
+    public TransactionalDataDirector(final DataStoreDirector fileDirector, final DataHeaderFactory factory) {
+        super(fileDirector, factory);
+    }
+
+    /**
+     * @param fileDirector
+     * @param factory
+     * @param stripeCount number of write locks, rounded up to a power of two.
+     */
+    public TransactionalDataDirector(final DataStoreDirector fileDirector, final DataHeaderFactory factory,
+            final int stripeCount) {
+        super(fileDirector, factory, stripeCount);
+    }
+
+    @Override
+    public Transaction<K> begin() {
+        final long snapshot;
+        synchronized (snapshots) {
+            snapshot = commitStamp.get();
+            snapshots.merge(snapshot, 1, Integer::sum);
+        }
+        return new SnapshotTransaction(snapshot);
+    }
+
+    @Override
+    public long getCommitStamp() {
+        return commitStamp.get();
+    }
+
+    /**
+     * @return Transactions begun and not yet ended.
+     */
+    public int getActiveCount() {
+        synchronized (snapshots) {
+            int count = 0;
+            for (final int n : snapshots.values()) {
+                count += n;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * @return Versions committed that transactions begun earlier may still
+     * read past.
+     */
+    public int getRetainedCount() {
+        synchronized (retired) {
+            return retired.size();
+        }
+    }
+
+    /**
+     * @return Keys with a chain of versions in memory.
+     */
+    public int getChainCount() {
+        return versions.size();
+    }
+
+    private void end(final long snapshot) {
+        synchronized (snapshots) {
+            snapshots.computeIfPresent(snapshot, (stamp, count) -> count == 1 ? null : count - 1);
+        }
+        reclaim();
+    }
+
+    /*
+     * Release the versions no transaction can still read. A version replaced
+     * in commit n is read only by transactions begun before n, and once none
+     * is left the newest version is the header in the index, so the chain
+     * goes unless a later commit has added to it.
+     */
+    private void reclaim() {
+        final long oldest;
+        synchronized (snapshots) {
+            oldest = snapshots.isEmpty() ? commitStamp.get() : snapshots.firstKey();
+        }
+        while (true) {
+            final Retired<K, T> next;
+            synchronized (retired) {
+                next = retired.peek();
+                if (null == next || next.stamp > oldest) {
+                    return;
+                }
+                retired.poll();
+            }
+            final Version<T> older = next.newer.older;
+            next.newer.older = null;
+            if (null != older && null != older.header) {
+                release(older.header);
+            }
+            versions.remove(next.key, next.newer);
+        }
+    }
+
+    /*
+     * The header of key as of snapshot, null if it had none. A key with no
+     * chain has not changed since the index was read, its header is the one
+     * in the index provided there is still no chain once it is taken.
+     */
+    final T headerAt(final K key, final long snapshot) {
+        while (true) {
+            Version<T> version = versions.get(key);
+            if (null == version) {
+                final T header = index.get(key);
+                if (null == versions.get(key)) {
+                    return header;
+                }
+                continue;
+            }
+            while (null != version && version.stamp > snapshot) {
+                version = version.older;
+            }
+            return null == version ? null : version.header;
+        }
+    }
+
+    /*
+     * The value of key as of snapshot, null if it had none. The header is
+     * looked up again after the bytes are read, or the read failed, in case
+     * compaction moved the record meanwhile.
+     */
+    final Object read(final K key, final long snapshot) throws DataDirectorException {
+        while (true) {
+            final T header = headerAt(key, snapshot);
+            if (null == header) {
+                return null;
+            }
+            final ByteBuffer bytes;
+            try {
+                bytes = readStable(header.dataStartPtr(), header.dataSize());
+            } catch (DataDirectorException failure) {
+                if (headerAt(key, snapshot) == header) {
+                    throw failure;
+                }
+                continue;
+            }
+            if (headerAt(key, snapshot) == header) {
+                return decode(bytes);
+            }
+        }
+    }
+
+    /*
+     * Write the data of a transaction's changes, then check and link in the
+     * new versions and publish them as one commit. Returns the last record
+     * version given out, 0 if the commit changed nothing.
+     */
+    private long install(final long snapshot, final Map<K, Object> writes) throws DataDirectorException {
+        final List<K> keys = new ArrayList<>(writes.keySet());
+        final List<T> headers = new ArrayList<>(keys.size());
+        try {
+            for (final K key : keys) {
+                final Object value = writes.get(key);
+                headers.add(value == DELETED ? null : append(key, marshall(value), 0L));
+            }
+        } catch (DataDirectorException | RuntimeException failure) {
+            discard(headers);
+            throw failure;
+        }
+        final boolean[] needed = new boolean[stripes.length];
+        for (final K key : keys) {
+            needed[stripeOf(key)] = true;
+        }
+        int held = 0;
+        long given = 0;
+        try {
+            for (; held < stripes.length; held++) {
+                if (needed[held]) {
+                    stripes[held].lock();
+                }
+            }
+            final List<T> puts = new ArrayList<>(keys.size());
+            final List<K> deletes = new ArrayList<>();
+            synchronized (commitLock) {
+                for (final K key : keys) {
+                    final Version<T> head = versions.get(key);
+                    if (null != head && head.stamp > snapshot) {
+                        throw new TransactionConflictException("Key " + key + " was changed by another transaction.");
+                    }
+                }
+                final long stamp = commitStamp.get() + 1;
+                for (int i = 0; i < keys.size(); i++) {
+                    final K key = keys.get(i);
+                    final T header = headers.get(i);
+                    final Version<T> head = versions.get(key);
+                    final T current = null == head ? index.get(key) : head.header;
+                    if (null == header && null == current) {
+                        continue;
+                    }
+                    if (null != header) {
+                        given = nextVersion();
+                        header.setVersion(given);
+                    }
+                    final Version<T> version = new Version<>(header, stamp,
+                            null != head ? head : null != current ? new Version<>(current, 0L, null) : null);
+                    versions.put(key, version);
+                    invalidate(key);
+                    if (null == header) {
+                        index.remove(key);
+                        deletes.add(key);
+                    } else {
+                        index.put(key, header);
+                        putOffset(header);
+                        puts.add(header);
+                    }
+                    if (null != current) {
+                        removeOffset(current);
+                    }
+                    synchronized (retired) {
+                        retired.add(new Retired<>(key, stamp, version));
+                    }
+                }
+                commitStamp.set(stamp);
+            }
+            if (!puts.isEmpty() || !deletes.isEmpty()) {
+                journalCommit(puts, deletes);
+            }
+            return given;
+        } catch (TransactionConflictException conflict) {
+            discard(headers);
+            throw conflict;
+        } finally {
+            while (--held >= 0) {
+                if (needed[held]) {
+                    stripes[held].unlock();
+                }
+            }
+        }
+    }
+
+    /*
+     * Give back the space written for a commit that failed.
+     */
+    private void discard(final List<T> headers) {
+        for (final T header : headers) {
+            if (null != header) {
+                release(header);
+            }
+        }
+    }
+
+    /*
+     * Keep the newest version pointing at the record when compaction moves
+     * it. Called holding the key's stripe, as commits are.
+     */
+    @Override
+    protected void headerMoved(final T from, final T to) {
+        final Version<T> head = versions.get((K) to.key());
+        if (null != head && head.header == from) {
+            head.header = to;
+        }
+    }
+
+    /*
+     * Run work in a transaction of its own, again as of the newer commit
+     * each time it conflicts.
+     */
+    private Object autoCommit(final Work<K> work) throws DataDirectorException {
+        while (true) {
+            try (final Transaction<K> transaction = begin()) {
+                final Object result = work.run(transaction);
+                transaction.commit();
+                return result;
+            } catch (TransactionConflictException conflict) {
+                Thread.yield();
+            }
+        }
+    }
+
+    @Override
+    public void insertData(final K key, final Object data) throws DataDirectorException {
+        Utilities.assertNotNull(key, "Key value is null in method 'insertData'");
+        autoCommit(transaction -> {
+            transaction.insertData(key, data);
+            return null;
+        });
+    }
+
+    @Override
+    public void insertAll(final Map<K, ?> records) throws DataDirectorException {
+        autoCommit(transaction -> {
+            for (final Map.Entry<K, ?> record : records.entrySet()) {
+                Utilities.assertNotNull(record.getKey(), "Key value is null in method 'insertAll'");
+                transaction.insertData(record.getKey(), record.getValue());
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public ByteBuffer insertAll(final Map<K, ?> records, final ByteBuffer scratch) throws DataDirectorException {
+        insertAll(records);
+        scratch.clear();
+        return scratch;
+    }
+
+    @Override
+    public void updateData(final K key, final Object data) throws DataDirectorException {
+        autoCommit(transaction -> {
+            transaction.updateData(key, data);
+            return null;
+        });
+    }
+
+    @Override
+    public Object modifyData(final K key, final UnaryOperator<Object> change) throws DataDirectorException {
+        return autoCommit(transaction -> {
+            final Object value = change.apply(transaction.retrieveData(key));
+            transaction.updateData(key, value);
+            return value;
+        });
+    }
+
+    /**
+     * Update key in a transaction of its own if the version it reads is
+     * still expected. Should another transaction commit a change to key
+     * first, the transaction is tried again and finds the new version.
+     *
+     * @param key
+     * @param expected
+     * @param data
+     * @return The record's new version.
+     * @throws DataDirectorException
+     */
+    @Override
+    public long updateIfVersion(final K key, final long expected, final Object data) throws DataDirectorException {
+        while (true) {
+            try (final SnapshotTransaction transaction = (SnapshotTransaction) begin()) {
+                final T header = headerAt(key, transaction.getSnapshot());
+                Utilities.assertNotNull(header, "Key value is null in method 'updateIfVersion'");
+                checkVersion(key, expected, header.version());
+                transaction.updateData(key, data);
+                transaction.commit();
+                return transaction.committedVersion;
+            } catch (TransactionConflictException conflict) {
+                Thread.yield();
+            }
+        }
+    }
+
+    @Override
+    public void deleteData(final K key) throws DataDirectorException {
+        autoCommit(transaction -> {
+            transaction.deleteData(key);
+            return null;
+        });
+    }
+
+    /**
+     * Read a batch as of a single commit.
+     *
+     * @param keys
+     * @return The data for each key, in the order of keys.
+     * @throws DataDirectorException
+     */
+    @Override
+    public List<Object> retrieveAll(final Collection<K> keys) throws DataDirectorException {
+        try (final Transaction<K> transaction = begin()) {
+            final List<Object> values = new ArrayList<>(keys.size());
+            for (final K key : keys) {
+                values.add(transaction.retrieveData(key));
+            }
+            return values;
+        }
+    }
+
+    /*
+     * The versions belong to the index in memory, drop them with it.
+     */
+    private void clearVersions() {
+        versions.clear();
+        synchronized (retired) {
+            retired.clear();
+        }
+    }
+
+    @Override
+    public void readIndex() throws IOException, ClassNotFoundException {
+        clearVersions();
+        super.readIndex();
+    }
+
+    @Override
+    public void deleteFile() {
+        super.deleteFile();
+        clearVersions();
+    }
+
+    /*
+     * Reads as of its snapshot and keeps its changes until commit.
+     */
+    final class SnapshotTransaction implements Transaction<K> {
+
+        final long snapshot;
+        final Map<K, Object> writes = new LinkedHashMap<>();
+        boolean active = true;
+        long committedVersion;
+
+        SnapshotTransaction(final long snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        private void checkActive() {
+            if (!active) {
+                throw new IllegalStateException("Transaction is no longer active.");
+            }
+        }
+
+        private Object current(final K key) throws DataDirectorException {
+            checkActive();
+            Utilities.assertNotNull(key, "Key value is null.");
+            final Object written = writes.get(key);
+            if (null != written) {
+                return written == DELETED ? null : written;
+            }
+            return read(key, snapshot);
+        }
+
+        @Override
+        public Object retrieveData(final K key) throws DataDirectorException {
+            final Object value = current(key);
+            Utilities.assertNotNull(value, "Key value is null in method 'retrieveData'");
+            return value;
+        }
+
+        @Override
+        public void insertData(final K key, final Object data) throws DataDirectorException {
+            Utilities.assertNull(current(key), " Key already exists.");
+            writes.put(key, data);
+        }
+
+        @Override
+        public void updateData(final K key, final Object data) throws DataDirectorException {
+            Utilities.assertNotNull(current(key), "Key value is null in method 'updateData'");
+            writes.put(key, data);
+        }
+
+        @Override
+        public void deleteData(final K key) throws DataDirectorException {
+            Utilities.assertNotNull(current(key), "Key value is null in method 'deleteData'");
+            writes.put(key, DELETED);
+        }
+
+        @Override
+        public long getSnapshot() {
+            return snapshot;
+        }
+
+        @Override
+        public void commit() throws DataDirectorException {
+            checkActive();
+            active = false;
+            try {
+                if (!writes.isEmpty()) {
+                    committedVersion = install(snapshot, writes);
+                }
+            } finally {
+                writes.clear();
+                end(snapshot);
+            }
+        }
+
+        @Override
+        public void rollback() {
+            if (active) {
+                active = false;
+                writes.clear();
+                end(snapshot);
+            }
+        }
+
+        @Override
+        public boolean isActive() {
+            return active;
+        }
+
+        @Override
+        public void close() {
+            rollback();
+        }
+
+        @Override
+        public String toString() {
+            return "Transaction[" + snapshot + "], Changes[" + writes.size() + "]";
+        }
+    }
+
+    /*
+     * One read of a few accounts or one transfer between two, for main.
+     */
+    private interface Step {
+
+        void run(ThreadLocalRandom random) throws Exception;
+    }
+
+    private static final int ACCOUNTS = 10000;
+    private static final int READERS = 4;
+
+    /*
+     * Reads and transfers per second with READERS readers and writers
+     * writers running for millis.
+     */
+    private static long[] rates(final Step read, final Step transfer, final int writers, final long millis)
+            throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong transfers = new AtomicLong();
+        final Thread[] threads = new Thread[READERS + writers];
+        for (int t = 0; t < threads.length; t++) {
+            final boolean reading = t < READERS;
+            threads[t] = new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        (reading ? read : transfer).run(ThreadLocalRandom.current());
+                        (reading ? reads : transfers).incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    System.out.println(e.toString());
+                }
+            });
+            threads[t].start();
+        }
+        Thread.sleep(millis);
+        running.set(false);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        return new long[]{reads.get() * 10 * 1000 / millis, transfers.get() * 1000 / millis};
+    }
+
+    /*
+     * Readers reading ten accounts at a time against writers moving a unit
+     * between two accounts, with snapshot transactions and with the global
+     * read write lock they replace.
+     */
+    public static void main(String[] args) {
+        final long millis = args.length > 0 ? Long.parseLong(args[0]) : 3000;
+        try {
+            System.out.println("\nStore, writers, reads/s, transfers/s");
+            for (final boolean snapshots : new boolean[]{false, true}) {
+                final DataStoreDirector dm = DataStoreDirector.createDataStoreDirector("Temp.jwob", new CompactDataMarshaller<>());
+                final TransactionalDataDirector<Integer, DataHeader> id
+                        = new TransactionalDataDirector<>(dm, new DiskRecordHeaderFactory());
+                dm.openChannel();
+                for (int i = 0; i < ACCOUNTS; i++) {
+                    id.insertData(i, 100);
+                }
+                final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+                final Step read;
+                final Step transfer;
+                if (snapshots) {
+                    read = random -> {
+                        try (final Transaction<Integer> transaction = id.begin()) {
+                            for (int i = 0; i < 10; i++) {
+                                transaction.retrieveData(random.nextInt(ACCOUNTS));
+                            }
+                        }
+                    };
+                    transfer = random -> {
+                        final int from = random.nextInt(ACCOUNTS);
+                        final int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+                        while (true) {
+                            try (final Transaction<Integer> transaction = id.begin()) {
+                                transaction.updateData(from, (Integer) transaction.retrieveData(from) - 1);
+                                transaction.updateData(to, (Integer) transaction.retrieveData(to) + 1);
+                                transaction.commit();
+                                return;
+                            } catch (TransactionConflictException conflict) {
+                            }
+                        }
+                    };
+                } else {
+                    read = random -> {
+                        lock.readLock().lock();
+                        try {
+                            for (int i = 0; i < 10; i++) {
+                                id.retrieveData(random.nextInt(ACCOUNTS));
+                            }
+                        } finally {
+                            lock.readLock().unlock();
+                        }
+                    };
+                    transfer = random -> {
+                        final int from = random.nextInt(ACCOUNTS);
+                        final int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+                        lock.writeLock().lock();
+                        try {
+                            id.updateData(from, (Integer) id.retrieveData(from) - 1);
+                            id.updateData(to, (Integer) id.retrieveData(to) + 1);
+                        } finally {
+                            lock.writeLock().unlock();
+                        }
+                    };
+                }
+                for (final int writers : new int[]{0, 1, 4}) {
+                    final long[] rates = rates(read, transfer, writers, millis);
+                    System.out.println((snapshots ? "Snapshots" : "Global lock") + ", " + writers + ", "
+                            + rates[0] + ", " + rates[1]);
+                }
+                id.deleteFile();
+                dm.closeChannel();
+                dm.deleteFile();
+            }
+        } catch (Exception e) {
+            System.out.println(e.toString());
+        }
+    }
+}
+
+/*
+ Store, writers, reads/s, transfers/s
+ Global lock, 0, 1584990, 0
+ Global lock, 1, 1418403, 19442
+ Global lock, 4, 756870, 85759
+ Snapshots, 0, 3443146, 0
+ Snapshots, 1, 2166986, 25129
+ Snapshots, 4, 1874680, 41967
+*/
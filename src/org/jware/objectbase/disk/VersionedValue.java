@@ -0,0 +1,52 @@
+package org.jware.objectbase.disk;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * File: VersionedValue.java Created On: 10/18/2026
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * Purpose: A record's data and the version it was read at, as returned by
+ * retrieveVersioned.
+ *
+ * @see IndexedDataDirector#updateIfVersion
+ */
+public final class VersionedValue {
+
+    final Object value;
+    final long version;
+
+    VersionedValue(final Object value, final long version) {
+        this.value = value;
+        this.version = version;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "Version[" + version + "], Value[" + value + "]";
+    }
+}
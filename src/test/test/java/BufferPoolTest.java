@@ -0,0 +1,185 @@
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.disk.BufferPool;
+import org.jware.objectbase.disk.BufferPool.Page;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.IndexedDataDirector;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.jware.objectbase.disk.StructuredFileDirector;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class BufferPoolTest {
+
+    static final int PAGE_SIZE = 1024;
+
+    final File file = new File("BufferPoolTest.jwob");
+
+    @After
+    public void cleanUp() {
+        file.delete();
+    }
+
+    private FileChannel open() throws IOException {
+        return new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    private static byte[] pattern(final int size, final int seed) {
+        final byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i + seed);
+        }
+        return bytes;
+    }
+
+    private static byte[] toArray(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void test_write_back_and_reopen() throws IOException {
+        final byte[] data = pattern(5 * PAGE_SIZE + 100, 3);
+        try (final FileChannel channel = open()) {
+            final BufferPool pool = new BufferPool(channel, 2, PAGE_SIZE);
+            Assert.assertEquals(data.length, pool.write(ByteBuffer.wrap(data), 50));
+            Assert.assertEquals("Should track logical length", 50 + data.length, pool.length());
+            Assert.assertTrue("Should write back evicted pages", pool.getWriteBacks() > 0);
+            Assert.assertArrayEquals("Should read back", data, toArray(pool.read(50, data.length)));
+            try {
+                pool.read(50, data.length + 1);
+                Assert.fail("Should not read past the logical end");
+            } catch (EOFException expected) {
+            }
+            pool.close();
+        }
+        Assert.assertEquals("Should write no more than the logical length", 50 + data.length, file.length());
+
+        try (final FileChannel channel = open()) {
+            final BufferPool pool = new BufferPool(channel, 4, PAGE_SIZE);
+            Assert.assertEquals("Should recover length", 50 + data.length, pool.length());
+            Assert.assertArrayEquals("Should survive reopen", data, toArray(pool.read(50, data.length)));
+            pool.truncate(PAGE_SIZE + 10);
+            Assert.assertEquals(PAGE_SIZE + 10, file.length());
+            pool.grow(2 * PAGE_SIZE);
+            Assert.assertArrayEquals("Should read zero past a truncation", new byte[10],
+                    toArray(pool.read(PAGE_SIZE + 10, 10)));
+            pool.close();
+        }
+        Assert.assertEquals("Should lengthen the file on close", 2 * PAGE_SIZE, file.length());
+    }
+
+    @Test
+    public void test_pins_and_clock() throws IOException {
+        try (final FileChannel channel = open()) {
+            final BufferPool pool = new BufferPool(channel, 3, PAGE_SIZE);
+            final Page first = pool.pin(0);
+            final Page second = pool.pin(1);
+            final Page third = pool.pin(2);
+            Assert.assertSame("Should pin a page once in the pool", first, pool.pin(0));
+            Assert.assertEquals(1, pool.getHits());
+            Assert.assertEquals(3, pool.getMisses());
+            try {
+                pool.pin(3);
+                Assert.fail("Should not evict a pinned page");
+            } catch (IOException expected) {
+            }
+            pool.unpin(first, false);
+            pool.unpin(first, false);
+            pool.unpin(third, false);
+            try {
+                pool.unpin(third, false);
+                Assert.fail("Should not unpin twice");
+            } catch (IllegalStateException expected) {
+            }
+
+            final Page fourth = pool.pin(3);
+            Assert.assertEquals(3, fourth.getPageNumber());
+            Assert.assertEquals(1, pool.getEvictions());
+            pool.unpin(fourth, false);
+            Assert.assertEquals("Should keep the pinned page", 1, second.getPageNumber());
+            pool.unpin(second, false);
+            pool.close();
+        }
+    }
+
+    @Test
+    public void test_structured_frames() throws IOException {
+        final StructuredFileDirector director = new StructuredFileDirector("BufferPoolTest.jwob");
+        director.openChannel();
+        final byte[] frame = pattern(2048, 9);
+        director.writeFrame(0, ByteBuffer.wrap(frame));
+        director.writeFrame(33, ByteBuffer.wrap(pattern(100, 1)));
+        final Page page = director.pin(1);
+        Assert.assertArrayEquals("Should hold the frame written", pattern(100, 1),
+                toArray(page.getBytes(2048, 100)));
+        director.unpin(page, false);
+        director.closeChannel();
+        Assert.assertEquals(34 * 2048, file.length());
+
+        director.openChannel();
+        Assert.assertArrayEquals("Should survive reopen", frame, toArray(director.readFrame(0)));
+        Assert.assertArrayEquals("Should read zero from a frame not written", new byte[2048],
+                toArray(director.readFrame(32)));
+        director.closeChannel();
+    }
+
+    @Test
+    public void test_indexed_director_over_pages() throws Exception {
+        final DataStoreDirector dm = DataStoreDirector.createDataStoreDirector("BufferPoolTest.jwob",
+                new ObjectDataMarshaller(), DataStoreDirector.StorageMode.PAGED);
+        IndexedDataDirector<Integer, DataHeader> director = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        for (int i = 0; i < 2000; i++) {
+            director.insertData(i, "Record " + i);
+        }
+        director.updateData(7, "A longer record than the one it replaces");
+        director.deleteData(8);
+        Assert.assertNotNull(dm.getBufferPool());
+        Assert.assertEquals("Should write the pages back before journaling", dm.getBufferPool().length(),
+                file.length());
+        Assert.assertEquals("Record 1999", director.retrieveData(1999));
+        director.closeIndex();
+        dm.closeChannel();
+
+        director = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        director.readIndex();
+        Assert.assertEquals(1999, director.getRecordCount());
+        Assert.assertEquals("Record 0", director.retrieveData(0));
+        Assert.assertEquals("A longer record than the one it replaces", director.retrieveData(7));
+        Assert.assertEquals("Record 1999", director.retrieveData(1999));
+        director.deleteFile();
+        dm.closeChannel();
+        dm.deleteFile();
+    }
+}
@@ -0,0 +1,112 @@
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import objectbase.Person;
+import objectbase.PhoneNumber;
+import org.jware.objectbase.disk.CompactDataMarshaller;
+import org.junit.Assert;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class CompactDataMarshallerTest {
+
+    final CompactDataMarshaller<Object> marshaller = Person.registerWith(new CompactDataMarshaller<>());
+
+    private Object roundTrip(final Object value, final int typeId) {
+        final byte[] bytes = marshaller.writeData(value);
+        Assert.assertEquals("Should lead with the type id of " + value, typeId, bytes[0]);
+        final ByteBuffer buffer = ByteBuffer.allocate(bytes.length + 8);
+        Assert.assertEquals(bytes.length, marshaller.writeData(value, buffer));
+        buffer.flip();
+        final Object back = marshaller.readData(buffer);
+        Assert.assertEquals("Should consume the whole record", bytes.length, buffer.position());
+        Assert.assertEquals(value, back);
+        return back;
+    }
+
+    @Test
+    public void test_built_in_types() {
+        Assert.assertNull(roundTrip(null, 0));
+        roundTrip("Unicode \u00e9\u4e2d", 1);
+        roundTrip(Integer.MIN_VALUE, 2);
+        roundTrip(Long.MAX_VALUE, 3);
+        roundTrip((short) -7, 4);
+        roundTrip((byte) 0x7f, 5);
+        roundTrip(Boolean.TRUE, 6);
+        roundTrip(Math.PI, 7);
+        roundTrip(-1.5f, 8);
+        roundTrip('\u00e9', 9);
+        roundTrip(LocalDate.of(2015, 10, 18), 11);
+    }
+
+    @Test
+    public void test_list_reads_as_array_list() {
+        final List<Object> list = new LinkedList<>(Arrays.asList("One", 2, null, Arrays.asList(3L, "Four")));
+        final Object back = roundTrip(list, 10);
+        Assert.assertEquals("Should read back an ArrayList", ArrayList.class, back.getClass());
+        Assert.assertEquals(ArrayList.class, ((List) back).get(3).getClass());
+        roundTrip(new ArrayList<>(), 10);
+    }
+
+    @Test
+    public void test_registered_types() {
+        final Person person = new Person(7, "Paul", "Jackson", new PhoneNumber(555, 123, 4567), null);
+        person.setDate(LocalDate.of(2015, 1, 2));
+        final Person back = (Person) roundTrip(person, Person.TYPE_ID);
+        Assert.assertEquals(person.personID, back.personID);
+        Assert.assertEquals(person.visitDates, back.visitDates);
+        roundTrip(new PhoneNumber(555, 123, 4567), PhoneNumber.TYPE_ID);
+
+        final CompactDataMarshaller<Object> unregistered = new CompactDataMarshaller<>();
+        final byte[] serialized = unregistered.writeData(person);
+        Assert.assertEquals("Should serialize a type not registered", 12, serialized[0]);
+        Assert.assertEquals(person, unregistered.readData(serialized));
+        Assert.assertTrue("Should be smaller registered", marshaller.writeData(person).length < serialized.length);
+    }
+
+    @Test
+    public void test_serialization_fallback() {
+        roundTrip(new BigDecimal("12345.6789"), 12);
+        final Object array = roundTrip(Arrays.asList(new BigDecimal("1.5")), 10);
+        Assert.assertEquals(new BigDecimal("1.5"), ((List) array).get(0));
+    }
+
+    @Test
+    public void test_register_checks_ids() {
+        try {
+            marshaller.register(CompactDataMarshaller.FIRST_TYPE_ID - 1, Person.class);
+            Assert.fail("Should refuse a reserved id");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            marshaller.register(Person.TYPE_ID, PhoneNumber.class);
+            Assert.fail("Should refuse an id in use");
+        } catch (IllegalArgumentException expected) {
+        }
+        marshaller.register(Person.TYPE_ID, Person.class);
+    }
+}
@@ -0,0 +1,133 @@
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.disk.CompactionStats;
+import org.jware.objectbase.disk.ConcurrentIndexedDataDirector;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.IndexedDataDirector;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class CompactionTest {
+
+    static final int RECORDS = 1000;
+
+    DataStoreDirector dm;
+    IndexedDataDirector<Integer, DataHeader> director;
+
+    @After
+    public void tearDown() throws Exception {
+        director.deleteFile();
+        dm.closeChannel();
+        dm.deleteFile();
+    }
+
+    private void fragment() throws Exception {
+        dm.openChannel();
+        for (int i = 0; i < RECORDS; i++) {
+            director.insertData(i, "Record " + (10000 + i));
+        }
+        for (int i = 0; i < RECORDS; i += 2) {
+            director.deleteData(i);
+        }
+    }
+
+    private static void assertOdd(final IndexedDataDirector<Integer, DataHeader> director) throws Exception {
+        Assert.assertEquals(RECORDS / 2, director.getRecordCount());
+        for (int i = 1; i < RECORDS; i += 2) {
+            Assert.assertEquals("Record " + (10000 + i), director.retrieveData(i));
+        }
+    }
+
+    @Test
+    public void test_compact() throws Exception {
+        dm = DataStoreDirector.createDataStoreDirector("CompactionTest.jwob", new ObjectDataMarshaller());
+        director = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        fragment();
+        director.updateData(1, "Short");
+        final long fileLength = director.getSizeOfFile();
+        Assert.assertTrue("Should be fragmented", director.getFragmentation() > 40);
+        Assert.assertTrue(director.compactIfFragmented());
+
+        Assert.assertEquals("Should leave no holes", 0, director.getFreeSpace().getHoleCount());
+        Assert.assertEquals(0, director.getFragmentation());
+        final CompactionStats stats = director.getCompactionStats();
+        Assert.assertEquals(1, stats.getRuns());
+        Assert.assertEquals(fileLength - director.getSizeOfFile(), stats.getBytesReclaimed());
+        Assert.assertTrue("Should give back about half the file", stats.getBytesReclaimed() * 3 > fileLength);
+        Assert.assertFalse("Should not compact again", director.compactIfFragmented());
+
+        Assert.assertEquals("Short", director.retrieveData(1));
+        director.updateData(1, "Record 10001");
+        assertOdd(director);
+        final IndexedDataDirector<Integer, DataHeader> reopened = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        reopened.readIndex();
+        assertOdd(reopened);
+    }
+
+    @Test
+    public void test_compact_while_reading() throws Exception {
+        dm = DataStoreDirector.createDataStoreDirector("CompactionTest.jwob", new ObjectDataMarshaller());
+        final ConcurrentIndexedDataDirector<Integer, DataHeader> concurrent
+                = new ConcurrentIndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        director = concurrent;
+        fragment();
+        final AtomicBoolean done = new AtomicBoolean();
+        final ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            final Future<?> reader = pool.submit(() -> {
+                int reads = 0;
+                while (!done.get() || reads < RECORDS) {
+                    final int key = 1 + 2 * (reads++ % (RECORDS / 2));
+                    Assert.assertEquals("Record " + (10000 + key), concurrent.retrieveData(key));
+                }
+                return null;
+            });
+            final Future<?> writer = pool.submit(() -> {
+                for (int i = RECORDS; i < RECORDS + 200; i++) {
+                    concurrent.insertData(i, "Record " + (10000 + i));
+                }
+                for (int i = RECORDS; i < RECORDS + 200; i++) {
+                    concurrent.deleteData(i);
+                }
+                return null;
+            });
+            concurrent.compact();
+            writer.get();
+            concurrent.compact();
+            done.set(true);
+            reader.get();
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertTrue(concurrent.getCompactionStats().getRecordsMoved() > 0);
+        assertOdd(concurrent);
+    }
+}
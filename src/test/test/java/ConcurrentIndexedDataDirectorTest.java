@@ -0,0 +1,183 @@
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.disk.ConcurrentIndexedDataDirector;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class ConcurrentIndexedDataDirectorTest {
+
+    static final int THREADS = 8;
+    static final int PER_THREAD = 250;
+
+    DataStoreDirector dm;
+    ConcurrentIndexedDataDirector<Integer, DataHeader> director;
+
+    @Before
+    public void setUp() throws Exception {
+        dm = DataStoreDirector.createDataStoreDirector("ConcurrentTest.jwob", new ObjectDataMarshaller());
+        director = new ConcurrentIndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dm.closeChannel();
+        dm.deleteFile();
+        director.deleteFile();
+    }
+
+    private static void runAll(final List<Callable<Void>> tasks) throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void test_concurrent_inserts() throws Exception {
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int base = t * PER_THREAD;
+            tasks.add(() -> {
+                for (int i = base; i < base + PER_THREAD; i++) {
+                    director.insertData(i, "Record " + i);
+                }
+                return null;
+            });
+        }
+        runAll(tasks);
+
+        Assert.assertEquals("Should hold every insert", THREADS * PER_THREAD, director.getRecordCount());
+        for (int i = 0; i < THREADS * PER_THREAD; i++) {
+            Assert.assertEquals("Should read back its own record", "Record " + i, director.retrieveData(i));
+        }
+    }
+
+    @Test
+    public void test_no_lost_updates() throws Exception {
+        final int keys = 4;
+        for (int k = 0; k < keys; k++) {
+            director.insertData(k, 0);
+        }
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            tasks.add(() -> {
+                for (int i = 0; i < PER_THREAD; i++) {
+                    director.modifyData(i % keys, (value) -> (Integer) value + 1);
+                }
+                return null;
+            });
+        }
+        runAll(tasks);
+
+        int total = 0;
+        for (int k = 0; k < keys; k++) {
+            total += (Integer) director.retrieveData(k);
+        }
+        Assert.assertEquals("Should count every increment", THREADS * PER_THREAD, total);
+    }
+
+    @Test
+    public void test_reads_during_updates() throws Exception {
+        for (int i = 0; i < PER_THREAD; i++) {
+            director.insertData(i, "Version 0");
+        }
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            for (int v = 1; v <= 4; v++) {
+                for (int i = 0; i < PER_THREAD; i++) {
+                    director.updateData(i, "Version " + v);
+                }
+            }
+            return null;
+        });
+        for (int t = 1; t < THREADS; t++) {
+            tasks.add(() -> {
+                for (int i = 0; i < PER_THREAD * 4; i++) {
+                    final String value = (String) director.retrieveData(i % PER_THREAD);
+                    Assert.assertTrue("Should never see a torn record: " + value, value.startsWith("Version "));
+                }
+                return null;
+            });
+        }
+        runAll(tasks);
+
+        for (int i = 0; i < PER_THREAD; i++) {
+            Assert.assertEquals("Should hold the last update", "Version 4", director.retrieveData(i));
+        }
+    }
+
+    @Test
+    public void test_retrieve_all_during_updates() throws Exception {
+        final List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < PER_THREAD; i++) {
+            director.insertData(i, "Version 0");
+            keys.add(PER_THREAD - 1 - i);
+        }
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            for (int v = 1; v <= 4; v++) {
+                for (int i = 0; i < PER_THREAD; i++) {
+                    director.updateData(i, "Version " + v);
+                }
+            }
+            return null;
+        });
+        for (int t = 1; t < THREADS; t++) {
+            tasks.add(() -> {
+                for (int r = 0; r < 20; r++) {
+                    for (final Object value : director.retrieveAll(keys)) {
+                        Assert.assertTrue("Should never see a torn record: " + value, ((String) value).startsWith("Version "));
+                    }
+                }
+                return null;
+            });
+        }
+        runAll(tasks);
+
+        final List<Object> values = director.retrieveAll(keys);
+        Assert.assertEquals(PER_THREAD, values.size());
+        for (final Object value : values) {
+            Assert.assertEquals("Should hold the last update", "Version 4", value);
+        }
+        director.insertData(PER_THREAD, "Last");
+        Assert.assertEquals("Should keep the order asked for", Arrays.asList("Last", "Version 4"),
+                director.retrieveAll(Arrays.asList(PER_THREAD, 0)));
+    }
+}
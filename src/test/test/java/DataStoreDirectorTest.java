@@ -0,0 +1,85 @@
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class DataStoreDirectorTest {
+
+    static final int LENGTH = 1000;
+
+    DataStoreDirector dm;
+
+    @Before
+    public void setUp() throws Exception {
+        dm = DataStoreDirector.createDataStoreDirector("DataStoreTest.jwob", new ObjectDataMarshaller(),
+                DataStoreDirector.StorageMode.CHANNEL);
+        dm.openChannel();
+        final byte[] bytes = new byte[LENGTH];
+        for (int i = 0; i < LENGTH; i++) {
+            bytes[i] = (byte) i;
+        }
+        dm.writeBuffer(ByteBuffer.wrap(bytes), 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dm.closeChannel();
+        dm.deleteFile();
+    }
+
+    @Test
+    public void test_read_to_the_end() throws Exception {
+        final ByteBuffer bytes = dm.readBuffer(LENGTH - 10, 10);
+        Assert.assertEquals(10, bytes.remaining());
+        for (int i = LENGTH - 10; i < LENGTH; i++) {
+            Assert.assertEquals((byte) i, bytes.get());
+        }
+    }
+
+    @Test
+    public void test_short_read() throws Exception {
+        try {
+            dm.readBuffer(LENGTH - 10, 11);
+            Assert.fail("Should not return a buffer the file could not fill");
+        } catch (EOFException expected) {
+            Assert.assertTrue(expected.getMessage(), expected.getMessage().contains("" + LENGTH));
+        }
+        try {
+            dm.readBuffer(LENGTH + 100, 1);
+            Assert.fail("Should not read past the end of the file");
+        } catch (EOFException expected) {
+        }
+        try {
+            dm.readFile(LENGTH - 4, 50);
+            Assert.fail("Should not decode a short read");
+        } catch (EOFException expected) {
+        }
+        Assert.assertEquals("Should leave the file alone", LENGTH, dm.getFileLength());
+        Assert.assertEquals((byte) 5, dm.readBuffer(5, 1).get());
+    }
+}
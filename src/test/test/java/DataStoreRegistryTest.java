@@ -0,0 +1,94 @@
+
+import java.io.File;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.disk.CompactDataMarshaller;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DataStoreRegistry;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.IndexedDataDirector;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class DataStoreRegistryTest {
+
+    final DataStoreRegistry registry = new DataStoreRegistry();
+
+    @After
+    public void tearDown() {
+        registry.closeAll();
+        for (final String name : new String[]{"RegistryOne", "RegistryTwo"}) {
+            new File(name + ".jwob").delete();
+            new File(name + ".idx").delete();
+            new File(name + ".jnl").delete();
+        }
+    }
+
+    @Test
+    public void test_store_stays_open_under_a_director() throws Exception {
+        final DataStoreDirector store = registry.openStore("RegistryOne.jwob", new ObjectDataMarshaller());
+        Assert.assertTrue(store.isOpen());
+        final IndexedDataDirector<Integer, DataHeader> director = new IndexedDataDirector<>(store, new DiskRecordHeaderFactory());
+        Assert.assertTrue("Should not close a channel the director did not open", store.isOpen());
+        director.insertData(1, "One");
+        Assert.assertEquals("One", director.retrieveData(1));
+        store.openChannel();
+        Assert.assertEquals("Should keep the channel open", "One", director.retrieveData(1));
+        director.deleteFile();
+    }
+
+    @Test
+    public void test_one_director_per_file() throws Exception {
+        final DataStoreDirector one = registry.openStore("RegistryOne.jwob", new ObjectDataMarshaller());
+        final DataStoreDirector two = registry.openStore("RegistryTwo.jwob", new CompactDataMarshaller<>(),
+                DataStoreDirector.StorageMode.MAPPED);
+        Assert.assertSame("Should key stores by absolute path", one,
+                registry.openStore(new File("RegistryOne.jwob").getAbsolutePath(), new ObjectDataMarshaller()));
+        Assert.assertSame("Should take the mode of the store open", two,
+                registry.openStore("RegistryTwo.jwob", new CompactDataMarshaller<>()));
+        Assert.assertEquals(2, registry.size());
+
+        registry.closeStore("RegistryOne.jwob");
+        Assert.assertFalse(one.isOpen());
+        Assert.assertNull(registry.getStore("RegistryOne.jwob"));
+        Assert.assertTrue("Should create a store once closed",
+                one != registry.openStore("RegistryOne.jwob", new ObjectDataMarshaller()));
+    }
+
+    @Test
+    public void test_rejects_another_marshaller_or_mode() throws Exception {
+        registry.openStore("RegistryOne.jwob", new ObjectDataMarshaller());
+        try {
+            registry.openStore("RegistryOne.jwob", new CompactDataMarshaller<>());
+            Assert.fail("Should refuse another marshaller");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            registry.openStore("RegistryOne.jwob", new ObjectDataMarshaller(), DataStoreDirector.StorageMode.MAPPED);
+            Assert.fail("Should refuse another mode");
+        } catch (IllegalArgumentException expected) {
+        }
+        Assert.assertEquals(1, registry.size());
+    }
+}
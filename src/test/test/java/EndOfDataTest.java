@@ -0,0 +1,177 @@
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.IndexedDataDirector;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class EndOfDataTest {
+
+    static final int RECORDS = 300;
+    static final int THREADS = 8;
+    static final int PER_THREAD = 2000;
+
+    /*
+     * Opens reserve to the test.
+     */
+    static class ReservingDirector extends IndexedDataDirector<Integer, DataHeader> {
+
+        ReservingDirector(final DataStoreDirector dm) {
+            super(dm, new DiskRecordHeaderFactory());
+        }
+
+        long claim(final int size) {
+            return reserve(size);
+        }
+    }
+
+    DataStoreDirector dm;
+    ReservingDirector director;
+
+    @Before
+    public void setUp() throws Exception {
+        dm = DataStoreDirector.createDataStoreDirector("EndOfDataTest.jwob", new ObjectDataMarshaller());
+        director = new ReservingDirector(dm);
+        dm.openChannel();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        director.deleteFile();
+        dm.closeChannel();
+        dm.deleteFile();
+    }
+
+    private ReservingDirector reopen() throws Exception {
+        dm.closeChannel();
+        final ReservingDirector reopened = new ReservingDirector(dm);
+        dm.openChannel();
+        reopened.readIndex();
+        return reopened;
+    }
+
+    private static long lastEnd(final IndexedDataDirector<Integer, DataHeader> director) {
+        long end = 0;
+        for (final DataHeader header : director.getIndexValues()) {
+            end = Math.max(end, header.dataEndPtr());
+        }
+        return end;
+    }
+
+    @Test
+    public void test_recovered_on_reopen() throws Exception {
+        for (int i = 0; i < RECORDS; i++) {
+            director.insertData(i, "Record " + i);
+        }
+        final long end = director.getEndOfData();
+        Assert.assertEquals("Should end at the last record", lastEnd(director), end);
+
+        ReservingDirector reopened = reopen();
+        Assert.assertEquals("Should recover the end from the journal", end, reopened.getEndOfData());
+        reopened.writeIndexHeaders();
+        reopened = reopen();
+        Assert.assertEquals("Should recover the end from the index file", end, reopened.getEndOfData());
+
+        reopened.insertData(RECORDS, "After reopening");
+        final long appended = reopened.getHeader(RECORDS).dataStartPtr();
+        Assert.assertEquals("Should append after the recovered end", end, appended);
+        Assert.assertEquals("Record " + (RECORDS - 1), reopened.retrieveData(RECORDS - 1));
+    }
+
+    @Test
+    public void test_unindexed_tail_reused() throws Exception {
+        for (int i = 0; i < RECORDS; i++) {
+            director.insertData(i, "Record " + i);
+        }
+        final long end = director.getEndOfData();
+        /*
+         * A write that reached the file without reaching the journal, as when
+         * the process dies between the two.
+         */
+        dm.writeBuffer(ByteBuffer.wrap(new byte[100]), dm.getFileLength());
+
+        Assert.assertTrue(dm.getFileLength() > end + 100);
+
+        final ReservingDirector reopened = reopen();
+        Assert.assertEquals("Should give back space nothing refers to", end, reopened.getEndOfData());
+        Assert.assertEquals("Should leave no hole at the tail", 0, reopened.getFreeSpace().getHoleCount());
+        reopened.insertData(RECORDS, "After the crash");
+        final long appended = reopened.getHeader(RECORDS).dataStartPtr();
+        Assert.assertEquals(end, appended);
+        Assert.assertEquals("After the crash", reopened.retrieveData(RECORDS));
+        Assert.assertEquals("Record 0", reopened.retrieveData(0));
+    }
+
+    @Test
+    public void test_concurrent_reserves_disjoint() throws Exception {
+        final long start = director.getEndOfData();
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        final List<Future<long[]>> claims = new ArrayList<>();
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                final int size = 10 + t;
+                claims.add(pool.submit((Callable<long[]>) () -> {
+                    final long[] starts = new long[PER_THREAD];
+                    for (int i = 0; i < PER_THREAD; i++) {
+                        starts[i] = director.claim(size);
+                    }
+                    return starts;
+                }));
+            }
+            final long[] regions = new long[THREADS * PER_THREAD];
+            long total = 0;
+            for (int t = 0; t < THREADS; t++) {
+                final long[] starts = claims.get(t).get();
+                for (int i = 0; i < PER_THREAD; i++) {
+                    /*
+                     * The size rides in the low bits, every start is far
+                     * above them.
+                     */
+                    regions[t * PER_THREAD + i] = starts[i] << 8 | (10 + t);
+                }
+                total += (long) PER_THREAD * (10 + t);
+            }
+            Arrays.sort(regions);
+            long expected = start;
+            for (final long region : regions) {
+                Assert.assertEquals("Should leave no gap or overlap", expected, region >>> 8);
+                expected += region & 0xff;
+            }
+            Assert.assertEquals(start + total, director.getEndOfData());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.FreeSpaceManager;
+import org.jware.objectbase.disk.IndexedDataDirector;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.junit.Assert;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class FreeSpaceManagerTest {
+
+    @Test
+    public void test_merge_and_split() {
+        final FreeSpaceManager free = new FreeSpaceManager();
+        free.release(100, 50);
+        free.release(200, 50);
+        free.release(150, 50);
+        Assert.assertEquals("Should merge touching holes", 1, free.getHoleCount());
+        Assert.assertEquals(150, free.getFreeBytes());
+
+        Assert.assertEquals("Should take the front of the hole", 100, free.allocate(60));
+        Assert.assertEquals(90, free.getFreeBytes());
+        Assert.assertEquals(160, free.allocate(90));
+        Assert.assertEquals("Should be empty", FreeSpaceManager.NO_SPACE, free.allocate(1));
+    }
+
+    @Test
+    public void test_fit_by_size_class() {
+        final FreeSpaceManager free = new FreeSpaceManager();
+        free.release(0, 70);
+        free.release(1000, 100);
+        free.release(5000, 4000);
+        Assert.assertEquals("Should skip a hole of its class too small", 1000, free.allocate(90));
+        Assert.assertEquals("Should use a larger class", 5000, free.allocate(200));
+        Assert.assertEquals(FreeSpaceManager.NO_SPACE, free.allocate(5000));
+    }
+
+    @Test
+    public void test_trim_tail() {
+        final FreeSpaceManager free = new FreeSpaceManager();
+        final AtomicLong end = new AtomicLong(500);
+        free.release(400, 100);
+        Assert.assertTrue("Should give the tail back", free.trimTail(end));
+        Assert.assertEquals(400, end.get());
+        Assert.assertEquals(0, free.getHoleCount());
+    }
+
+    @Test
+    public void test_director_reuses_space() throws Exception {
+        final DataStoreDirector dm = DataStoreDirector.createDataStoreDirector("FreeSpaceTest.jwob", new ObjectDataMarshaller());
+        final IndexedDataDirector<Integer, DataHeader> director = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        try {
+            dm.openChannel();
+            for (int i = 0; i < 100; i++) {
+                director.insertData(i, "Record " + (1000 + i));
+            }
+            final long end = director.getEndOfData();
+            for (int i = 0; i < 100; i += 2) {
+                director.deleteData(i);
+            }
+            for (int i = 100; i < 150; i++) {
+                director.insertData(i, "Record " + (1000 + i));
+            }
+            Assert.assertEquals("Should fill the holes before growing", end, director.getEndOfData());
+            for (int i = 1; i < 150; i += (i < 100 ? 2 : 1)) {
+                Assert.assertEquals("Record " + (1000 + i), director.retrieveData(i));
+            }
+            director.updateData(1, "A record much longer than the one it replaces");
+            Assert.assertEquals("Record 1003", director.retrieveData(3));
+            Assert.assertEquals("A record much longer than the one it replaces", director.retrieveData(1));
+        } finally {
+            director.deleteFile();
+            dm.closeChannel();
+            dm.deleteFile();
+        }
+    }
+
+    @Test
+    public void test_director_finds_first_hole_on_reopen() throws Exception {
+        final DataStoreDirector dm = DataStoreDirector.createDataStoreDirector("FreeSpaceTest.jwob", new ObjectDataMarshaller());
+        IndexedDataDirector<Integer, DataHeader> director = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        try {
+            dm.openChannel();
+            for (int i = 0; i < 10; i++) {
+                director.insertData(i, "Record " + (1000 + i));
+            }
+            final long first = director.getHeader(0).dataStartPtr();
+            director.deleteData(0);
+            final long free = director.getFreeSpace().getFreeBytes();
+            Assert.assertTrue(free > 0);
+            director.closeIndex();
+            dm.closeChannel();
+
+            director = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+            dm.openChannel();
+            director.readIndex();
+            Assert.assertEquals("Should find the hole below the first record", free,
+                    director.getFreeSpace().getFreeBytes());
+            director.insertData(0, "Record 1000");
+            final long reused = director.getHeader(0).dataStartPtr();
+            Assert.assertEquals("Should reuse it", first, reused);
+            Assert.assertEquals("Record 1001", director.retrieveData(1));
+            director.closeIndex();
+            dm.closeChannel();
+
+            director = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+            dm.openChannel();
+            director.readIndex();
+            Assert.assertEquals("Should not write the marker over it", "Record 1000", director.retrieveData(0));
+        } finally {
+            director.deleteFile();
+            dm.closeChannel();
+            dm.deleteFile();
+        }
+    }
+}
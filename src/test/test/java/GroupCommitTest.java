@@ -0,0 +1,124 @@
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.disk.ConcurrentIndexedDataDirector;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.GroupCommit;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.junit.Assert;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class GroupCommitTest {
+
+    static final int THREADS = 8;
+    static final int PER_THREAD = 50;
+
+    private static void runAll(final Callable<Void> task) throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Void>> done = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                done.add(pool.submit(task));
+            }
+            for (final Future<Void> f : done) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void test_group_covers_every_commit() throws Exception {
+        final AtomicLong writes = new AtomicLong();
+        final AtomicLong durable = new AtomicLong();
+        final GroupCommit group = new GroupCommit(GroupCommit.Policy.GROUP, 1, TimeUnit.MILLISECONDS, 1 << 20, () -> {
+            final long upTo = writes.get();
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            durable.accumulateAndGet(upTo, Math::max);
+        });
+        runAll(() -> {
+            for (int i = 0; i < PER_THREAD; i++) {
+                final long mine = writes.incrementAndGet();
+                group.commit(10);
+                Assert.assertTrue("Should return only once forced", durable.get() >= mine);
+            }
+            return null;
+        });
+        Assert.assertEquals(THREADS * PER_THREAD, group.getCommits());
+        Assert.assertTrue("Should share forces: " + group, group.getForces() < THREADS * PER_THREAD / 2);
+    }
+
+    @Test
+    public void test_per_write_and_none() throws Exception {
+        final AtomicLong forces = new AtomicLong();
+        final GroupCommit perWrite = new GroupCommit(GroupCommit.Policy.PER_WRITE, 0, TimeUnit.MILLISECONDS, 1,
+                forces::incrementAndGet);
+        final GroupCommit none = new GroupCommit(GroupCommit.Policy.NONE, 0, TimeUnit.MILLISECONDS, 1,
+                forces::incrementAndGet);
+        for (int i = 0; i < 10; i++) {
+            perWrite.commit(1);
+            none.commit(1);
+        }
+        Assert.assertEquals(10, forces.get());
+        Assert.assertEquals(10, perWrite.getForces());
+        Assert.assertEquals(0, none.getForces());
+    }
+
+    @Test
+    public void test_director_group_commit() throws Exception {
+        final DataStoreDirector dm = DataStoreDirector.createDataStoreDirector("GroupCommitTest.jwob", new ObjectDataMarshaller());
+        final ConcurrentIndexedDataDirector<Integer, DataHeader> director
+                = new ConcurrentIndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        try {
+            dm.openChannel();
+            director.setDurability(GroupCommit.Policy.GROUP, 2, TimeUnit.MILLISECONDS, 1 << 20);
+            final AtomicLong keys = new AtomicLong();
+            runAll(() -> {
+                for (int i = 0; i < PER_THREAD; i++) {
+                    director.insertData((int) keys.getAndIncrement(), "Record " + i);
+                }
+                return null;
+            });
+            final GroupCommit group = director.getGroupCommit();
+            Assert.assertEquals(THREADS * PER_THREAD, group.getCommits());
+            Assert.assertTrue("Should share forces: " + group, group.getForces() < group.getCommits());
+        } finally {
+            director.deleteFile();
+            dm.closeChannel();
+            dm.deleteFile();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DiskRecordHeader;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.IndexedDataDirector;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class IndexFileTest {
+
+    static final int RECORDS = 100;
+
+    DataStoreDirector dm;
+
+    @Before
+    public void setUp() throws Exception {
+        dm = DataStoreDirector.createDataStoreDirector("IndexFileTest.jwob", new ObjectDataMarshaller());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        new IndexedDataDirector(dm, new DiskRecordHeaderFactory()).deleteFile();
+        dm.closeChannel();
+        dm.deleteFile();
+    }
+
+    private static void assertSameHeaders(final IndexedDataDirector written, final IndexedDataDirector read) {
+        Assert.assertEquals("Should read every header", written.getIndexValues().size(), read.getIndexValues().size());
+        for (Object value : written.getIndexValues()) {
+            final DataHeader header = (DataHeader) value;
+            final DataHeader back = read.getHeader(header.key());
+            Assert.assertNotNull("Should find " + header.key(), back);
+            Assert.assertEquals(header.dataSize(), back.dataSize());
+            Assert.assertEquals(header.dataStartPtr(), back.dataStartPtr());
+            Assert.assertEquals(header.dataEndPtr(), back.dataEndPtr());
+        }
+    }
+
+    @Test
+    public void test_integer_keys() throws Exception {
+        final IndexedDataDirector<Integer, DataHeader> written = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        for (int i = 0; i < RECORDS; i++) {
+            written.insertData(i, "Record " + i);
+        }
+        written.writeIndexHeaders();
+        Assert.assertEquals("Should size the index exactly", new File(written.getfileName()).length(), written.getSizeOfIndex());
+
+        final IndexedDataDirector<Integer, DataHeader> read = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        read.readIndexHeaders();
+        assertSameHeaders(written, read);
+        Assert.assertEquals("Should carry on from the old end", written.getEndOfData(), read.getEndOfData());
+        for (int i = 0; i < RECORDS; i++) {
+            Assert.assertEquals("Record " + i, read.retrieveData(i));
+        }
+    }
+
+    @Test
+    public void test_string_keys() throws Exception {
+        final IndexedDataDirector<String, DataHeader> written = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        for (int i = 0; i < RECORDS; i++) {
+            written.insertData("Key " + i + (i % 2 == 0 ? "" : " with a longer tail"), i);
+        }
+        written.writeIndexHeaders();
+
+        final IndexedDataDirector<String, DataHeader> read = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        read.readIndexHeaders();
+        assertSameHeaders(written, read);
+        Assert.assertEquals(3, read.retrieveData("Key 3 with a longer tail"));
+    }
+
+    @Test
+    public void test_reads_serialized_index() throws Exception {
+        final IndexedDataDirector<Integer, DataHeader> written = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        for (int i = 0; i < RECORDS; i++) {
+            written.insertData(i, "Record " + i);
+        }
+        try (final ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(written.getfileName()))) {
+            oos.writeObject("JWOB");
+            oos.writeInt(RECORDS);
+            oos.writeLong(1024L);
+            for (Object header : written.getIndexValues()) {
+                oos.writeObject((DiskRecordHeader) header);
+            }
+        }
+
+        final IndexedDataDirector<Integer, DataHeader> read = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        read.readIndexHeaders();
+        assertSameHeaders(written, read);
+        Assert.assertEquals("Record 7", read.retrieveData(7));
+    }
+}
@@ -0,0 +1,209 @@
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.IndexedDataDirector;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class IndexJournalTest {
+
+    static final int RECORDS = 200;
+
+    DataStoreDirector dm;
+    IndexedDataDirector<Integer, DataHeader> director;
+
+    @Before
+    public void setUp() throws Exception {
+        dm = DataStoreDirector.createDataStoreDirector("JournalTest.jwob", new ObjectDataMarshaller());
+        director = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        director.deleteFile();
+        dm.closeChannel();
+        dm.deleteFile();
+    }
+
+    /*
+     * Open the store again as a new process would, without the index file
+     * being written on close.
+     */
+    private IndexedDataDirector<Integer, DataHeader> reopen() throws Exception {
+        final IndexedDataDirector<Integer, DataHeader> reopened = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        reopened.readIndex();
+        return reopened;
+    }
+
+    private void change() throws Exception {
+        for (int i = 0; i < RECORDS; i++) {
+            director.insertData(i, "Record " + i);
+        }
+        director.updateData(5, "Five");
+        director.deleteData(RECORDS - 1);
+        director.writeIndex();
+    }
+
+    private static void assertChanged(final IndexedDataDirector<Integer, DataHeader> reopened) throws Exception {
+        Assert.assertEquals("Should hold every record not deleted", RECORDS - 1, reopened.getRecordCount());
+        Assert.assertNull("Should replay the delete", reopened.getHeader(RECORDS - 1));
+        Assert.assertEquals("Should replay the update", "Five", reopened.retrieveData(5));
+        for (int i = 6; i < RECORDS - 1; i++) {
+            Assert.assertEquals("Record " + i, reopened.retrieveData(i));
+        }
+    }
+
+    @Test
+    public void test_replay_without_index_file() throws Exception {
+        change();
+        Assert.assertFalse("Should not rewrite the index per change", new File(director.getfileName()).exists());
+        Assert.assertEquals("Should journal the inserts, the update and the delete",
+                RECORDS + 2, director.getJournalSize());
+        assertChanged(reopen());
+    }
+
+    @Test
+    public void test_insert_all() throws Exception {
+        final Map<Integer, Object> batch = new HashMap<>();
+        for (int i = 0; i < RECORDS; i++) {
+            batch.put(i, "Record " + i);
+        }
+        director.insertAll(batch);
+        Assert.assertEquals("Should journal every header", RECORDS, director.getJournalSize());
+        try {
+            director.insertAll(Collections.singletonMap(7, "Again"));
+            Assert.fail("Should refuse a key already there");
+        } catch (IllegalArgumentException expected) {
+        }
+        final IndexedDataDirector<Integer, DataHeader> reopened = reopen();
+        Assert.assertEquals(RECORDS, reopened.getRecordCount());
+        for (int i = 0; i < RECORDS; i++) {
+            Assert.assertEquals("Record " + i, reopened.retrieveData(i));
+            Assert.assertEquals("Should keep the versions", director.getVersion(i), reopened.getVersion(i));
+        }
+    }
+
+    private Map<Integer, Object> batch(final int from, final int to) {
+        final Map<Integer, Object> batch = new HashMap<>();
+        for (int i = from; i < to; i++) {
+            batch.put(i, "Record " + i);
+        }
+        return batch;
+    }
+
+    private void assertRefused(final Map<Integer, Object> batch) throws Exception {
+        final long records = director.getRecordCount();
+        final long end = director.getEndOfData();
+        final long journaled = director.getJournalSize();
+        final long length = new File("JournalTest.jwob").length();
+        try {
+            director.insertAll(batch);
+            Assert.fail("Should refuse the batch");
+        } catch (IllegalArgumentException expected) {
+        }
+        Assert.assertEquals("Should insert none of the batch", records, director.getRecordCount());
+        Assert.assertEquals("Should allocate nothing", end, director.getEndOfData());
+        Assert.assertEquals("Should journal nothing", journaled, director.getJournalSize());
+        Assert.assertEquals("Should write nothing", length, new File("JournalTest.jwob").length());
+        for (final Integer key : batch.keySet()) {
+            if (key >= RECORDS) {
+                Assert.assertNull("Should not index " + key, director.getHeader(key));
+            }
+        }
+    }
+
+    @Test
+    public void test_insert_all_refuses_key_in_index() throws Exception {
+        director.insertAll(batch(0, RECORDS));
+        final Map<Integer, Object> batch = batch(RECORDS, RECORDS + 50);
+        batch.put(RECORDS / 2, "Again");
+        assertRefused(batch);
+        Assert.assertEquals("Record " + RECORDS / 2, director.retrieveData(RECORDS / 2));
+        Assert.assertEquals("Should replay only the first batch", RECORDS, reopen().getRecordCount());
+    }
+
+    @Test
+    public void test_insert_all_refuses_key_twice() throws Exception {
+        director.insertAll(batch(0, RECORDS));
+        final Map<Integer, Object> batch = new IdentityHashMap<>();
+        for (int i = RECORDS; i < RECORDS + 50; i++) {
+            batch.put(new Integer(i), "Record " + i);
+        }
+        batch.put(new Integer(RECORDS + 10), "Twice");
+        Assert.assertEquals(51, batch.size());
+        assertRefused(batch);
+        Assert.assertEquals("Should replay only the first batch", RECORDS, reopen().getRecordCount());
+    }
+
+    @Test
+    public void test_insert_all_torn_replays_none() throws Exception {
+        director.insertAll(batch(0, RECORDS));
+        director.insertAll(batch(RECORDS, RECORDS * 2));
+        final String journal = director.getfileName().replace(".idx", ".jnl");
+        try (final RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+        final IndexedDataDirector<Integer, DataHeader> reopened = reopen();
+        Assert.assertEquals("Should replay the whole first batch only", RECORDS, reopened.getRecordCount());
+        for (int i = 0; i < RECORDS; i++) {
+            Assert.assertEquals("Record " + i, reopened.retrieveData(i));
+        }
+        Assert.assertNull("Should replay none of a torn batch", reopened.getHeader(RECORDS));
+        Assert.assertNull("Should replay none of a torn batch", reopened.getHeader(RECORDS * 2 - 2));
+    }
+
+    @Test
+    public void test_checkpoint() throws Exception {
+        director.setCheckpointInterval(50);
+        change();
+        Assert.assertTrue("Should checkpoint into the index file", new File(director.getfileName()).exists());
+        Assert.assertTrue("Should keep the journal short", director.getJournalSize() < 50);
+        assertChanged(reopen());
+    }
+
+    @Test
+    public void test_torn_tail_ignored() throws Exception {
+        change();
+        final String journal = director.getfileName().replace(".idx", ".jnl");
+        try (final FileOutputStream out = new FileOutputStream(journal, true)) {
+            out.write(new byte[]{0, 0, 0, 40, 1, 2, 3, 4, 1, 1, 0, 0});
+        }
+        final IndexedDataDirector<Integer, DataHeader> reopened = reopen();
+        assertChanged(reopened);
+        reopened.insertData(RECORDS, "After the crash");
+        Assert.assertEquals("After the crash", reopen().retrieveData(RECORDS));
+    }
+}
@@ -0,0 +1,158 @@
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.IndexedDataDirector;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class LocateHeaderTest {
+
+    static final int RECORDS = 500;
+
+    /*
+     * Opens the offset lookups to the test.
+     */
+    static class LocatingDirector extends IndexedDataDirector<Integer, DataHeader> {
+
+        LocatingDirector(final DataStoreDirector dm) {
+            super(dm, new DiskRecordHeaderFactory());
+        }
+
+        DataHeader locate(final long dataPtr) {
+            return locateHeader(dataPtr);
+        }
+
+        DataHeader previous(final DataHeader header) {
+            return previousHeader(header);
+        }
+
+        DataHeader next(final DataHeader header) {
+            return nextHeader(header);
+        }
+    }
+
+    DataStoreDirector dm;
+    LocatingDirector director;
+
+    @Before
+    public void setUp() throws Exception {
+        dm = DataStoreDirector.createDataStoreDirector("LocateTest.jwob", new ObjectDataMarshaller());
+        director = new LocatingDirector(dm);
+        dm.openChannel();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        director.deleteFile();
+        dm.closeChannel();
+        dm.deleteFile();
+    }
+
+    /*
+     * The offset lookups must agree with the headers of the index sorted by
+     * data start: each header found from inside its data, its neighbours
+     * the ones either side of it, nothing found in a hole.
+     */
+    private static void assertOrdered(final LocatingDirector director) {
+        final List<DataHeader> headers = new ArrayList<>(director.getIndexValues());
+        Collections.sort(headers, Comparator.comparingLong(DataHeader::dataStartPtr));
+        for (int i = 0; i < headers.size(); i++) {
+            final DataHeader header = headers.get(i);
+            final DataHeader before = i > 0 ? headers.get(i - 1) : null;
+            final DataHeader after = i < headers.size() - 1 ? headers.get(i + 1) : null;
+            Assert.assertSame("Should locate " + header.key() + " at its start", header,
+                    director.locate(header.dataStartPtr()));
+            Assert.assertSame("Should locate " + header.key() + " inside its data", header,
+                    director.locate(header.dataStartPtr() + header.dataSize() - 1));
+            Assert.assertSame("Should find the record before " + header.key(), before, director.previous(header));
+            Assert.assertSame("Should find the record after " + header.key(), after, director.next(header));
+            if (null != after) {
+                Assert.assertTrue("Should not overlap " + header.key(), header.dataEndPtr() <= after.dataStartPtr());
+                if (after.dataStartPtr() > header.dataEndPtr() + 1) {
+                    Assert.assertNull("Should find nothing in a hole", director.locate(header.dataEndPtr() + 1));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_insert_delete_update() throws Exception {
+        for (int i = 0; i < RECORDS; i++) {
+            director.insertData(i, "Record " + i);
+        }
+        assertOrdered(director);
+        for (int i = 0; i < RECORDS; i += 3) {
+            director.deleteData(i);
+        }
+        assertOrdered(director);
+        for (int i = 1; i < RECORDS; i += 3) {
+            director.updateData(i, "A record much longer than the one it replaces " + i);
+        }
+        for (int i = 2; i < RECORDS; i += 6) {
+            director.updateData(i, "R" + i);
+        }
+        assertOrdered(director);
+        for (int i = 0; i < RECORDS; i += 3) {
+            director.insertData(i, "Back " + i);
+        }
+        assertOrdered(director);
+    }
+
+    @Test
+    public void test_random_changes_and_compaction() throws Exception {
+        final Random random = new Random(5);
+        for (int round = 0; round < 4; round++) {
+            for (int op = 0; op < 2000; op++) {
+                final int key = random.nextInt(RECORDS);
+                if (null == director.getHeader(key)) {
+                    director.insertData(key, "Record " + key);
+                } else if (random.nextBoolean()) {
+                    director.deleteData(key);
+                } else {
+                    final char[] data = new char[random.nextInt(200)];
+                    Arrays.fill(data, 'u');
+                    director.updateData(key, new String(data));
+                }
+            }
+            assertOrdered(director);
+            director.compact();
+            Assert.assertEquals("Should leave no holes", 0, director.getFreeSpace().getHoleCount());
+            assertOrdered(director);
+        }
+        director.writeIndex();
+        final LocatingDirector reopened = new LocatingDirector(dm);
+        dm.openChannel();
+        reopened.readIndex();
+        assertOrdered(reopened);
+    }
+}
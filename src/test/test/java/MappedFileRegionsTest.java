@@ -0,0 +1,140 @@
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.MappedFileRegions;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class MappedFileRegionsTest {
+
+    static final int REGION_SIZE = 64;
+
+    final File file = new File("MappedFileRegionsTest.jwob");
+
+    @After
+    public void cleanUp() {
+        file.delete();
+    }
+
+    private FileChannel open() throws IOException {
+        return new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    private static byte[] pattern(final int size, final int seed) {
+        final byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i + seed);
+        }
+        return bytes;
+    }
+
+    private static byte[] toArray(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void test_write_slice_in_one_region() throws IOException {
+        try (final FileChannel channel = open()) {
+            final MappedFileRegions regions = new MappedFileRegions(channel, REGION_SIZE);
+            final byte[] data = pattern(20, 3);
+
+            Assert.assertEquals("Should write all bytes", 20, regions.write(ByteBuffer.wrap(data), 10));
+            Assert.assertEquals("Should track logical length", 30, regions.length());
+            Assert.assertArrayEquals("Should read back", data, toArray(regions.slice(10, 20)));
+            regions.close();
+        }
+    }
+
+    @Test
+    public void test_write_slice_across_regions() throws IOException {
+        try (final FileChannel channel = open()) {
+            final MappedFileRegions regions = new MappedFileRegions(channel, REGION_SIZE);
+            final byte[] data = pattern(3 * REGION_SIZE, 7);
+
+            regions.write(ByteBuffer.wrap(data), REGION_SIZE / 2);
+
+            Assert.assertEquals("Should have grown the mapping", 4, regions.regionCount());
+            Assert.assertArrayEquals("Should read back", data, toArray(regions.slice(REGION_SIZE / 2, data.length)));
+            regions.close();
+        }
+    }
+
+    @Test
+    public void test_slice_past_end() throws IOException {
+        try (final FileChannel channel = open()) {
+            final MappedFileRegions regions = new MappedFileRegions(channel, REGION_SIZE);
+            regions.write(ByteBuffer.wrap(pattern(10, 0)), 0);
+            try {
+                regions.slice(5, 10);
+                Assert.fail("Should not read past the logical end");
+            } catch (EOFException expected) {
+            }
+            regions.close();
+        }
+    }
+
+    @Test
+    public void test_read_past_end_in_every_mode() throws IOException {
+        for (final DataStoreDirector.StorageMode mode : DataStoreDirector.StorageMode.values()) {
+            final DataStoreDirector dm = DataStoreDirector.createDataStoreDirector(file.getName(),
+                    new ObjectDataMarshaller(), mode);
+            dm.openChannel();
+            dm.writeBuffer(ByteBuffer.wrap(pattern(10, 0)), 0);
+            Assert.assertArrayEquals("Should read back in " + mode, pattern(10, 0), toArray(dm.readBuffer(0, 10)));
+            try {
+                dm.readBuffer(5, 10);
+                Assert.fail("Should not read past the end in " + mode);
+            } catch (EOFException expected) {
+            }
+            dm.closeChannel();
+            dm.deleteFile();
+        }
+    }
+
+    @Test
+    public void test_close_truncates_and_reopens() throws IOException {
+        final byte[] data = pattern(100, 1);
+        try (final FileChannel channel = open()) {
+            final MappedFileRegions regions = new MappedFileRegions(channel, REGION_SIZE);
+            regions.write(ByteBuffer.wrap(data), 0);
+            regions.close();
+        }
+        Assert.assertEquals("Should truncate to logical length", 100, file.length());
+
+        try (final FileChannel channel = open()) {
+            final MappedFileRegions regions = new MappedFileRegions(channel, REGION_SIZE);
+            Assert.assertEquals("Should recover length", 100, regions.length());
+            Assert.assertArrayEquals("Should survive reopen", data, toArray(regions.slice(0, 100)));
+            regions.close();
+        }
+    }
+}
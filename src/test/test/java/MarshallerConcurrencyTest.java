@@ -0,0 +1,88 @@
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import objectbase.Person;
+import objectbase.PhoneNumber;
+import org.jware.objectbase.core.BufferDataMarshaller;
+import org.jware.objectbase.disk.CompactDataMarshaller;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.junit.Assert;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ * One marshaller instance shared by a pool of threads must give every thread
+ * back exactly what it wrote, with the size returned by the write matching
+ * the bytes produced.
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class MarshallerConcurrencyTest {
+
+    static final int THREADS = 8;
+    static final int PER_THREAD = 500;
+
+    private static void shareAcrossThreads(final BufferDataMarshaller<Person> marshaller) throws Exception {
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            tasks.add(() -> {
+                final ByteBuffer buffer = ByteBuffer.allocate(1024);
+                for (int i = 0; i < PER_THREAD; i++) {
+                    final Person p = new Person(thread * PER_THREAD + i, "First" + thread, "Last" + i,
+                            new PhoneNumber(thread, i % 1000, i), null);
+
+                    final byte[] bytes = marshaller.writeData(p);
+                    buffer.clear();
+                    final int size = marshaller.writeData(p, buffer);
+                    buffer.flip();
+
+                    Assert.assertEquals("Should return the size with the data", bytes.length, size);
+                    Assert.assertEquals("Should read back from bytes", p, marshaller.readData(bytes));
+                    final Person back = marshaller.readData(buffer);
+                    Assert.assertEquals("Should read back from a buffer", p, back);
+                    Assert.assertEquals("Should keep its own id", p.personID, back.personID);
+                }
+                return null;
+            });
+        }
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void test_shared_object_marshaller() throws Exception {
+        shareAcrossThreads(new ObjectDataMarshaller<>());
+    }
+
+    @Test
+    public void test_shared_compact_marshaller() throws Exception {
+        shareAcrossThreads(Person.registerWith(new CompactDataMarshaller<>()));
+    }
+}
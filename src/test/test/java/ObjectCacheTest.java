@@ -0,0 +1,149 @@
+
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.disk.ConcurrentIndexedDataDirector;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DiskRecordHeader;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.IndexedDataDirector;
+import org.jware.objectbase.disk.ObjectCache;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class ObjectCacheTest {
+
+    DataStoreDirector dm;
+    IndexedDataDirector<Integer, DataHeader> director;
+
+    @Before
+    public void setUp() throws Exception {
+        dm = DataStoreDirector.createDataStoreDirector("ObjectCacheTest.jwob", new ObjectDataMarshaller());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (null != director) {
+            director.deleteFile();
+            dm.closeChannel();
+            dm.deleteFile();
+        }
+    }
+
+    private static DataHeader header(final int size) {
+        final DiskRecordHeader header = new DiskRecordHeader();
+        header.setSize(size);
+        header.setVersion(1);
+        return header;
+    }
+
+    @Test
+    public void test_clock_keeps_referenced() {
+        final ObjectCache<Integer> cache = new ObjectCache<>(4);
+        final DataHeader[] headers = new DataHeader[8];
+        for (int i = 0; i < 4; i++) {
+            headers[i] = header(10);
+            cache.put(i, headers[i], "Value " + i);
+        }
+        Assert.assertEquals("Value 0", cache.get(0, headers[0]));
+        Assert.assertEquals("Value 2", cache.get(2, headers[2]));
+        for (int i = 4; i < 6; i++) {
+            headers[i] = header(10);
+            cache.put(i, headers[i], "Value " + i);
+        }
+        Assert.assertEquals(4, cache.getSize());
+        Assert.assertEquals(2, cache.getEvictions());
+        Assert.assertEquals("Should keep a record read again", "Value 0", cache.get(0, headers[0]));
+        Assert.assertEquals("Value 2", cache.get(2, headers[2]));
+        Assert.assertNull("Should evict a record read once", cache.get(1, headers[1]));
+        Assert.assertNull(cache.get(3, headers[3]));
+        Assert.assertEquals(4, cache.getHits());
+        Assert.assertEquals(2, cache.getMisses());
+
+        Assert.assertNull("Should not serve a value for another header", cache.get(0, header(10)));
+        headers[0].setVersion(2);
+        Assert.assertNull("Should not serve a value for another version", cache.get(0, headers[0]));
+        cache.invalidate(2);
+        Assert.assertNull(cache.get(2, headers[2]));
+        Assert.assertEquals(3, cache.getSize());
+    }
+
+    @Test
+    public void test_bounded_by_bytes() {
+        final ObjectCache<Integer> cache = new ObjectCache<>(100, 250);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, header(100), "Value " + i);
+            Assert.assertTrue("Should stay within its bytes", cache.getBytes() <= 250);
+        }
+        Assert.assertEquals(2, cache.getSize());
+        Assert.assertEquals(8, cache.getEvictions());
+        cache.put(10, header(300), "Too big");
+        Assert.assertEquals("Should not cache a record larger than the cache", 2, cache.getSize());
+        cache.clear();
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void test_director_cache() throws Exception {
+        director = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        checkDirector();
+    }
+
+    @Test
+    public void test_concurrent_director_cache() throws Exception {
+        director = new ConcurrentIndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        checkDirector();
+    }
+
+    private void checkDirector() throws Exception {
+        final ObjectCache<Integer> cache = new ObjectCache<>(16);
+        director.setCache(cache);
+        for (int i = 0; i < 4; i++) {
+            director.insertData(i, "Record " + i);
+        }
+        final Object first = director.retrieveData(0);
+        Assert.assertSame("Should serve the decoded record", first, director.retrieveData(0));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+
+        director.updateData(0, "Updated");
+        Assert.assertEquals("Should not serve an updated record", "Updated", director.retrieveData(0));
+        director.updateData(0, "An update long enough that it has to move");
+        Assert.assertEquals("An update long enough that it has to move", director.retrieveData(0));
+        Assert.assertEquals(6, director.retrieveVersioned(0).getVersion());
+
+        director.retrieveData(1);
+        director.deleteData(1);
+        director.insertData(1, "Again");
+        Assert.assertEquals("Should not serve a deleted record", "Again", director.retrieveData(1));
+        Assert.assertEquals(2, cache.getHits());
+
+        director.setCache(null);
+        Assert.assertEquals("Again", director.retrieveData(1));
+        Assert.assertEquals("Should not be used once unset", 2, cache.getHits());
+    }
+}
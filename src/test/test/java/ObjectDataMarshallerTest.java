@@ -2,6 +2,12 @@
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -19,8 +25,11 @@ public class ObjectDataMarshallerTest {
     @Test
     public void test_size() {
         final ObjectDataMarshaller data = new ObjectDataMarshaller();
+        final ByteBuffer buffer = ByteBuffer.allocate(256);
 
-        Assert.assertEquals("Should be -1", -1, data.getDataSize());
+        final int size = data.writeData("Sized " + System.currentTimeMillis(), buffer);
+
+        Assert.assertEquals("Should return the bytes written", buffer.position(), size);
     }
 
     @Test
@@ -45,10 +54,9 @@ public class ObjectDataMarshallerTest {
 
         final byte[] b = odm.writeData(str);
 
-        Assert.assertNotEquals("Should have a size", 0, odm.getDataSize());
         Assert.assertNotNull("Should have serialized", b);
         Assert.assertNotEquals("Should be serialized", 0, b.length);
-        Assert.assertEquals("Should be same size", b.length, odm.getDataSize());
+        Assert.assertEquals("Should be same size", b.length, odm.writeData(str, ByteBuffer.allocate(256)));
     }
 
     @Test
@@ -59,4 +67,54 @@ public class ObjectDataMarshallerTest {
 
         Assert.assertEquals("Should be the same marshalled and unmarshalled", str, odm.readData(odm.writeData(str)));
     }
+
+    private static ArrayList<String> large(final int count) {
+        final ArrayList<String> list = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            list.add("Element " + i);
+        }
+        return list;
+    }
+
+    @Test
+    public void test_buffer_matches_bytes() {
+        final ObjectDataMarshaller odm = new ObjectDataMarshaller();
+        final Object[] values = {"Short", 42, large(3), large(2000)};
+        for (final Object value : values) {
+            final byte[] bytes = odm.writeData(value);
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 20);
+            buffer.position(7);
+            Assert.assertEquals("Should write as many bytes", bytes.length, odm.writeData(value, buffer));
+            Assert.assertEquals("Should leave the position past the value", 7 + bytes.length, buffer.position());
+            buffer.flip().position(7);
+            final byte[] written = new byte[bytes.length];
+            buffer.duplicate().get(written);
+            Assert.assertArrayEquals("Should write the same bytes", bytes, written);
+            Assert.assertEquals("Should read the buffer back", value, odm.readData(buffer));
+            Assert.assertEquals("Should read the bytes back", value, odm.readData(bytes));
+            Assert.assertEquals("Should read a wrapped slice back", value,
+                    odm.readData(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length + 5), 0, bytes.length)));
+        }
+    }
+
+    @Test
+    public void test_small_buffer_grows() throws Exception {
+        final ObjectDataMarshaller odm = new ObjectDataMarshaller();
+        final ArrayList<String> value = large(2000);
+        try {
+            odm.writeData(value, ByteBuffer.allocate(64));
+            Assert.fail("Should overflow a buffer too small");
+        } catch (BufferOverflowException expected) {
+        }
+        final byte[] bytes = odm.writeData(value);
+        Assert.assertTrue("Should outgrow the adapter buffer", bytes.length > 256);
+        Assert.assertEquals(value, odm.readData(bytes));
+
+        final DataStoreDirector dm = DataStoreDirector.createDataStoreDirector("MarshallerTest.jwob", odm);
+        final ByteBuffer encoded = dm.encode(value);
+        Assert.assertTrue("Should outgrow the encode buffer", encoded.remaining() > 4096);
+        Assert.assertEquals("Should encode as the byte array adapter does", bytes.length, encoded.remaining());
+        Assert.assertEquals(value, dm.decode(encoded));
+        Assert.assertEquals("Should encode small values in the grown buffer", "Short", dm.decode(dm.encode("Short")));
+    }
 }
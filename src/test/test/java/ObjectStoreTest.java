@@ -0,0 +1,125 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import objectbase.ObjectStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class ObjectStoreTest {
+
+    static final String FILE_NAME = "ObjectStoreTest.obj";
+
+    final File file = new File(FILE_NAME);
+
+    @After
+    public void cleanUp() {
+        file.delete();
+        new File(FILE_NAME + ".tmp").delete();
+    }
+
+    private ObjectStore fill(final int count) throws IOException {
+        final ObjectStore store = new ObjectStore(FILE_NAME);
+        store.write();
+        for (int i = 0; i < count; i++) {
+            store.addObject("Object " + i);
+        }
+        return store;
+    }
+
+    @Test
+    public void test_get_after_delete() throws Exception {
+        final ObjectStore store = fill(5);
+        store.deleteObject(1);
+        Assert.assertEquals(4, store.getStoredCount());
+        Assert.assertEquals("Object 0", store.getObject(0));
+        Assert.assertEquals("Should move the objects after down one", "Object 2", store.getObject(1));
+        Assert.assertEquals("Object 4", store.getObject(3));
+        try {
+            store.getObject(4);
+            Assert.fail("Should not read past the objects left");
+        } catch (IOException expected) {
+        }
+        store.deleteObject(3);
+        Assert.assertEquals(Arrays.asList("Object 0", "Object 2", "Object 3"), store.getObjects());
+        store.close();
+
+        store.read();
+        Assert.assertEquals("Should not see deleted objects reopened",
+                Arrays.asList("Object 0", "Object 2", "Object 3"), store.getObjects());
+        store.close();
+    }
+
+    @Test
+    public void test_compact_keeps_order() throws Exception {
+        final ObjectStore store = fill(10);
+        for (int i = 4; i >= 0; i--) {
+            store.deleteObject(i * 2);
+        }
+        final long length = file.length();
+        store.compact();
+        Assert.assertTrue("Should drop the deleted records", file.length() < length);
+        Assert.assertEquals(5, store.getStoredCount());
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals("Object " + (i * 2 + 1), store.getObject(i));
+        }
+        Assert.assertEquals(store.getObjects(), store.scan().collect(Collectors.toList()));
+        store.addObject("Object 10");
+        Assert.assertEquals("Should add after compact", "Object 10", store.getObject(5));
+        store.close();
+        Assert.assertFalse("Should not leave the copy", new File(FILE_NAME + ".tmp").exists());
+
+        store.read();
+        Assert.assertEquals("Should reopen compacted", Arrays.asList("Object 1", "Object 3", "Object 5",
+                "Object 7", "Object 9", "Object 10"), store.getObjects());
+        store.close();
+    }
+
+    @Test
+    public void test_truncated_tail_skipped() throws Exception {
+        ObjectStore store = fill(3);
+        store.close();
+        final long whole = file.length();
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(whole - 5);
+        }
+
+        store = new ObjectStore(FILE_NAME);
+        store.read();
+        Assert.assertEquals("Should leave out the record cut short", 2, store.getStoredCount());
+        Assert.assertEquals(Arrays.asList("Object 0", "Object 1"), store.scan().collect(Collectors.toList()));
+        store.close();
+        Assert.assertEquals("Should not change the file read", whole - 5, file.length());
+
+        store.write();
+        store.addObject("Object 3");
+        store.close();
+        store.read();
+        Assert.assertEquals("Should add after the last whole record",
+                Arrays.asList("Object 0", "Object 1", "Object 3"), store.getObjects());
+        store.close();
+    }
+}
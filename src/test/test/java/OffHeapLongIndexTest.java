@@ -0,0 +1,166 @@
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.IndexedDataDirector;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.jware.objectbase.disk.OffHeapLongIndex;
+import org.jware.objectbase.disk.PrimitiveIndexedDataDirector;
+import org.junit.Assert;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class OffHeapLongIndexTest {
+
+    @Test
+    public void test_matches_map() {
+        final OffHeapLongIndex index = new OffHeapLongIndex(4);
+        final Map<Long, Long> expected = new HashMap<>();
+        final Random random = new Random(11);
+        for (int i = 0; i < 200000; i++) {
+            final long key = random.nextInt(50000) - 25000L;
+            if (random.nextInt(3) == 0) {
+                Assert.assertEquals("Should remove " + key, expected.remove(key) != null, index.remove(key));
+            } else {
+                expected.put(key, (long) i);
+                index.put(key, i, i % 1000, i % 1000 + 8, i);
+            }
+        }
+        Assert.assertEquals("Should count every key", expected.size(), index.count());
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            final long slot = index.find(entry.getKey());
+            Assert.assertTrue("Should find " + entry.getKey(), slot != OffHeapLongIndex.NOT_FOUND);
+            Assert.assertEquals((long) entry.getValue(), index.start(slot));
+            Assert.assertEquals((int) (entry.getValue() % 1000), index.size(slot));
+            Assert.assertEquals((int) (entry.getValue() % 1000 + 8), index.capacity(slot));
+            Assert.assertEquals((long) entry.getValue(), index.version(slot));
+        }
+        final long[] visited = {0};
+        index.forEach((key, start, size, capacity, version) -> visited[0]++);
+        Assert.assertEquals("Should visit every key", expected.size(), visited[0]);
+    }
+
+    @Test
+    public void test_director_round_trip() throws Exception {
+        final DataStoreDirector dm = DataStoreDirector.createDataStoreDirector("OffHeapTest.jwob", new ObjectDataMarshaller());
+        final PrimitiveIndexedDataDirector<Integer> director = new PrimitiveIndexedDataDirector<>(dm, Integer.class);
+        try {
+            dm.openChannel();
+            for (int i = 0; i < 500; i++) {
+                director.insertData(i, "Record " + i);
+            }
+            director.updateData(7, "Seven");
+            director.updateData(8, "A record much longer than the one it replaces");
+            director.deleteData(9);
+            Assert.assertEquals(499, director.getRecordCount());
+            Assert.assertEquals("Seven", director.retrieveData(7));
+            Assert.assertEquals("A record much longer than the one it replaces", director.retrieveData(8));
+            Assert.assertFalse(director.containsKey(9));
+            director.writeIndexHeaders();
+
+            final PrimitiveIndexedDataDirector<Integer> reopened = new PrimitiveIndexedDataDirector<>(dm, Integer.class);
+            dm.openChannel();
+            reopened.readIndexHeaders();
+            Assert.assertEquals(499, reopened.getRecordCount());
+            Assert.assertEquals(director.getEndOfData(), reopened.getEndOfData());
+            Assert.assertEquals("Record 100", reopened.retrieveData(100));
+
+            final IndexedDataDirector<Integer, DataHeader> mapped = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+            dm.openChannel();
+            mapped.readIndexHeaders();
+            Assert.assertEquals("Should open the same store", "Seven", mapped.retrieveData(7));
+            Assert.assertEquals("Should keep the versions", reopened.getHeader(8).version(), mapped.getVersion(8));
+
+            mapped.insertData(1000, "Journaled");
+            mapped.deleteData(7);
+            mapped.writeIndex();
+            final PrimitiveIndexedDataDirector<Integer> replayed = new PrimitiveIndexedDataDirector<>(dm, Integer.class);
+            replayed.readIndexHeaders();
+            Assert.assertEquals("Should replay the journal", "Journaled", replayed.retrieveData(1000));
+            Assert.assertFalse(replayed.containsKey(7));
+            Assert.assertEquals(mapped.getVersion(1000), replayed.getHeader(1000).version());
+            replayed.insertData(1001, "After");
+            Assert.assertTrue("Should not reuse a version", replayed.getHeader(1001).version() > mapped.getVersion(1000));
+            replayed.deleteData(1000);
+            replayed.writeIndexHeaders();
+
+            final IndexedDataDirector<Integer, DataHeader> again = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+            again.readIndexHeaders();
+            Assert.assertNull("Should not replay a journal the index covers", again.getHeader(1000));
+            Assert.assertEquals("After", again.retrieveData(1001));
+            Assert.assertEquals(replayed.getHeader(1001).version(), again.getVersion(1001));
+        } finally {
+            director.deleteFile();
+            dm.closeChannel();
+            dm.deleteFile();
+        }
+    }
+
+    @Test
+    public void test_director_delete_reinsert_reopen() throws Exception {
+        final DataStoreDirector dm = DataStoreDirector.createDataStoreDirector("OffHeapTest.jwob", new ObjectDataMarshaller());
+        final PrimitiveIndexedDataDirector<Long> director = new PrimitiveIndexedDataDirector<>(dm, Long.class);
+        try {
+            dm.openChannel();
+            for (long i = 0; i < 100; i++) {
+                director.insertData(i, "Record " + i);
+            }
+            final long end = director.getEndOfData();
+            director.deleteData(0L);
+            director.deleteData(50L);
+            Assert.assertTrue("Should free the space deleted", director.getFreeSpace().getFreeBytes() > 0);
+            director.insertData(50L, "Again");
+            Assert.assertTrue("Should reuse a hole", director.getHeader(50L).dataStartPtr() < end);
+            Assert.assertEquals(end, director.getEndOfData());
+            director.updateData(10L, "A record much longer than the one it replaces");
+            for (int churn = 0; churn < 20; churn++) {
+                director.deleteData(20L);
+                director.insertData(20L, "Record 20");
+            }
+            Assert.assertTrue("Should not grow under churn", director.getEndOfData() <= end + 100);
+            final long free = director.getFreeSpace().getFreeBytes();
+            final long endBefore = director.getEndOfData();
+            dm.closeChannel();
+
+            final PrimitiveIndexedDataDirector<Long> reopened = new PrimitiveIndexedDataDirector<>(dm, Long.class);
+            dm.openChannel();
+            reopened.readIndexHeaders();
+            Assert.assertEquals("Should replay every change journaled", 99, reopened.getRecordCount());
+            Assert.assertFalse(reopened.containsKey(0L));
+            Assert.assertEquals("Again", reopened.retrieveData(50L));
+            Assert.assertEquals("A record much longer than the one it replaces", reopened.retrieveData(10L));
+            Assert.assertEquals("Record 20", reopened.retrieveData(20L));
+            Assert.assertEquals(director.getHeader(10L).version(), reopened.getHeader(10L).version());
+            Assert.assertEquals(endBefore, reopened.getEndOfData());
+            Assert.assertEquals("Should find the holes again", free, reopened.getFreeSpace().getFreeBytes());
+            reopened.insertData(0L, "Zero");
+            Assert.assertEquals("Zero", reopened.retrieveData(0L));
+        } finally {
+            director.deleteFile();
+            dm.closeChannel();
+            dm.deleteFile();
+        }
+    }
+}
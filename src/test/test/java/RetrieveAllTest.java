@@ -0,0 +1,166 @@
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.disk.ConcurrentIndexedDataDirector;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.IndexedDataDirector;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class RetrieveAllTest {
+
+    static final int RECORDS = 500;
+    static final int COALESCE_GAP = 4096;
+
+    DataStoreDirector dm;
+    IndexedDataDirector<Integer, DataHeader> director;
+
+    @Before
+    public void setUp() throws Exception {
+        dm = DataStoreDirector.createDataStoreDirector("RetrieveAllTest.jwob", new ObjectDataMarshaller());
+        director = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        director.deleteFile();
+        dm.closeChannel();
+        dm.deleteFile();
+    }
+
+    private static String text(final int length, final char fill) {
+        final char[] chars = new char[length];
+        Arrays.fill(chars, fill);
+        return new String(chars);
+    }
+
+    private void assertRetrieved(final IndexedDataDirector<Integer, DataHeader> director, final List<Integer> keys)
+            throws Exception {
+        final List<Object> values = director.retrieveAll(keys);
+        Assert.assertEquals("Should return a value per key", keys.size(), values.size());
+        for (int i = 0; i < keys.size(); i++) {
+            Assert.assertEquals("Should return " + keys.get(i) + " in its place",
+                    director.retrieveData(keys.get(i)), values.get(i));
+        }
+    }
+
+    @Test
+    public void test_key_order_not_file_order() throws Exception {
+        for (int i = 0; i < RECORDS; i++) {
+            director.insertData(i, "Record " + i);
+        }
+        for (int i = 0; i < RECORDS; i += 7) {
+            director.updateData(i, "A record much longer than the one it replaces " + i);
+        }
+        final List<Integer> keys = new ArrayList<>();
+        for (int i = RECORDS - 1; i >= 0; i--) {
+            keys.add(i);
+        }
+        assertRetrieved(director, keys);
+        Collections.shuffle(keys, new Random(3));
+        assertRetrieved(director, keys);
+        final List<Object> values = director.retrieveAll(Arrays.asList(14, 3, 3, 14));
+        Assert.assertEquals("A record much longer than the one it replaces 14", values.get(0));
+        Assert.assertEquals("Record 3", values.get(1));
+        Assert.assertEquals("Should read a key asked for twice", "Record 3", values.get(2));
+        Assert.assertEquals("A record much longer than the one it replaces 14", values.get(3));
+        Assert.assertTrue(director.retrieveAll(Collections.<Integer>emptyList()).isEmpty());
+    }
+
+    @Test
+    public void test_missing_key() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            director.insertData(i, "Record " + i);
+        }
+        try {
+            director.retrieveAll(Arrays.asList(1, 2, 99, 3));
+            Assert.fail("Should refuse a key not in the index");
+        } catch (IllegalArgumentException expected) {
+        }
+        final ConcurrentIndexedDataDirector<Integer, DataHeader> concurrent
+                = new ConcurrentIndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        concurrent.readIndex();
+        try {
+            concurrent.retrieveAll(Arrays.asList(1, 2, 99, 3));
+            Assert.fail("Should refuse a key not in the index");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertRetrieved(concurrent, Arrays.asList(9, 0, 5));
+    }
+
+    @Test
+    public void test_records_either_side_of_a_gap() throws Exception {
+        /*
+         * Each pair is split by a record of about COALESCE_GAP bytes which is
+         * not asked for, so the pairs fall both inside and just outside one
+         * coalesced read.
+         */
+        final List<Integer> keys = new ArrayList<>();
+        boolean within = false;
+        boolean beyond = false;
+        for (int i = 0; i < 64; i++) {
+            final int key = i * 3;
+            director.insertData(key, "Before " + i);
+            director.insertData(key + 1, text(COALESCE_GAP - 32 + i, 'g'));
+            director.insertData(key + 2, "After " + i);
+            final long gap = director.getHeader(key + 2).dataStartPtr()
+                    - director.getHeader(key).dataStartPtr() - director.getHeader(key).dataSize();
+            within |= gap == COALESCE_GAP;
+            beyond |= gap == COALESCE_GAP + 1;
+            keys.add(key + 2);
+            keys.add(key);
+        }
+        Assert.assertTrue("Should have a gap of exactly COALESCE_GAP", within);
+        Assert.assertTrue("Should have a gap just past COALESCE_GAP", beyond);
+        assertRetrieved(director, keys);
+        for (int i = 0; i < keys.size(); i += 2) {
+            assertRetrieved(director, keys.subList(i, i + 2));
+        }
+    }
+
+    @Test
+    public void test_records_past_the_largest_read() throws Exception {
+        final List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            director.insertData(i, text(300000 + i, (char) ('a' + i)));
+            director.insertData(100 + i, "Small " + i);
+            keys.add(100 + i);
+            keys.add(i);
+        }
+        Collections.reverse(keys);
+        assertRetrieved(director, keys);
+        final List<Object> values = director.retrieveAll(keys);
+        Assert.assertEquals(text(300007, 'h'), values.get(0));
+        Assert.assertEquals("Small 7", values.get(1));
+    }
+}
@@ -0,0 +1,103 @@
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import objectbase.ObjectStore;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.disk.ConcurrentIndexedDataDirector;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.IndexedDataDirector;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.junit.Assert;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class ScanTest {
+
+    /*
+     * Enough records of about 100 bytes for several scan chunks.
+     */
+    static final int RECORDS = 40000;
+    static final String PADDING = String.format("%80s", "");
+
+    static String value(final int key) {
+        return "Record " + key + PADDING;
+    }
+
+    @Test
+    public void test_scan() throws Exception {
+        final DataStoreDirector dm = DataStoreDirector.createDataStoreDirector("ScanTest.jwob", new ObjectDataMarshaller());
+        final IndexedDataDirector<Integer, DataHeader> director = new ConcurrentIndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        try {
+            dm.openChannel();
+            for (int i = 0; i < RECORDS; i++) {
+                director.insertData(i, value(i));
+            }
+            director.deleteData(7);
+            director.updateData(3, value(3) + " moved to the end");
+
+            final List<Map.Entry<Integer, Object>> records = director.scan().collect(Collectors.toList());
+            Assert.assertEquals(RECORDS - 1, records.size());
+            long previous = -1;
+            for (final Map.Entry<Integer, Object> record : records) {
+                final long start = director.getHeader(record.getKey()).dataStartPtr();
+                Assert.assertTrue("Should be in file order", start > previous);
+                previous = start;
+                Assert.assertEquals(record.getKey() == 3 ? value(3) + " moved to the end" : value(record.getKey()), record.getValue());
+            }
+
+            final Set<Integer> keys = new HashSet<>();
+            director.scan().parallel().forEach(record -> {
+                synchronized (keys) {
+                    Assert.assertTrue("Should see each record once", keys.add(record.getKey()));
+                }
+            });
+            Assert.assertEquals(RECORDS - 1, keys.size());
+        } finally {
+            director.deleteFile();
+            dm.closeChannel();
+            dm.deleteFile();
+        }
+    }
+
+    @Test
+    public void test_object_store_scan() throws Exception {
+        final File file = new File("ScanTest.obj");
+        file.delete();
+        final ObjectStore store = new ObjectStore(file.getPath());
+        try {
+            store.write();
+            for (int i = 0; i < RECORDS / 4; i++) {
+                store.addObject(value(i));
+            }
+            store.deleteObject(0);
+            Assert.assertEquals(store.getObjects(), store.scan().collect(Collectors.toList()));
+        } finally {
+            store.close();
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.core.Session;
+import org.jware.objectbase.disk.ConcurrentIndexedDataDirector;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.IndexedDataDirector;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.jware.objectbase.disk.SessionPool;
+import org.jware.objectbase.disk.TransactionalDataDirector;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class SessionTest {
+
+    DataStoreDirector dm;
+    IndexedDataDirector<Integer, DataHeader> director;
+
+    @Before
+    public void setUp() throws Exception {
+        dm = DataStoreDirector.createDataStoreDirector("SessionTest.jwob", new ObjectDataMarshaller());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        director.deleteFile();
+        dm.closeChannel();
+        dm.deleteFile();
+    }
+
+    @Test
+    public void test_pending_until_commit() throws Exception {
+        director = new ConcurrentIndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        director.insertData(1, "One");
+        director.insertData(2, "Two");
+        final long two = director.getHeader(2).version();
+        final SessionPool<Integer, DataHeader> pool = new SessionPool<>(director);
+        try (final Session<Integer> session = pool.acquire()) {
+            session.insertData(3, "Three");
+            session.updateData(1, "Uno");
+            session.deleteData(2);
+            session.insertData(4, "Four");
+            session.deleteData(4);
+            Assert.assertEquals("Should read its own writes", "Uno", session.retrieveData(1));
+            Assert.assertEquals("Three", session.retrieveData(3));
+            Assert.assertEquals("Should drop an insert then delete", 3, session.getPendingCount());
+            Assert.assertEquals("Should not be seen before commit", "One", director.retrieveData(1));
+            Assert.assertNull(director.getHeader(3));
+
+            session.insertData(2, "Dos");
+            session.commit();
+            Assert.assertEquals(0, session.getPendingCount());
+        }
+        Assert.assertEquals("Uno", director.retrieveData(1));
+        Assert.assertEquals("Should turn a delete then insert into an update", "Dos", director.retrieveData(2));
+        Assert.assertTrue(director.getHeader(2).version() > two);
+        Assert.assertEquals("Three", director.retrieveData(3));
+        Assert.assertNull(director.getHeader(4));
+        Assert.assertEquals(3, director.getRecordCount());
+    }
+
+    @Test
+    public void test_cache_and_reuse() throws Exception {
+        director = new ConcurrentIndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        for (int i = 0; i < 10; i++) {
+            director.insertData(i, "Record " + i);
+        }
+        final SessionPool<Integer, DataHeader> pool = new SessionPool<>(director, 4, 1);
+        final Session<Integer> session = pool.acquire();
+        for (int i = 0; i < 4; i++) {
+            session.retrieveData(i);
+        }
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals("Record " + i, session.retrieveData(i));
+        }
+        Assert.assertEquals(4, pool.getHits());
+        Assert.assertEquals(4, pool.getMisses());
+
+        director.updateData(0, "Changed");
+        Assert.assertEquals("Should not serve a stale value", "Changed", session.retrieveData(0));
+        director.deleteData(1);
+        try {
+            session.retrieveData(1);
+            Assert.fail("Should not serve a deleted value");
+        } catch (IllegalArgumentException expected) {
+        }
+        director.deleteData(2);
+        director.insertData(2, "Again");
+        Assert.assertEquals("Should not serve a value deleted and inserted again", "Again", session.retrieveData(2));
+        session.retrieveData(9);
+        Assert.assertEquals(4, pool.getHits());
+        Assert.assertEquals(7, pool.getMisses());
+
+        session.insertData(20, "Twenty");
+        session.rollback();
+        Assert.assertEquals(0, session.getPendingCount());
+        session.close();
+        session.close();
+        Assert.assertNull("Should drop rolled back writes", director.getHeader(20));
+
+        final ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            other.submit(() -> session.retrieveData(0)).get();
+            Assert.fail("Should belong to the thread holding it");
+        } catch (ExecutionException expected) {
+            Assert.assertTrue(expected.getCause() instanceof IllegalStateException);
+        } finally {
+            other.shutdown();
+        }
+
+        Assert.assertEquals(1, pool.getIdleCount());
+        final Session<Integer> again = pool.acquire();
+        Assert.assertSame("Should reuse an idle session", session, again);
+        final Session<Integer> second = pool.acquire();
+        Assert.assertEquals(2, pool.getCreatedCount());
+        again.close();
+        second.close();
+        Assert.assertEquals("Should keep no more than maxIdle", 1, pool.getIdleCount());
+    }
+
+    @Test
+    public void test_transactional_commit() throws Exception {
+        final TransactionalDataDirector<Integer, DataHeader> transactional
+                = new TransactionalDataDirector<>(dm, new DiskRecordHeaderFactory());
+        director = transactional;
+        dm.openChannel();
+        director.insertData(1, 100);
+        director.insertData(2, 0);
+        final SessionPool<Integer, DataHeader> pool = new SessionPool<>(director);
+        try (final Session<Integer> session = pool.acquire()) {
+            session.updateData(1, (Integer) session.retrieveData(1) - 40);
+            session.updateData(2, (Integer) session.retrieveData(2) + 40);
+            session.insertData(3, "Log");
+            final long before = transactional.getCommitStamp();
+            session.commit();
+            Assert.assertEquals("Should commit in one transaction", before + 1, transactional.getCommitStamp());
+        }
+        Assert.assertEquals(60, director.retrieveData(1));
+        Assert.assertEquals(40, director.retrieveData(2));
+        Assert.assertEquals("Log", director.retrieveData(3));
+    }
+}
@@ -0,0 +1,217 @@
+
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.core.Transaction;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.jware.objectbase.disk.TransactionalDataDirector;
+import org.jware.objectbase.exception.TransactionConflictException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class TransactionTest {
+
+    static final int ACCOUNTS = 50;
+    static final int BALANCE = 100;
+    static final int THREADS = 8;
+
+    DataStoreDirector dm;
+    TransactionalDataDirector<Integer, DataHeader> director;
+
+    @Before
+    public void setUp() throws Exception {
+        dm = DataStoreDirector.createDataStoreDirector("TransactionTest.jwob", new ObjectDataMarshaller());
+        director = new TransactionalDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            director.insertData(i, BALANCE);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        director.deleteFile();
+        dm.closeChannel();
+        dm.deleteFile();
+    }
+
+    private TransactionalDataDirector<Integer, DataHeader> reopen() throws Exception {
+        final TransactionalDataDirector<Integer, DataHeader> reopened
+                = new TransactionalDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        reopened.readIndex();
+        return reopened;
+    }
+
+    @Test
+    public void test_snapshot_and_rollback() throws Exception {
+        final Transaction<Integer> before = director.begin();
+        director.updateData(0, 50);
+        director.deleteData(1);
+        director.insertData(ACCOUNTS, 7);
+        Assert.assertEquals("Should read as of its snapshot", BALANCE, before.retrieveData(0));
+        Assert.assertEquals(BALANCE, before.retrieveData(1));
+        try {
+            before.retrieveData(ACCOUNTS);
+            Assert.fail("Should not see a later insert");
+        } catch (IllegalArgumentException expected) {
+        }
+        Assert.assertEquals(50, director.retrieveData(0));
+        Assert.assertTrue("Should keep replaced versions for the snapshot", director.getRetainedCount() > 0);
+        Assert.assertEquals("Should keep a chain for each key changed", 3, director.getChainCount());
+        before.close();
+        Assert.assertEquals("Should drop them once no one can read them", 0, director.getRetainedCount());
+        Assert.assertEquals("Should drop chains of one version", 0, director.getChainCount());
+        Assert.assertEquals(50, director.retrieveData(0));
+        Assert.assertEquals(7, director.retrieveData(ACCOUNTS));
+
+        try (final Transaction<Integer> transaction = director.begin()) {
+            transaction.updateData(2, 0);
+            Assert.assertEquals("Should read its own change", 0, transaction.retrieveData(2));
+        }
+        Assert.assertEquals("Should discard an uncommitted change", BALANCE, director.retrieveData(2));
+        Assert.assertEquals(0, director.getActiveCount());
+    }
+
+    @Test
+    public void test_first_committer_wins() throws Exception {
+        final Transaction<Integer> first = director.begin();
+        final Transaction<Integer> second = director.begin();
+        first.updateData(3, 1);
+        second.updateData(3, 2);
+        second.updateData(4, 2);
+        first.commit();
+        try {
+            second.commit();
+            Assert.fail("Should lose to the first commit");
+        } catch (TransactionConflictException expected) {
+        }
+        Assert.assertEquals(1, director.retrieveData(3));
+        Assert.assertEquals("Should change nothing when it conflicts", BALANCE, director.retrieveData(4));
+        Assert.assertFalse(second.isActive());
+    }
+
+    @Test
+    public void test_transfers_keep_total() throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            keys.add(i);
+        }
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int t = 0; t < THREADS / 2; t++) {
+            final Random random = new Random(t);
+            tasks.add(() -> {
+                for (int n = 0; n < 200; n++) {
+                    final int from = random.nextInt(ACCOUNTS);
+                    final int to = (from + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+                    while (true) {
+                        try (final Transaction<Integer> transaction = director.begin()) {
+                            transaction.updateData(from, (Integer) transaction.retrieveData(from) - 1);
+                            transaction.updateData(to, (Integer) transaction.retrieveData(to) + 1);
+                            transaction.commit();
+                            break;
+                        } catch (TransactionConflictException conflict) {
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+        for (int t = 0; t < THREADS / 2; t++) {
+            tasks.add(() -> {
+                while (running.get()) {
+                    int total = 0;
+                    for (final Object balance : director.retrieveAll(keys)) {
+                        total += (Integer) balance;
+                    }
+                    Assert.assertEquals("Should never see part of a transfer", ACCOUNTS * BALANCE, total);
+                }
+                return null;
+            });
+        }
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Void>> done = new ArrayList<>();
+            for (final Callable<Void> task : tasks) {
+                done.add(pool.submit(task));
+            }
+            for (int t = 0; t < THREADS / 2; t++) {
+                done.get(t).get();
+            }
+            running.set(false);
+            for (final Future<Void> f : done) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        director.compact();
+        int total = 0;
+        for (final Object balance : director.retrieveAll(keys)) {
+            total += (Integer) balance;
+        }
+        Assert.assertEquals(ACCOUNTS * BALANCE, total);
+        Assert.assertEquals(0, director.getRetainedCount());
+        Assert.assertEquals(0, director.getChainCount());
+    }
+
+    @Test
+    public void test_commit_replayed_whole_or_not_at_all() throws Exception {
+        try (final Transaction<Integer> transaction = director.begin()) {
+            transaction.updateData(5, 1);
+            transaction.deleteData(6);
+            transaction.insertData(ACCOUNTS, 2);
+            transaction.commit();
+        }
+        TransactionalDataDirector<Integer, DataHeader> reopened = reopen();
+        Assert.assertEquals(1, reopened.retrieveData(5));
+        Assert.assertNull(reopened.getHeader(6));
+        Assert.assertEquals(2, reopened.retrieveData(ACCOUNTS));
+
+        try (final Transaction<Integer> transaction = reopened.begin()) {
+            transaction.updateData(7, 3);
+            transaction.updateData(8, 3);
+            transaction.commit();
+        }
+        final String journal = director.getfileName().replace(".idx", ".jnl");
+        try (final RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+            file.setLength(file.length() - 5);
+        }
+        reopened = reopen();
+        Assert.assertEquals(Arrays.asList(BALANCE, BALANCE, 1),
+                reopened.retrieveAll(Arrays.asList(7, 8, 5)));
+    }
+}
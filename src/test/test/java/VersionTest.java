@@ -0,0 +1,202 @@
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.jware.objectbase.core.DataHeader;
+import org.jware.objectbase.disk.ConcurrentIndexedDataDirector;
+import org.jware.objectbase.disk.DataStoreDirector;
+import org.jware.objectbase.disk.DiskRecordHeaderFactory;
+import org.jware.objectbase.disk.IndexedDataDirector;
+import org.jware.objectbase.disk.ObjectDataMarshaller;
+import org.jware.objectbase.disk.TransactionalDataDirector;
+import org.jware.objectbase.disk.VersionedValue;
+import org.jware.objectbase.exception.VersionConflictException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * Copyright (C) 2015 J. Paul Jackson <jwareservices@gmail.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+/**
+ *
+ * @author J. Paul Jackson <jwareservices@gmail.com>
+ */
+public class VersionTest {
+
+    static final int THREADS = 8;
+    static final int PER_THREAD = 50;
+
+    DataStoreDirector dm;
+    IndexedDataDirector<Integer, DataHeader> director;
+
+    @Before
+    public void setUp() throws Exception {
+        dm = DataStoreDirector.createDataStoreDirector("VersionTest.jwob", new ObjectDataMarshaller());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        director.deleteFile();
+        dm.closeChannel();
+        dm.deleteFile();
+    }
+
+    private IndexedDataDirector<Integer, DataHeader> reopen() throws Exception {
+        final IndexedDataDirector<Integer, DataHeader> reopened = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        reopened.readIndex();
+        return reopened;
+    }
+
+    @Test
+    public void test_update_if_version() throws Exception {
+        director = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        director.insertData(1, "One");
+        director.insertData(2, "Two");
+        final VersionedValue read = director.retrieveVersioned(1);
+        Assert.assertEquals("One", read.getValue());
+        Assert.assertEquals(1, read.getVersion());
+        director.updateData(1, "A longer value that has to move");
+        try {
+            director.updateIfVersion(1, read.getVersion(), "Lost");
+            Assert.fail("Should report the record changed");
+        } catch (VersionConflictException expected) {
+            Assert.assertEquals(3, expected.getActualVersion());
+        }
+        Assert.assertEquals("A longer value that has to move", director.retrieveData(1));
+        Assert.assertEquals(4, director.updateIfVersion(1, 3, "Short"));
+        director.deleteData(2);
+        director.compact();
+        Assert.assertEquals("Should keep the version when moved", 4, director.getVersion(1));
+
+        director.writeIndex();
+        Assert.assertEquals("Should replay versions from the journal", 4, reopen().getVersion(1));
+        director.writeIndexHeaders();
+        Assert.assertEquals("Should read versions from the index file", 4, reopen().getVersion(1));
+    }
+
+    private void checkReinsert(final IndexedDataDirector<Integer, DataHeader> shared) throws Exception {
+        shared.insertData(1, "One");
+        final long stale = shared.retrieveVersioned(1).getVersion();
+        shared.deleteData(1);
+        shared.insertData(1, "Again");
+        Assert.assertNotEquals("Should not give a version out twice", stale, shared.getVersion(1));
+        try {
+            shared.updateIfVersion(1, stale, "Lost");
+            Assert.fail("Should refuse a version read before the delete");
+        } catch (VersionConflictException expected) {
+        }
+        Assert.assertEquals("Again", shared.retrieveData(1));
+        final long current = shared.getVersion(1);
+        final long updated = shared.updateIfVersion(1, current, "Updated");
+        Assert.assertTrue(updated > current);
+        Assert.assertEquals("Should return the version given", updated, shared.getVersion(1));
+    }
+
+    @Test
+    public void test_reinsert_takes_new_version() throws Exception {
+        director = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        checkReinsert(director);
+    }
+
+    @Test
+    public void test_reinsert_takes_new_version_concurrent() throws Exception {
+        director = new ConcurrentIndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        checkReinsert(director);
+    }
+
+    @Test
+    public void test_reinsert_takes_new_version_transactional() throws Exception {
+        director = new TransactionalDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        checkReinsert(director);
+    }
+
+    @Test
+    public void test_versions_not_reused_after_reopen() throws Exception {
+        director = new IndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        director.insertData(1, "One");
+        director.insertData(2, "Two");
+        final long stale = director.getVersion(2);
+        director.deleteData(2);
+        director.writeIndex();
+        IndexedDataDirector<Integer, DataHeader> reopened = reopen();
+        reopened.insertData(2, "Again");
+        final long replayed = reopened.getVersion(2);
+        Assert.assertTrue("Should count on from the journal", replayed > stale);
+
+        reopened.deleteData(2);
+        reopened.writeIndexHeaders();
+        reopened = reopen();
+        reopened.insertData(2, "Again");
+        Assert.assertTrue("Should count on from the index file", reopened.getVersion(2) > replayed);
+    }
+
+    private void incrementAll(final IndexedDataDirector<Integer, DataHeader> shared) throws Exception {
+        shared.insertData(0, 0);
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Integer>> done = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                done.add(pool.submit((Callable<Integer>) () -> {
+                    int conflicts = 0;
+                    for (int i = 0; i < PER_THREAD; i++) {
+                        while (true) {
+                            final VersionedValue read = shared.retrieveVersioned(0);
+                            try {
+                                shared.updateIfVersion(0, read.getVersion(), (Integer) read.getValue() + 1);
+                                break;
+                            } catch (VersionConflictException conflict) {
+                                conflicts++;
+                            }
+                        }
+                    }
+                    return conflicts;
+                }));
+            }
+            for (final Future<Integer> f : done) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertEquals("Should lose no increment", THREADS * PER_THREAD, shared.retrieveData(0));
+        Assert.assertEquals(1 + THREADS * PER_THREAD, shared.getVersion(0));
+    }
+
+    @Test
+    public void test_optimistic_increments_concurrent() throws Exception {
+        director = new ConcurrentIndexedDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        incrementAll(director);
+    }
+
+    @Test
+    public void test_optimistic_increments_transactional() throws Exception {
+        director = new TransactionalDataDirector<>(dm, new DiskRecordHeaderFactory());
+        dm.openChannel();
+        incrementAll(director);
+    }
+}